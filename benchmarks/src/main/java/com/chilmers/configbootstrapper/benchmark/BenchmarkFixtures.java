@@ -0,0 +1,129 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Generated configuration files and servlet contexts used by the benchmarks.
+ */
+final class BenchmarkFixtures {
+
+    /**
+     * Every SYSTEM_PROPERTY_INTERVAL:th key is a system.property.* entry
+     */
+    static final int SYSTEM_PROPERTY_INTERVAL = 100;
+    
+    private BenchmarkFixtures() {
+    }
+    
+    /**
+     * Writes a properties file with the given number of keys, mixing strings, numbers, booleans and durations 
+     * the way generated application configurations do.
+     */
+    static File writeConfig(File directory, String name, int keyCount) throws IOException {
+        File file = new File(directory, name);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+        try {
+            writer.write("# Generated by config-bootstrapper benchmarks\n");
+            for (int i = 0; i < keyCount; i++) {
+                writer.write(key(i));
+                writer.write('=');
+                switch (i % 4) {
+                    case 0:
+                        writer.write("value number " + i + " with some text\\u00e5");
+                        break;
+                    case 1:
+                        writer.write(Integer.toString(i));
+                        break;
+                    case 2:
+                        writer.write(i % 8 == 2 ? "true" : "false");
+                        break;
+                    default:
+                        writer.write((i % 60) + "s");
+                }
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+    
+    static String key(int i) {
+        if (i % SYSTEM_PROPERTY_INTERVAL == 0) {
+            return "system.property.benchmark.key" + i;
+        }
+        return "team" + (i % 16) + ".component" + (i % 97) + ".key" + i;
+    }
+    
+    static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("config-bootstrapper-benchmark", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+        return directory;
+    }
+    
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    /**
+     * A servlet context that only answers init parameters and the context name, 
+     * which is all the bootstrapper needs.
+     */
+    static ServletContext servletContext(final Map<String, String> initParameters) {
+        return (ServletContext) Proxy.newProxyInstance(ServletContext.class.getClassLoader(), 
+                new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getInitParameter")) {
+                            return initParameters.get(args[0]);
+                        }
+                        if (method.getName().equals("getServletContextName")) {
+                            return "benchmark";
+                        }
+                        if (method.getName().equals("hashCode")) {
+                            return Integer.valueOf(System.identityHashCode(proxy));
+                        }
+                        if (method.getName().equals("equals")) {
+                            return Boolean.valueOf(proxy == args[0]);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
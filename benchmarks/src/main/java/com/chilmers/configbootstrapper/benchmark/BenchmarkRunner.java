@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper.benchmark;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.chilmers.configbootstrapper.BootstrapLogSink;
+
+/**
+ * Runs the benchmarks with the regular JMH command line options. Unless a result format is given with -rf, 
+ * results are written as JSON to target/jmh-result-&lt;config-bootstrapper version&gt;.json, so runs against 
+ * different versions can be compared, e.g. with <tt>jmh.morethan.io</tt> or any JSON tooling.
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * Keeps the bootstrapper's System.out logging out of the measurements and the JMH output
+     */
+    static final BootstrapLogSink DISCARDING_SINK = new BootstrapLogSink() {
+        public void write(List<String> lines) {
+        }
+    };
+    
+    private BenchmarkRunner() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (!Arrays.asList(args).contains("-rf")) {
+            builder.resultFormat(ResultFormatType.JSON);
+            builder.result("target/jmh-result-" + version() + ".json");
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+    
+    private static String version() throws Exception {
+        Properties properties = new Properties();
+        InputStream is = BenchmarkRunner.class.getResourceAsStream("/benchmark.properties");
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+        return properties.getProperty("config-bootstrapper.version", "unknown");
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper.benchmark;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContextEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chilmers.configbootstrapper.BootstrapLog;
+import com.chilmers.configbootstrapper.ConfigServletContextListener;
+
+/**
+ * Time of ConfigServletContextListener#contextInitialized in a fresh JVM, i.e. including class loading 
+ * and JIT-less execution. Every fork measures exactly one initialization.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class ColdStartBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int keyCount;
+    
+    @Param({ "true", "false" })
+    public String parallelBootstrap;
+    
+    private File directory;
+    
+    private ServletContextEvent event;
+    
+    private ConfigServletContextListener listener;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BootstrapLog.getInstance().setSink(BenchmarkRunner.DISCARDING_SINK);
+        directory = BenchmarkFixtures.createTempDirectory();
+        File config = BenchmarkFixtures.writeConfig(directory, "benchmark.properties", keyCount);
+        Map<String, String> initParameters = new HashMap<String, String>();
+        initParameters.put("application.config.location", "file:" + config.getAbsolutePath());
+        initParameters.put("configServletContextListener.parallelBootstrap", parallelBootstrap);
+        System.clearProperty("application.config.location");
+        event = new ServletContextEvent(BenchmarkFixtures.servletContext(initParameters));
+        listener = new ConfigServletContextListener();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        listener.contextDestroyed(event);
+        BenchmarkFixtures.delete(directory);
+    }
+    
+    @Benchmark
+    public void contextInitialized() {
+        listener.contextInitialized(event);
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper.benchmark;
+
+import java.io.File;
+import java.util.PropertyResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.chilmers.configbootstrapper.BootstrapLog;
+import com.chilmers.configbootstrapper.ConfigKey;
+import com.chilmers.configbootstrapper.ConfigReference;
+import com.chilmers.configbootstrapper.ConfigSnapshot;
+import com.chilmers.configbootstrapper.ConfigSnapshotCache;
+
+/**
+ * Lookups of a configuration entry, single threaded and contended by all available processors.
+ * Compares the legacy resource bundle, the snapshot and a pre-resolved key handle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigLookupBenchmark {
+
+    @Param({ "10000" })
+    public int keyCount;
+    
+    private File directory;
+    
+    private PropertyResourceBundle bundle;
+    
+    private ConfigSnapshot snapshot;
+    
+    private ConfigKey<String> key;
+    
+    private String keyName;
+    
+    @Setup
+    public void setUp() throws Exception {
+        BootstrapLog.getInstance().setSink(BenchmarkRunner.DISCARDING_SINK);
+        directory = BenchmarkFixtures.createTempDirectory();
+        File config = BenchmarkFixtures.writeConfig(directory, "benchmark.properties", keyCount);
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference("file:" + config.getAbsolutePath());
+        snapshot = reference.getSnapshot();
+        bundle = snapshot.getResourceBundle();
+        // A key in the middle of the file, built at runtime so it is not the interned literal
+        keyName = new String(BenchmarkFixtures.key(keyCount / 2 + 1).toCharArray());
+        key = reference.stringKey(keyName, null);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.delete(directory);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public String bundleGetString() {
+        return bundle.getString(keyName);
+    }
+    
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String bundleGetStringContended() {
+        return bundle.getString(keyName);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public String snapshotGetString() {
+        return snapshot.getString(keyName);
+    }
+    
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String snapshotGetStringContended() {
+        return snapshot.getString(keyName);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public String keyHandle() {
+        return key.stringValue();
+    }
+    
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String keyHandleContended() {
+        return key.stringValue();
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public void missingKey(Blackhole blackhole) {
+        blackhole.consume(snapshot.getInt("no.such.key", -1));
+    }
+}
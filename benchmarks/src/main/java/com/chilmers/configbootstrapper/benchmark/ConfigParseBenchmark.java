@@ -0,0 +1,98 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper.benchmark;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.PropertyResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chilmers.configbootstrapper.BootstrapLog;
+import com.chilmers.configbootstrapper.ConfigHelper;
+import com.chilmers.configbootstrapper.ConfigSnapshotCache;
+
+/**
+ * Uncached reading and parsing of application configurations of different sizes, from file: and classpath:.
+ * The location is invalidated in the cache before each invocation, so every invocation reads and parses it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigParseBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int keyCount;
+    
+    @Param({ "file", "classpath" })
+    public String source;
+    
+    private File directory;
+    
+    private String location;
+    
+    private ClassLoader previousClassLoader;
+    
+    private final ConfigHelper configHelper = new ConfigHelper("benchmark");
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BootstrapLog.getInstance().setSink(BenchmarkRunner.DISCARDING_SINK);
+        directory = BenchmarkFixtures.createTempDirectory();
+        File config = BenchmarkFixtures.writeConfig(directory, "benchmark.properties", keyCount);
+        previousClassLoader = Thread.currentThread().getContextClassLoader();
+        if (source.equals("classpath")) {
+            Thread.currentThread().setContextClassLoader(
+                    new URLClassLoader(new URL[] { directory.toURI().toURL() }, previousClassLoader));
+            location = "classpath:benchmark.properties";
+        } else {
+            location = "file:" + config.getAbsolutePath();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Thread.currentThread().setContextClassLoader(previousClassLoader);
+        BenchmarkFixtures.delete(directory);
+    }
+    
+    @Benchmark
+    public PropertyResourceBundle parse() {
+        ConfigSnapshotCache.getInstance().invalidate(location);
+        return configHelper.getApplicationConfiguration(location);
+    }
+}
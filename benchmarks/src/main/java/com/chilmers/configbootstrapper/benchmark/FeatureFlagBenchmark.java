@@ -0,0 +1,117 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chilmers.configbootstrapper.BootstrapLog;
+import com.chilmers.configbootstrapper.ConfigSnapshotCache;
+import com.chilmers.configbootstrapper.FeatureFlags;
+
+/**
+ * Evaluations of a percentage rollout flag with an allow-list, single threaded and contended by all 
+ * available processors. Run with <tt>-prof gc</tt> to check that evaluating does not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureFlagBenchmark {
+
+    @Param({ "100" })
+    public int flagCount;
+    
+    private File directory;
+    
+    private FeatureFlags.Flag flag;
+    
+    private String userId;
+    
+    private long numericUserId;
+    
+    @Setup
+    public void setUp() throws Exception {
+        BootstrapLog.getInstance().setSink(BenchmarkRunner.DISCARDING_SINK);
+        directory = BenchmarkFixtures.createTempDirectory();
+        File config = new File(directory, "flags.properties");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(config), "ISO-8859-1");
+        try {
+            for (int i = 0; i < flagCount; i++) {
+                writer.write("feature.flag" + i + "=" + (i % 100) + "%\n");
+                writer.write("feature.flag" + i + ".allow=alice,bob,carol,1,2,3\n");
+            }
+        } finally {
+            writer.close();
+        }
+        flag = ConfigSnapshotCache.getInstance().getReference("file:" + config.getAbsolutePath())
+                .getFeatureFlags().flag("flag" + (flagCount / 2));
+        userId = "user-4711";
+        numericUserId = 4711;
+    }
+    
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.delete(directory);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public boolean stringId() {
+        return flag.isEnabled(userId);
+    }
+    
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean stringIdContended() {
+        return flag.isEnabled(userId);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public boolean numericId() {
+        return flag.isEnabled(numericUserId);
+    }
+    
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean numericIdContended() {
+        return flag.isEnabled(numericUserId);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chilmers.configbootstrapper.BootstrapLog;
+import com.chilmers.configbootstrapper.ConfigServletContextListener;
+import com.chilmers.configbootstrapper.ConfigSnapshot;
+import com.chilmers.configbootstrapper.ConfigSnapshotCache;
+
+/**
+ * Extraction of system.property.* entries from the application configuration 
+ * into the system properties, one entry in {@link BenchmarkFixtures#SYSTEM_PROPERTY_INTERVAL} is exported.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SystemPropertyExportBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int keyCount;
+    
+    private File directory;
+    
+    private ConfigSnapshot snapshot;
+    
+    private final ExportingListener listener = new ExportingListener();
+    
+    @Setup
+    public void setUp() throws Exception {
+        BootstrapLog.getInstance().setSink(BenchmarkRunner.DISCARDING_SINK);
+        directory = BenchmarkFixtures.createTempDirectory();
+        File config = BenchmarkFixtures.writeConfig(directory, "benchmark.properties", keyCount);
+        snapshot = ConfigSnapshotCache.getInstance().getSnapshot("file:" + config.getAbsolutePath());
+    }
+    
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.delete(directory);
+    }
+    
+    @Benchmark
+    public void export() {
+        listener.export(snapshot);
+    }
+    
+    /**
+     * Exposes the protected export of the listener
+     */
+    private static final class ExportingListener extends ConfigServletContextListener {
+        
+        void export(ConfigSnapshot snapshot) {
+            loadApplicationConfigurationSystemProperties(snapshot);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * The log used by config-bootstrapper before and after the logging framework is configured, 
+ * see {@link ConfigHelper#logToSystemOut(String)}.<br/>
+ * <br/>
+ * Messages are appended to a lock-free ring buffer and written to the {@link BootstrapLogSink} 
+ * (System.out by default) in batches, either when a batch is full or when {@link #flush()} is called, 
+ * which the bootstrapper does at the end of each initialization, reload and shutdown, whether it succeeded or not.
+ * The buffer is also flushed when the JVM shuts down while an application is using the log, see {@link #attach()}.
+ * The most recent messages stay in the buffer after they have been written, so they can be 
+ * replayed into log4j once it has been configured, see {@link #replay(Logger, String, long)}.<br/>
+ * <br/>
+ * Use a batch size of 1 to write every message immediately.
+ */
+public final class BootstrapLog {
+
+    /**
+     * Number of messages kept in memory, must be a power of two
+     */
+    private static final int CAPACITY = 1024;
+    
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = 
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    
+    private static final BootstrapLogSink SYSTEM_OUT = new BootstrapLogSink() {
+        public void write(List<String> lines) {
+            StringBuilder batch = new StringBuilder(lines.size() * 96);
+            String lineSeparator = System.lineSeparator();
+            for (String line : lines) {
+                batch.append(line).append(lineSeparator);
+            }
+            System.out.print(batch);
+            System.out.flush();
+        }
+    };
+    
+    private static final BootstrapLog INSTANCE = new BootstrapLog();
+    
+    private final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<Entry>(CAPACITY);
+    
+    private final AtomicLong nextSequence = new AtomicLong();
+    
+    private final AtomicLong flushedSequence = new AtomicLong();
+    
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    
+    private volatile Timestamp lastTimestamp = new Timestamp(Long.MIN_VALUE, "");
+    
+    private volatile BootstrapLogSink sink = SYSTEM_OUT;
+    
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    
+    /**
+     * Number of applications using the log, guarded by this
+     */
+    private int attachedCount;
+    
+    /**
+     * Flushes the log when the JVM shuts down, registered while an application is attached, guarded by this
+     */
+    private Thread shutdownHook;
+    
+    private BootstrapLog() {
+    }
+    
+    public static BootstrapLog getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Called when an application starts using the log. 
+     * The first attached application registers a JVM shutdown hook that flushes the log.
+     */
+    public synchronized void attach() {
+        if (attachedCount++ > 0) {
+            return;
+        }
+        Thread hook = new Thread(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, "config-bootstrapper-log-flush");
+        hook.setContextClassLoader(null);
+        try {
+            Runtime.getRuntime().addShutdownHook(hook);
+            shutdownHook = hook;
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down
+        } catch (SecurityException e) {
+            System.out.println("config-bootstrapper: could not flush the bootstrap log on shutdown, " + e);
+        }
+    }
+    
+    /**
+     * Called when an application stops using the log, after its last flush. 
+     * The last detached application removes the shutdown hook, 
+     * which would otherwise keep the class loader of a redeployed application alive.
+     */
+    public synchronized void detach() {
+        if (attachedCount == 0 || --attachedCount > 0 || shutdownHook == null) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down, the hook is running or has run
+        } catch (SecurityException e) {
+            System.out.println("config-bootstrapper: could not remove the bootstrap log shutdown hook, " + e);
+        }
+        shutdownHook = null;
+    }
+    
+    /**
+     * @return true if the shutdown hook that flushes the log is registered
+     */
+    synchronized boolean isShutdownHookRegistered() {
+        return shutdownHook != null;
+    }
+    
+    /**
+     * @param sink where to write log lines, null to restore the default System.out sink
+     */
+    public void setSink(BootstrapLogSink sink) {
+        flush();
+        this.sink = sink == null ? SYSTEM_OUT : sink;
+    }
+    
+    /**
+     * @param batchSize the number of buffered messages that triggers a write to the sink, 1 writes every message immediately
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, Math.min(batchSize, CAPACITY / 2));
+    }
+    
+    /**
+     * @return the sequence number the next message will get, use with {@link #replay(Logger, String, long)}
+     */
+    public long getSequence() {
+        return nextSequence.get();
+    }
+    
+    /**
+     * Appends a message to the buffer.
+     * @param applicationName the name of the application that logs the message
+     * @param text the message
+     */
+    public void log(String applicationName, String text) {
+        long sequence = nextSequence.getAndIncrement();
+        ring.set((int) sequence & (CAPACITY - 1), new Entry(sequence, System.currentTimeMillis(), applicationName, text));
+        if (sequence + 1 - flushedSequence.get() >= batchSize) {
+            flush();
+        }
+    }
+    
+    /**
+     * Writes all buffered messages to the sink. If another thread is already flushing, 
+     * that thread will write the messages instead.
+     */
+    public void flush() {
+        while (flushedSequence.get() < nextSequence.get() && flushing.compareAndSet(false, true)) {
+            boolean progress;
+            try {
+                progress = writeBuffered();
+            } finally {
+                flushing.set(false);
+            }
+            if (!progress) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * @return true if at least one message was taken from the buffer
+     */
+    private boolean writeBuffered() {
+        long from = flushedSequence.get();
+        long to = nextSequence.get();
+        List<String> lines = new ArrayList<String>((int) Math.min(to - from, CAPACITY));
+        long sequence = from;
+        if (to - from > CAPACITY) {
+            lines.add(format(new Entry(from, System.currentTimeMillis(), "config-bootstrapper", 
+                    "WARNING! " + (to - from - CAPACITY) + " log messages were dropped")));
+            sequence = to - CAPACITY;
+        }
+        for (; sequence < to; sequence++) {
+            Entry entry = ring.get((int) sequence & (CAPACITY - 1));
+            if (entry == null || entry.sequence < sequence) {
+                // Claimed by a thread that has not stored it yet, write it with the next batch
+                break;
+            }
+            if (entry.sequence == sequence) {
+                lines.add(format(entry));
+            }
+        }
+        if (!lines.isEmpty()) {
+            try {
+                sink.write(lines);
+            } catch (RuntimeException e) {
+                System.out.println("config-bootstrapper: the bootstrap log sink failed, " + e);
+            }
+        }
+        flushedSequence.set(sequence);
+        return sequence > from;
+    }
+    
+    /**
+     * Logs the buffered messages of an application to log4j, e.g. once log4j has been configured.
+     * Only the most recent messages are kept in memory, older messages are skipped.
+     * @param logger the logger to log the messages to, at level info
+     * @param applicationName only messages logged for this application are replayed
+     * @param fromSequence only messages logged after {@link #getSequence()} returned this value are replayed
+     */
+    public void replay(Logger logger, String applicationName, long fromSequence) {
+        long to = nextSequence.get();
+        for (long sequence = Math.max(fromSequence, to - CAPACITY); sequence < to; sequence++) {
+            Entry entry = ring.get((int) sequence & (CAPACITY - 1));
+            if (entry != null && entry.sequence == sequence && StringUtils.equals(entry.applicationName, applicationName)) {
+                logger.info("[bootstrap " + timestamp(entry.timeMillis) + "] " + entry.text);
+            }
+        }
+    }
+    
+    private String format(Entry entry) {
+        return timestamp(entry.timeMillis) + " [" + entry.applicationName + "] " + entry.text;
+    }
+    
+    /**
+     * Formats a timestamp, reusing the last formatted value when called again within the same millisecond.
+     */
+    private String timestamp(long timeMillis) {
+        Timestamp last = lastTimestamp;
+        if (last.millis == timeMillis) {
+            return last.text;
+        }
+        String text = TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(timeMillis));
+        lastTimestamp = new Timestamp(timeMillis, text);
+        return text;
+    }
+    
+    private static final class Entry {
+        
+        final long sequence;
+        
+        final long timeMillis;
+        
+        final String applicationName;
+        
+        final String text;
+        
+        Entry(long sequence, long timeMillis, String applicationName, String text) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.applicationName = applicationName;
+            this.text = text;
+        }
+    }
+    
+    private static final class Timestamp {
+        
+        final long millis;
+        
+        final String text;
+        
+        Timestamp(long millis, String text) {
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+}
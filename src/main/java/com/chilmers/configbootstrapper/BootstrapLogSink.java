@@ -0,0 +1,38 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.List;
+
+/**
+ * Destination of the messages written through {@link BootstrapLog}, 
+ * e.g. System.out before and after the logging framework is configured.
+ * 
+ * @see BootstrapLog#setSink(BootstrapLogSink)
+ */
+public interface BootstrapLogSink {
+
+    /**
+     * Writes a batch of formatted log lines. Called by one thread at a time.
+     * @param lines the lines in the order they were logged, without line terminators
+     */
+    void write(List<String> lines);
+    
+}
@@ -0,0 +1,298 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timings and counters of the bootstrap of one application, exposed through JMX as<br/>
+ * <tt>com.chilmers.configbootstrapper:type=ConfigBootstrapper,name="&lt;application name&gt;"</tt><br/>
+ * The MBean is registered by {@link ConfigServletContextListener} when the servlet context is 
+ * initialized and unregistered when it is destroyed.
+ */
+public class BootstrapMetrics implements BootstrapMetricsMBean {
+
+    static final String STAGE_RESOLVE_LOCATION = "resolve-location";
+    
+    static final String STAGE_READ_CONFIG = "read-config";
+    
+    static final String STAGE_SYSTEM_PROPERTIES = "system-properties";
+    
+    static final String STAGE_PARSE_LOG4J = "parse-log4j";
+    
+    static final String STAGE_CONFIGURE_LOG4J = "configure-log4j";
+    
+    /**
+     * The number of keys reported by {@link #getHotConfigKeys()}
+     */
+    static final int HOT_KEY_COUNT = 20;
+    
+    private final String applicationName;
+    
+    private final ConfigHelper configHelper;
+    
+    private volatile ConfigReference configReference;
+    
+    /**
+     * The load counts of the reference when it was set, it is shared with other applications 
+     * reading the same location and has counted their loads too
+     */
+    private volatile long baseLoadCount;
+    
+    private volatile long baseLoadFailureCount;
+    
+    private volatile Map<String, Long> stageNanos = Collections.emptyMap();
+    
+    private volatile long bootstrapNanos = -1;
+    
+    private volatile String stageTimings = "";
+    
+    private final AtomicLong log4jReloadFailureCount = new AtomicLong();
+    
+    private ObjectName objectName;
+    
+    public BootstrapMetrics(String applicationName) {
+        this.applicationName = applicationName;
+        this.configHelper = new ConfigHelper(applicationName);
+    }
+    
+    /**
+     * Registers this instance with the platform MBean server. 
+     * If an MBean is already registered for the application name, a warning is logged and nothing is registered.
+     */
+    public synchronized void register() {
+        try {
+            ObjectName name = new ObjectName("com.chilmers.configbootstrapper:type=ConfigBootstrapper,name=" 
+                    + ObjectName.quote(applicationName));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                configHelper.logToSystemOut("WARNING! An MBean is already registered as " + name 
+                        + ", bootstrap metrics will not be available through JMX for this application");
+                return;
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            configHelper.logToSystemOut("WARNING! Could not register the bootstrap metrics MBean.\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+        }
+    }
+    
+    /**
+     * Unregisters this instance from the platform MBean server, if it was registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            configHelper.logToSystemOut("WARNING! Could not unregister the bootstrap metrics MBean.\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+        }
+        objectName = null;
+    }
+    
+    /**
+     * @param configReference the configuration of the application, already read during its initialization
+     */
+    void setConfigReference(ConfigReference configReference) {
+        if (configReference != null) {
+            this.baseLoadCount = configReference.getLoadCount();
+            this.baseLoadFailureCount = configReference.getLoadFailureCount();
+        }
+        this.configReference = configReference;
+    }
+    
+    void recordBootstrap(BootstrapPipeline pipeline) {
+        this.stageNanos = pipeline.getStageNanos();
+        this.bootstrapNanos = pipeline.getElapsedNanos();
+        this.stageTimings = pipeline.describeTimings();
+    }
+    
+    void recordLog4jReloadFailure() {
+        log4jReloadFailureCount.incrementAndGet();
+    }
+    
+    private long stage(String name) {
+        Long nanos = stageNanos.get(name);
+        return nanos == null ? -1 : nanos.longValue();
+    }
+    
+    public String getApplicationName() {
+        return applicationName;
+    }
+    
+    public String getConfigLocation() {
+        ConfigReference reference = configReference;
+        return reference == null ? null : reference.getLocation();
+    }
+    
+    public long getLocationResolutionNanos() {
+        return stage(STAGE_RESOLVE_LOCATION);
+    }
+    
+    public long getConfigReadNanos() {
+        return stage(STAGE_READ_CONFIG);
+    }
+    
+    public long getSystemPropertiesNanos() {
+        return stage(STAGE_SYSTEM_PROPERTIES);
+    }
+    
+    public long getLog4jParseNanos() {
+        return stage(STAGE_PARSE_LOG4J);
+    }
+    
+    public long getLog4jConfigureNanos() {
+        return stage(STAGE_CONFIGURE_LOG4J);
+    }
+    
+    public long getBootstrapNanos() {
+        return bootstrapNanos;
+    }
+    
+    public String getStageTimings() {
+        return stageTimings;
+    }
+    
+    public long getConfigBytesRead() {
+        ConfigSnapshot snapshot = currentSnapshot();
+        return snapshot == null ? 0 : snapshot.getSourceBytes();
+    }
+    
+    public int getConfigKeyCount() {
+        ConfigSnapshot snapshot = currentSnapshot();
+        return snapshot == null ? 0 : snapshot.size();
+    }
+    
+    public long getReloadCount() {
+        ConfigReference reference = configReference;
+        return reference == null ? 0 : Math.max(0, reference.getLoadCount() - baseLoadCount);
+    }
+    
+    public long getReloadFailureCount() {
+        ConfigReference reference = configReference;
+        return reference == null ? 0 : Math.max(0, reference.getLoadFailureCount() - baseLoadFailureCount);
+    }
+    
+    public long getLog4jReloadFailureCount() {
+        return log4jReloadFailureCount.get();
+    }
+    
+    public int getConfigHistorySize() {
+        ConfigReference reference = configReference;
+        return reference == null ? 0 : reference.getHistory().size();
+    }
+    
+    public boolean rollbackConfig() {
+        ConfigReference reference = configReference;
+        if (reference == null) {
+            return false;
+        }
+        try {
+            return ConfigSnapshotCache.getInstance().rollback(reference.getLocation()) != null;
+        } catch (ConfigLoadException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+    
+    public boolean isConfigAccessTracking() {
+        return accessTracker() != null;
+    }
+    
+    public String[] getHotConfigKeys() {
+        ConfigAccessTracker.Report report = accessReport();
+        if (report == null) {
+            return new String[0];
+        }
+        List<String> hotKeys = new ArrayList<String>();
+        for (Map.Entry<String, Long> entry : report.getHotKeys().entrySet()) {
+            hotKeys.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return hotKeys.toArray(new String[hotKeys.size()]);
+    }
+    
+    public String[] getUnusedConfigKeys() {
+        ConfigAccessTracker.Report report = accessReport();
+        return report == null ? new String[0] : report.getUnusedKeys().toArray(new String[0]);
+    }
+    
+    public String[] getConfigKeysReadAfterStartup() {
+        ConfigAccessTracker.Report report = accessReport();
+        return report == null ? new String[0] : report.getKeysReadAfterStartup().toArray(new String[0]);
+    }
+    
+    private ConfigAccessTracker accessTracker() {
+        ConfigReference reference = configReference;
+        return reference == null ? null : reference.getAccessTracker();
+    }
+    
+    private ConfigAccessTracker.Report accessReport() {
+        ConfigAccessTracker tracker = accessTracker();
+        return tracker == null ? null : tracker.getReport(HOT_KEY_COUNT);
+    }
+    
+    public long getLastReloadNanos() {
+        ConfigReference reference = configReference;
+        return reference == null ? -1 : reference.getLastLoadNanos();
+    }
+    
+    public long getLastReloadTimeMillis() {
+        ConfigReference reference = configReference;
+        return reference == null ? 0 : reference.getLastLoadTimeMillis();
+    }
+    
+    public int getWatcherThreadCount() {
+        return ConfigFileWatcher.getInstance().getActiveThreadCount();
+    }
+    
+    public long getLastWatchReloadLatencyNanos() {
+        return ConfigFileWatcher.getInstance().getLastReloadLatencyNanos();
+    }
+    
+    public long getMaxWatchReloadLatencyNanos() {
+        return ConfigFileWatcher.getInstance().getMaxReloadLatencyNanos();
+    }
+    
+    private ConfigSnapshot currentSnapshot() {
+        ConfigReference reference = configReference;
+        return reference == null ? null : reference.getSnapshot();
+    }
+    
+    @Override
+    public String toString() {
+        return "BootstrapMetrics[" + applicationName + ", bootstrap=" 
+                + TimeUnit.NANOSECONDS.toMillis(bootstrapNanos) + "ms (" + stageTimings + ")]";
+    }
+}
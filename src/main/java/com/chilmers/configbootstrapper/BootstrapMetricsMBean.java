@@ -0,0 +1,155 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+/**
+ * JMX management interface of {@link BootstrapMetrics}. 
+ * All durations are in nanoseconds, a duration of -1 means that the stage has not been run.
+ */
+public interface BootstrapMetricsMBean {
+
+    String getApplicationName();
+    
+    String getConfigLocation();
+    
+    /**
+     * @return time spent deciding the application configuration location
+     */
+    long getLocationResolutionNanos();
+    
+    /**
+     * @return time spent reading and parsing the application configuration during initialization
+     */
+    long getConfigReadNanos();
+    
+    /**
+     * @return time spent exporting system.property.* entries to the system properties
+     */
+    long getSystemPropertiesNanos();
+    
+    /**
+     * @return time spent reading and parsing the log4j configuration
+     */
+    long getLog4jParseNanos();
+    
+    /**
+     * @return time spent applying the parsed log4j configuration
+     */
+    long getLog4jConfigureNanos();
+    
+    /**
+     * @return wall clock time of the whole initialization, stages that run concurrently overlap
+     */
+    long getBootstrapNanos();
+    
+    /**
+     * @return the stage timings as text, in the order the stages completed
+     */
+    String getStageTimings();
+    
+    /**
+     * @return bytes read from the application configuration the last time it was read
+     */
+    long getConfigBytesRead();
+    
+    /**
+     * @return number of entries in the current application configuration
+     */
+    int getConfigKeyCount();
+    
+    /**
+     * @return number of times the application configuration has been read again after initialization
+     */
+    long getReloadCount();
+    
+    /**
+     * @return number of times reading the application configuration has failed or the read configuration was 
+     * rejected after initialization, the last known good configuration is kept in both cases
+     */
+    long getReloadFailureCount();
+    
+    /**
+     * @return number of times a changed log4j configuration file could not be parsed and the current 
+     * log4j configuration was kept
+     */
+    long getLog4jReloadFailureCount();
+    
+    /**
+     * @return number of replaced application configuration snapshots kept for {@link #rollbackConfig()}
+     */
+    int getConfigHistorySize();
+    
+    /**
+     * Replaces the application configuration with the snapshot it replaced, 
+     * see {@link ConfigSnapshotCache#rollback(String)}.
+     * @return true if there was an earlier snapshot to roll back to
+     */
+    boolean rollbackConfig();
+    
+    /**
+     * @return true if the reads of the application configuration keys are counted, 
+     * see {@link ConfigReference#enableAccessTracking(int)}
+     */
+    boolean isConfigAccessTracking();
+    
+    /**
+     * @return the most read keys of the application configuration as key=reads, the most read first, 
+     * empty unless access tracking is enabled
+     */
+    String[] getHotConfigKeys();
+    
+    /**
+     * @return the keys of the application configuration that have never been read, 
+     * empty unless access tracking is enabled
+     */
+    String[] getUnusedConfigKeys();
+    
+    /**
+     * @return the keys of the application configuration that have been read after initialization, 
+     * e.g. on requests, empty unless access tracking is enabled
+     */
+    String[] getConfigKeysReadAfterStartup();
+    
+    /**
+     * @return time it took to read and parse the application configuration the last time
+     */
+    long getLastReloadNanos();
+    
+    /**
+     * @return when the application configuration was last read, in milliseconds since the epoch
+     */
+    long getLastReloadTimeMillis();
+    
+    /**
+     * @return number of running configuration file watcher threads, shared by all applications using the same class loader
+     */
+    int getWatcherThreadCount();
+    
+    /**
+     * @return time from detecting the last change of a watched file until it had been reloaded
+     */
+    long getLastWatchReloadLatencyNanos();
+    
+    /**
+     * @return the highest recorded watch reload latency
+     */
+    long getMaxWatchReloadLatencyNanos();
+    
+}
@@ -0,0 +1,196 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the stages of the bootstrap and records how long each stage took.<br/>
+ * Independent stages can be started with {@link #async(String, Stage)} and run concurrently
+ * on a small executor, virtual threads are used when the JVM supports them. 
+ * A sequential pipeline runs the async stages directly on the calling thread.
+ */
+final class BootstrapPipeline {
+
+    /**
+     * A unit of bootstrap work
+     */
+    interface Stage<T> {
+        T run() throws Exception;
+    }
+    
+    private static final int POOL_SIZE = 2;
+    
+    private final ExecutorService executor;
+    
+    private final Map<String, Long> stageNanos = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    
+    private final long startNanos = System.nanoTime();
+    
+    private BootstrapPipeline(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * @param parallel true to run async stages on an executor, false to run them on the calling thread
+     */
+    static BootstrapPipeline create(boolean parallel) {
+        return new BootstrapPipeline(parallel ? newExecutor() : null);
+    }
+    
+    private static ExecutorService newExecutor() {
+        try {
+            Method virtualThreadExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreadExecutor.invoke(null);
+        } catch (Exception e) {
+            // Virtual threads are not available, use a small pool of platform threads
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "config-bootstrapper-bootstrap-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Runs a stage on the calling thread.
+     * @throws CompletionException wrapping the exception thrown by the stage
+     */
+    <T> T run(String name, Stage<T> stage) {
+        long start = System.nanoTime();
+        try {
+            return stage.run();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            stageNanos.put(name, Long.valueOf(System.nanoTime() - start));
+        }
+    }
+    
+    /**
+     * Starts a stage on the executor of the pipeline.
+     * @return a future holding the result of the stage
+     */
+    <T> CompletableFuture<T> async(final String name, final Stage<T> stage) {
+        if (executor == null) {
+            CompletableFuture<T> result = new CompletableFuture<T>();
+            try {
+                result.complete(run(name, stage));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+            return result;
+        }
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        executor.execute(new Runnable() {
+            public void run() {
+                Thread thread = Thread.currentThread();
+                ClassLoader previous = thread.getContextClassLoader();
+                thread.setContextClassLoader(contextClassLoader);
+                try {
+                    result.complete(BootstrapPipeline.this.run(name, stage));
+                } catch (CompletionException e) {
+                    result.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    thread.setContextClassLoader(previous);
+                }
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Waits for an async stage.
+     * @return the result of the stage
+     * @throws RuntimeException the unchecked exception thrown by the stage, 
+     * or a CompletionException wrapping a checked exception
+     */
+    static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Lets already started stages complete and stops the executor.
+     */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * @return the duration of each completed stage in nanoseconds, in the order the stages completed
+     */
+    Map<String, Long> getStageNanos() {
+        synchronized (stageNanos) {
+            return new LinkedHashMap<String, Long>(stageNanos);
+        }
+    }
+    
+    /**
+     * @return nanoseconds since the pipeline was created
+     */
+    long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+    
+    /**
+     * @return the stage timings in milliseconds, e.g. "read-config=12.3ms, parse-log4j=40.1ms"
+     */
+    String describeTimings() {
+        StringBuilder description = new StringBuilder();
+        for (Map.Entry<String, Long> stage : getStageNanos().entrySet()) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(stage.getKey()).append('=')
+                    .append(String.format("%.1fms", Double.valueOf(stage.getValue().longValue() / 1e6)));
+        }
+        return description.toString();
+    }
+}
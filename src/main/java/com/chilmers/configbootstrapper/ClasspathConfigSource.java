@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Reads classpath: locations from the context class loader, e.g. <tt>classpath:application.properties</tt>
+ */
+final class ClasspathConfigSource implements ConfigSource {
+
+    static final String PREFIX = "classpath:";
+    
+    public boolean supports(String location) {
+        return location.startsWith(PREFIX);
+    }
+    
+    public InputStream open(String location) throws ConfigLoadException, IOException {
+        String resource = toResource(location);
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        InputStream is = classLoader == null ? null : classLoader.getResourceAsStream(resource);
+        if (is == null) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.NOT_FOUND, 
+                    "There is no resource " + resource + " on the classpath", null);
+        }
+        return is;
+    }
+    
+    public long getVersion(String location) {
+        URL url = toURL(location);
+        return url == null ? 0 : url.toExternalForm().hashCode();
+    }
+    
+    /**
+     * @return the resource name of a classpath: location
+     */
+    static String toResource(String location) {
+        return location.substring(PREFIX.length());
+    }
+    
+    /**
+     * @return the URL that a classpath: location resolves to, or null if there is no such resource
+     */
+    static URL toURL(String location) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader == null ? null : classLoader.getResource(toResource(location));
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often each key of the configuration behind a {@link ConfigReference} is read, 
+ * see {@link ConfigReference#enableAccessTracking(int)}.<br/>
+ * <br/>
+ * Reads through a snapshot, a subset or a {@link ConfigKey} are counted per key name, so the counts carry over 
+ * when the configuration is reloaded. Iterating over the entries with getKey/getValue is not counted.
+ * Each key has a striped counter that does not contend under concurrent reads. With a sample rate above 1, 
+ * only about one in that many reads is recorded, and counted as that many reads, so the counts are estimates.<br/>
+ * <br/>
+ * The {@link Report} tells which keys are read the most, which keys of the current configuration have never 
+ * been read and which have been read after the application was started, i.e. that need to react on reloads.
+ * Tracking is off by default, since it adds a few nanoseconds to each read.
+ */
+public final class ConfigAccessTracker {
+
+    private final int sampleRate;
+    
+    private final Map<String, KeyStats> stats = new HashMap<String, KeyStats>();
+    
+    private volatile boolean startupComplete;
+    
+    private volatile ConfigSnapshot snapshot;
+    
+    ConfigAccessTracker(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+    
+    /**
+     * @return 1 if every read is recorded, otherwise the number of reads per recorded read
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    
+    /**
+     * Marks the end of the application's startup, reads after this are reported as reads after startup.
+     */
+    public void markStartupComplete() {
+        startupComplete = true;
+    }
+    
+    public boolean isStartupComplete() {
+        return startupComplete;
+    }
+    
+    /**
+     * Starts counting the reads of the given snapshot, done for each snapshot before it is published.
+     */
+    synchronized void track(ConfigSnapshot snapshot) {
+        KeyStats[] bySlot = new KeyStats[snapshot.capacity()];
+        for (int slot = 0; slot < bySlot.length; slot++) {
+            String key = snapshot.getKey(slot);
+            if (key != null) {
+                KeyStats keyStats = stats.get(key);
+                if (keyStats == null) {
+                    keyStats = new KeyStats(key);
+                    stats.put(key, keyStats);
+                }
+                bySlot[slot] = keyStats;
+            }
+        }
+        snapshot.setAccessRecorder(new Recorder(this, bySlot));
+        this.snapshot = snapshot;
+    }
+    
+    /**
+     * @param hotKeyCount the number of most read keys to report
+     * @return the access statistics of the keys in the current configuration
+     */
+    public Report getReport(int hotKeyCount) {
+        ConfigSnapshot current = snapshot;
+        List<KeyStats> keys = new ArrayList<KeyStats>();
+        if (current != null) {
+            synchronized (this) {
+                for (int slot = 0; slot < current.capacity(); slot++) {
+                    String key = current.getKey(slot);
+                    if (key != null) {
+                        keys.add(stats.get(key));
+                    }
+                }
+            }
+        }
+        Map<String, Long> hotKeys = new LinkedHashMap<String, Long>();
+        List<String> unusedKeys = new ArrayList<String>();
+        List<String> keysReadAfterStartup = new ArrayList<String>();
+        final Map<KeyStats, Long> counts = new HashMap<KeyStats, Long>();
+        for (KeyStats keyStats : keys) {
+            long count = keyStats.reads.sum();
+            counts.put(keyStats, count);
+            if (count == 0) {
+                unusedKeys.add(keyStats.key);
+            }
+            if (keyStats.readAfterStartup) {
+                keysReadAfterStartup.add(keyStats.key);
+            }
+        }
+        Collections.sort(keys, new Comparator<KeyStats>() {
+            public int compare(KeyStats a, KeyStats b) {
+                int comparison = Long.compare(counts.get(b), counts.get(a));
+                return comparison != 0 ? comparison : a.key.compareTo(b.key);
+            }
+        });
+        for (KeyStats keyStats : keys) {
+            long count = counts.get(keyStats);
+            if (hotKeys.size() == hotKeyCount || count == 0) {
+                break;
+            }
+            hotKeys.put(keyStats.key, count);
+        }
+        Collections.sort(unusedKeys);
+        Collections.sort(keysReadAfterStartup);
+        return new Report(hotKeys, unusedKeys, keysReadAfterStartup);
+    }
+    
+    /**
+     * The access statistics of the keys in a configuration
+     */
+    public static final class Report {
+        
+        private final Map<String, Long> hotKeys;
+        
+        private final List<String> unusedKeys;
+        
+        private final List<String> keysReadAfterStartup;
+        
+        Report(Map<String, Long> hotKeys, List<String> unusedKeys, List<String> keysReadAfterStartup) {
+            this.hotKeys = Collections.unmodifiableMap(hotKeys);
+            this.unusedKeys = Collections.unmodifiableList(unusedKeys);
+            this.keysReadAfterStartup = Collections.unmodifiableList(keysReadAfterStartup);
+        }
+        
+        /**
+         * @return the most read keys with their number of reads, the most read first
+         */
+        public Map<String, Long> getHotKeys() {
+            return hotKeys;
+        }
+        
+        /**
+         * @return the keys that have never been read, in key order
+         */
+        public List<String> getUnusedKeys() {
+            return unusedKeys;
+        }
+        
+        /**
+         * @return the keys that have been read after startup, in key order
+         */
+        public List<String> getKeysReadAfterStartup() {
+            return keysReadAfterStartup;
+        }
+        
+        @Override
+        public String toString() {
+            return "Report[hot=" + hotKeys + ", unused=" + unusedKeys + ", readAfterStartup=" + keysReadAfterStartup + "]";
+        }
+    }
+    
+    /**
+     * The statistics of one key name, shared by all snapshots that contain it
+     */
+    private static final class KeyStats {
+        
+        final String key;
+        
+        final LongAdder reads = new LongAdder();
+        
+        /**
+         * Only ever set to true, a stale read just sets it once more
+         */
+        volatile boolean readAfterStartup;
+        
+        KeyStats(String key) {
+            this.key = key;
+        }
+    }
+    
+    /**
+     * Records the reads of one snapshot, the statistics of each key are looked up by slot
+     */
+    static final class Recorder {
+        
+        private final ConfigAccessTracker tracker;
+        
+        private final KeyStats[] bySlot;
+        
+        private final int sampleRate;
+        
+        Recorder(ConfigAccessTracker tracker, KeyStats[] bySlot) {
+            this.tracker = tracker;
+            this.bySlot = bySlot;
+            this.sampleRate = tracker.sampleRate;
+        }
+        
+        void record(int slot) {
+            if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+                return;
+            }
+            KeyStats keyStats = bySlot[slot];
+            keyStats.reads.add(sampleRate);
+            if (tracker.startupComplete && !keyStats.readAfterStartup) {
+                keyStats.readAfterStartup = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds a configuration to a typed configuration object declared with {@link ConfigProperty} annotations, 
+ * validating all declared entries at once.<br/>
+ * <br/>
+ * The type is either a class with a constructor without parameters, whose annotated fields are set, 
+ * or an interface, whose annotated methods return the bound values. 
+ * The declarations of a type are read once and kept together with method handles for its constructor and fields, 
+ * so binding does not use reflection. Reading a field of a bound object is a plain field access, 
+ * reading a value of a bound interface is a call through a {@link Proxy}.<br/>
+ * <br/>
+ * A missing required entry, or a value that can't be converted to the declared type, is reported in the 
+ * {@link ConfigBindingException}, together with all other problems of the configuration.
+ * 
+ * @see ConfigHelper#bindApplicationConfiguration(String, Class)
+ */
+public final class ConfigBinder {
+
+    private static final ClassValue<Schema> SCHEMAS = new ClassValue<Schema>() {
+        protected Schema computeValue(Class<?> type) {
+            return Schema.of(type);
+        }
+    };
+    
+    private ConfigBinder() {
+    }
+    
+    /**
+     * @param config the configuration, e.g. a snapshot or a subset of it
+     * @param type the annotated class or interface
+     * @return an instance of the type holding the values of the configuration
+     * @throws ConfigBindingException if the configuration does not match the declarations
+     * @throws IllegalArgumentException if the type is not a valid declaration, e.g. if a field has an unsupported type
+     */
+    public static <T> T bind(ConfigView config, Class<T> type) throws ConfigBindingException {
+        Schema schema = SCHEMAS.get(type);
+        Object[] values = new Object[schema.properties.length];
+        List<String> problems = new ArrayList<String>();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = schema.properties[i].read(config, problems);
+        }
+        if (!problems.isEmpty()) {
+            throw new ConfigBindingException(type, problems);
+        }
+        return type.cast(schema.create(values));
+    }
+    
+    /**
+     * The declarations of a type
+     */
+    private static final class Schema {
+        
+        final Class<?> type;
+        
+        final Property[] properties;
+        
+        /**
+         * Creates an instance of a class, null for interfaces
+         */
+        final MethodHandle constructor;
+        
+        /**
+         * The index of the property of each method of an interface, null for classes
+         */
+        final Map<Method, Integer> methods;
+        
+        /**
+         * Calls the default methods of an interface with the proxy and an array of the arguments, null for classes
+         */
+        final Map<Method, MethodHandle> defaultMethods;
+        
+        private Schema(Class<?> type, Property[] properties, MethodHandle constructor, Map<Method, Integer> methods, 
+                Map<Method, MethodHandle> defaultMethods) {
+            this.type = type;
+            this.properties = properties;
+            this.constructor = constructor;
+            this.methods = methods;
+            this.defaultMethods = defaultMethods;
+        }
+        
+        static Schema of(Class<?> type) {
+            return type.isInterface() ? ofInterface(type) : ofClass(type);
+        }
+        
+        private static Schema ofInterface(Class<?> type) {
+            List<Property> properties = new ArrayList<Property>();
+            Map<Method, Integer> methods = new HashMap<Method, Integer>();
+            Map<Method, MethodHandle> defaultMethods = new HashMap<Method, MethodHandle>();
+            for (Method method : type.getMethods()) {
+                ConfigProperty annotation = method.getAnnotation(ConfigProperty.class);
+                if (annotation == null) {
+                    if (Modifier.isAbstract(method.getModifiers())) {
+                        throw new IllegalArgumentException(method + " is not annotated with @ConfigProperty");
+                    }
+                    if (method.isDefault()) {
+                        defaultMethods.put(method, defaultMethod(type, method));
+                    }
+                    continue;
+                }
+                if (method.getParameterCount() != 0) {
+                    throw new IllegalArgumentException(method + " must not have parameters");
+                }
+                methods.put(method, properties.size());
+                properties.add(new Property(annotation, method.getName(), method.getReturnType(), null));
+            }
+            return new Schema(type, properties.toArray(new Property[properties.size()]), null, methods, defaultMethods);
+        }
+        
+        private static MethodHandle defaultMethod(Class<?> type, Method method) {
+            try {
+                return MethodHandles.privateLookupIn(type, MethodHandles.lookup()).unreflectSpecial(method, type)
+                        .asType(MethodType.genericMethodType(method.getParameterCount() + 1))
+                        .asSpreader(Object[].class, method.getParameterCount());
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(method + " can't be accessed", e);
+            }
+        }
+        
+        private static Schema ofClass(Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                List<Property> properties = new ArrayList<Property>();
+                for (Class<?> declaring = type; declaring != Object.class; declaring = declaring.getSuperclass()) {
+                    for (Field field : declaring.getDeclaredFields()) {
+                        ConfigProperty annotation = field.getAnnotation(ConfigProperty.class);
+                        if (annotation == null) {
+                            continue;
+                        }
+                        if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                            throw new IllegalArgumentException(field + " must be neither static nor final");
+                        }
+                        field.setAccessible(true);
+                        MethodHandle setter = lookup.unreflectSetter(field)
+                                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                        properties.add(new Property(annotation, field.getName(), field.getType(), setter));
+                    }
+                }
+                MethodHandle create = lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+                return new Schema(type, properties.toArray(new Property[properties.size()]), create, null, null);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type + " has no constructor without parameters", e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(type + " can't be accessed", e);
+            }
+        }
+        
+        Object create(Object[] values) {
+            if (constructor == null) {
+                return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new Values(this, values));
+            }
+            try {
+                Object instance = constructor.invokeExact();
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != null) {
+                        properties[i].setter.invokeExact(instance, values[i]);
+                    }
+                }
+                return instance;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Could not create " + type.getName(), e);
+            }
+        }
+    }
+    
+    /**
+     * A declared entry
+     */
+    private static final class Property {
+        
+        final String key;
+        
+        final Class<?> type;
+        
+        final boolean required;
+        
+        final String defaultValue;
+        
+        /**
+         * Sets the field of a class, null for interfaces
+         */
+        final MethodHandle setter;
+        
+        Property(ConfigProperty annotation, String name, Class<?> type, MethodHandle setter) {
+            this.key = annotation.value().length() == 0 ? name : annotation.value();
+            this.type = type;
+            this.required = annotation.required();
+            this.defaultValue = annotation.defaultValue().length() == 0 ? null : annotation.defaultValue();
+            this.setter = setter;
+            if (type != char[].class && !isSupported(type)) {
+                throw new IllegalArgumentException("The type " + type.getName() + " of " + key + " is not supported");
+            }
+            if (defaultValue != null && type != char[].class && convert(defaultValue) == null) {
+                throw new IllegalArgumentException("The default value of " + key + " is not a valid " + type.getSimpleName());
+            }
+        }
+        
+        /**
+         * @return the converted value, or null if it is missing or invalid, in which case a problem may have been added
+         */
+        Object read(ConfigView config, List<String> problems) {
+            if (type == char[].class) {
+                try {
+                    char[] secret = config.getSecret(key);
+                    if (secret != null) {
+                        return secret;
+                    }
+                } catch (IllegalStateException e) {
+                    problems.add(key + ": " + e.getMessage());
+                    return null;
+                }
+                if (defaultValue != null) {
+                    return defaultValue.toCharArray();
+                }
+                if (required) {
+                    problems.add(key + ": missing");
+                }
+                return null;
+            }
+            String text = config.getString(key);
+            if (text == null) {
+                if (defaultValue == null) {
+                    if (required) {
+                        problems.add(key + ": missing");
+                    }
+                    return null;
+                }
+                text = defaultValue;
+            }
+            Object value = convert(text);
+            if (value == null) {
+                problems.add(key + ": \"" + text + "\" is not a valid " + type.getSimpleName());
+            }
+            return value;
+        }
+        
+        private Object convert(String text) {
+            if (type == String.class) {
+                return text;
+            }
+            if (type == int.class || type == Integer.class) {
+                Long value = ValueParser.parseLong(text);
+                return value == null || value.longValue() != value.intValue() ? null : Integer.valueOf(value.intValue());
+            }
+            if (type == long.class || type == Long.class) {
+                return ValueParser.parseLong(text);
+            }
+            if (type == boolean.class || type == Boolean.class) {
+                return ValueParser.parseBoolean(text);
+            }
+            if (type == Duration.class) {
+                return ValueParser.parseDuration(text);
+            }
+            for (Object constant : type.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equalsIgnoreCase(text.trim())) {
+                    return constant;
+                }
+            }
+            return null;
+        }
+        
+        private static boolean isSupported(Class<?> type) {
+            return type == String.class || type == int.class || type == Integer.class || type == long.class 
+                    || type == Long.class || type == boolean.class || type == Boolean.class || type == Duration.class 
+                    || type.isEnum();
+        }
+        
+        /**
+         * @return the value of a missing, optional entry for an interface method
+         */
+        Object getMissingValue() {
+            if (type == int.class) {
+                return Integer.valueOf(0);
+            }
+            if (type == long.class) {
+                return Long.valueOf(0);
+            }
+            if (type == boolean.class) {
+                return Boolean.FALSE;
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the bound values for the methods of an interface
+     */
+    private static final class Values implements InvocationHandler {
+        
+        private static final Object[] NO_ARGS = new Object[0];
+        
+        private final Schema schema;
+        
+        private final Object[] values;
+        
+        Values(Schema schema, Object[] values) {
+            this.schema = schema;
+            this.values = values;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    values[i] = schema.properties[i].getMissingValue();
+                }
+            }
+        }
+        
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Integer index = schema.methods.get(method);
+            if (index != null) {
+                Object value = values[index];
+                return value instanceof char[] ? ((char[]) value).clone() : value;
+            }
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                return toString();
+            }
+            // A default method of the interface
+            Object[] arguments = args == null ? NO_ARGS : args;
+            return (Object) schema.defaultMethods.get(method).invokeExact(proxy, arguments);
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(schema.type.getSimpleName()).append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                text.append(schema.properties[i].key).append('=')
+                        .append(values[i] instanceof char[] ? "****" : String.valueOf(values[i]));
+            }
+            return text.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when a configuration does not match the {@link ConfigProperty} declarations it is bound to. 
+ * Lists all problems that were found, not only the first one.
+ * 
+ * @see ConfigBinder#bind(ConfigView, Class)
+ */
+public class ConfigBindingException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+    
+    private final Class<?> type;
+    
+    private final List<String> problems;
+    
+    public ConfigBindingException(Class<?> type, List<String> problems) {
+        super(describe(type, problems));
+        this.type = type;
+        this.problems = Collections.unmodifiableList(problems);
+    }
+    
+    private static String describe(Class<?> type, List<String> problems) {
+        StringBuilder message = new StringBuilder("The configuration does not match ").append(type.getName())
+                .append(", ").append(problems.size()).append(problems.size() == 1 ? " problem:" : " problems:");
+        for (String problem : problems) {
+            message.append("\n - ").append(problem);
+        }
+        return message.toString();
+    }
+    
+    /**
+     * @return the type that the configuration was bound to
+     */
+    public Class<?> getType() {
+        return type;
+    }
+    
+    /**
+     * @return one description per problem, e.g. a missing entry or a value that is not a number
+     */
+    public List<String> getProblems() {
+        return problems;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Describes a reload of the configuration behind a {@link ConfigReference}.
+ */
+public class ConfigChangeEvent extends EventObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ConfigSnapshot oldSnapshot;
+    
+    private final transient ConfigSnapshot newSnapshot;
+    
+    private final Set<String> addedKeys;
+    
+    private final Set<String> removedKeys;
+    
+    private final Set<String> changedKeys;
+    
+    ConfigChangeEvent(ConfigReference source, ConfigSnapshot oldSnapshot, ConfigSnapshot newSnapshot, 
+            Set<String> addedKeys, Set<String> removedKeys, Set<String> changedKeys) {
+        super(source);
+        this.oldSnapshot = oldSnapshot;
+        this.newSnapshot = newSnapshot;
+        this.addedKeys = Collections.unmodifiableSet(addedKeys);
+        this.removedKeys = Collections.unmodifiableSet(removedKeys);
+        this.changedKeys = Collections.unmodifiableSet(changedKeys);
+    }
+    
+    /**
+     * Compares two snapshots.
+     * @return the differences between the snapshots or null if they hold the same entries
+     */
+    static ConfigChangeEvent diff(ConfigReference source, ConfigSnapshot oldSnapshot, ConfigSnapshot newSnapshot) {
+        Set<String> added = new HashSet<String>();
+        Set<String> removed = new HashSet<String>();
+        Set<String> changed = new HashSet<String>();
+        if (newSnapshot != null) {
+            for (int slot = 0; slot < newSnapshot.capacity(); slot++) {
+                String key = newSnapshot.getKey(slot);
+                if (key == null) {
+                    continue;
+                }
+                int oldSlot = oldSnapshot == null ? -1 : oldSnapshot.indexOf(key);
+                String oldValue = oldSlot < 0 ? null : oldSnapshot.getValue(oldSlot);
+                if (oldValue == null) {
+                    added.add(key);
+                } else if (!oldValue.equals(newSnapshot.getValue(slot))) {
+                    changed.add(key);
+                }
+            }
+        }
+        if (oldSnapshot != null) {
+            for (int slot = 0; slot < oldSnapshot.capacity(); slot++) {
+                String key = oldSnapshot.getKey(slot);
+                if (key != null && (newSnapshot == null || newSnapshot.indexOf(key) < 0)) {
+                    removed.add(key);
+                }
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            return null;
+        }
+        return new ConfigChangeEvent(source, oldSnapshot, newSnapshot, added, removed, changed);
+    }
+    
+    public ConfigReference getReference() {
+        return (ConfigReference) getSource();
+    }
+    
+    /**
+     * @return the snapshot before the reload, null if the configuration could not be read before
+     */
+    public ConfigSnapshot getOldSnapshot() {
+        return oldSnapshot;
+    }
+    
+    /**
+     * @return the snapshot after the reload, null if the configuration could not be read
+     */
+    public ConfigSnapshot getNewSnapshot() {
+        return newSnapshot;
+    }
+    
+    public Set<String> getAddedKeys() {
+        return addedKeys;
+    }
+    
+    public Set<String> getRemovedKeys() {
+        return removedKeys;
+    }
+    
+    public Set<String> getChangedKeys() {
+        return changedKeys;
+    }
+    
+    /**
+     * @param key a configuration key
+     * @return true if the given key was added, removed or changed
+     */
+    public boolean isAffected(String key) {
+        return addedKeys.contains(key) || removedKeys.contains(key) || changedKeys.contains(key);
+    }
+    
+    @Override
+    public String toString() {
+        return "ConfigChangeEvent[" + getReference().getLocation() + ", added=" + addedKeys 
+                + ", removed=" + removedKeys + ", changed=" + changedKeys + "]";
+    }
+}
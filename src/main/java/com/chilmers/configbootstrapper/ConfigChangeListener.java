@@ -0,0 +1,40 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.EventListener;
+
+/**
+ * Receives notifications when the configuration behind a {@link ConfigReference} has been reloaded
+ * and at least one entry was added, removed or changed.<br/>
+ * Listeners are called on the thread that reloaded the configuration, typically the 
+ * shared watcher thread, and should return quickly.
+ * 
+ * @see ConfigReference#addChangeListener(ConfigChangeListener)
+ */
+public interface ConfigChangeListener extends EventListener {
+
+    /**
+     * Called after the new snapshot has been published.
+     * @param event the old and new snapshot together with the keys that differ between them
+     */
+    void configurationChanged(ConfigChangeEvent event);
+    
+}
@@ -0,0 +1,472 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches configuration files for changes, regardless of how many files are watched, using at most 
+ * two shared daemon threads, one for each {@link Strategy}:
+ * <ul>
+ *  <li><strong>EVENT</strong> - one shared {@link WatchService}. Bursts of file system events for the same file 
+ *      (e.g. an editor truncating and writing a file) are debounced, the callback of a watched file is run once 
+ *      the file has been quiet for the debounce interval.</li>
+ *  <li><strong>POLL</strong> - one shared scheduled executor that checks the last modified time and size of all
+ *      polled files once per poll interval. Use it for file systems where events are not delivered, e.g. some network mounts.</li>
+ * </ul>
+ * Callbacks are run on the watcher threads, i.e. off the request path.<br/>
+ * <br/>
+ * A watcher thread is started when the first file is watched with its strategy and stops when the last 
+ * {@link Registration} for that strategy has been cancelled.
+ */
+public final class ConfigFileWatcher {
+
+    /**
+     * How changes of a watched file are detected
+     */
+    public enum Strategy { EVENT, POLL }
+    
+    /**
+     * Default time a file must be quiet before its callback is run
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 250;
+    
+    /**
+     * Default time between two checks of polled files
+     */
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 5000;
+    
+    private static final ConfigFileWatcher INSTANCE = new ConfigFileWatcher();
+    
+    private final ConfigHelper configHelper = new ConfigHelper("config-bootstrapper");
+    
+    private final Object lock = new Object();
+    
+    private final Map<Path, WatchKey> directoryKeys = new HashMap<Path, WatchKey>();
+    
+    private final Map<Path, List<Registration>> registrations = new HashMap<Path, List<Registration>>();
+    
+    private final Map<Path, Long> pendingDeadlines = new HashMap<Path, Long>();
+    
+    private final Map<Path, Long> pendingSince = new HashMap<Path, Long>();
+    
+    private final AtomicInteger activeThreads = new AtomicInteger();
+    
+    private final AtomicLong reloadCount = new AtomicLong();
+    
+    private final AtomicLong lastReloadLatencyNanos = new AtomicLong();
+    
+    private final AtomicLong maxReloadLatencyNanos = new AtomicLong();
+    
+    private WatchService watchService;
+    
+    private ScheduledExecutorService pollExecutor;
+    
+    private volatile long debounceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEBOUNCE_MILLIS);
+    
+    private volatile long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+    
+    private ConfigFileWatcher() {
+    }
+    
+    public static ConfigFileWatcher getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @param debounceMillis the time in milliseconds a file must be quiet before its callback is run
+     */
+    public void setDebounce(long debounceMillis) {
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, debounceMillis));
+    }
+    
+    /**
+     * Sets the poll interval. Takes effect when the poll thread is started, i.e. when no file is polled.
+     * @param pollIntervalMillis the time in milliseconds between two checks of polled files
+     */
+    public void setPollInterval(long pollIntervalMillis) {
+        this.pollIntervalMillis = Math.max(1, pollIntervalMillis);
+    }
+    
+    /**
+     * Starts watching the given file using the {@link Strategy#EVENT} strategy.
+     * @see #watch(File, Runnable, Strategy)
+     */
+    public Registration watch(File file, Runnable onChange) throws IOException {
+        return watch(file, onChange, Strategy.EVENT);
+    }
+    
+    /**
+     * Starts watching the given file.
+     * @param file the file to watch, its directory must exist
+     * @param onChange called on a watcher thread when the file has been created, modified or deleted
+     * @param strategy how changes are detected
+     * @return a registration that stops the watch when cancelled
+     * @throws IOException if the directory of the file can't be watched
+     */
+    public Registration watch(File file, Runnable onChange, Strategy strategy) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Registration registration = new Registration(path, onChange, strategy);
+        synchronized (lock) {
+            if (strategy == Strategy.POLL) {
+                if (pollExecutor == null) {
+                    startPollExecutor();
+                }
+            } else {
+                Path directory = path.getParent();
+                if (watchService == null) {
+                    watchService = FileSystems.getDefault().newWatchService();
+                    startWatcherThread(watchService);
+                }
+                if (!directoryKeys.containsKey(directory)) {
+                    directoryKeys.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, 
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+                }
+            }
+            List<Registration> fileRegistrations = registrations.get(path);
+            if (fileRegistrations == null) {
+                fileRegistrations = new ArrayList<Registration>();
+                registrations.put(path, fileRegistrations);
+            }
+            fileRegistrations.add(registration);
+        }
+        return registration;
+    }
+    
+    private void startWatcherThread(final WatchService service) {
+        Thread thread = new Thread(countedThread(new Runnable() {
+            public void run() {
+                watchLoop(service);
+            }
+        }), "config-bootstrapper-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private void startPollExecutor() {
+        pollExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(countedThread(runnable), "config-bootstrapper-poller");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pollExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                pollFiles();
+            }
+        }, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private Runnable countedThread(final Runnable runnable) {
+        return new Runnable() {
+            public void run() {
+                activeThreads.incrementAndGet();
+                try {
+                    runnable.run();
+                } finally {
+                    activeThreads.decrementAndGet();
+                }
+            }
+        };
+    }
+    
+    private void pollFiles() {
+        List<Registration> polled = new ArrayList<Registration>();
+        synchronized (lock) {
+            for (List<Registration> fileRegistrations : registrations.values()) {
+                for (Registration registration : fileRegistrations) {
+                    if (registration.strategy == Strategy.POLL) {
+                        polled.add(registration);
+                    }
+                }
+            }
+        }
+        // Stat the files without the lock, a slow file system must not block watching and cancelling files
+        List<Registration> changed = new ArrayList<Registration>();
+        long detected = System.nanoTime();
+        for (Registration registration : polled) {
+            if (registration.pollChanged()) {
+                changed.add(registration);
+            }
+        }
+        for (Registration registration : changed) {
+            runCallback(registration, detected);
+        }
+    }
+    
+    private void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                long waitNanos = nanosUntilNextDeadline();
+                WatchKey key = waitNanos == Long.MAX_VALUE 
+                        ? service.take() : service.poll(waitNanos, TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    handleEvents(key);
+                }
+                runDueCallbacks();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // The last registration was cancelled
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private long nanosUntilNextDeadline() {
+        synchronized (lock) {
+            long wait = Long.MAX_VALUE;
+            long now = System.nanoTime();
+            for (Long deadline : pendingDeadlines.values()) {
+                wait = Math.min(wait, Math.max(0, deadline.longValue() - now));
+            }
+            return wait;
+        }
+    }
+    
+    private void handleEvents(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        long now = System.nanoTime();
+        long deadline = now + debounceNanos;
+        synchronized (lock) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    for (Path path : registrations.keySet()) {
+                        if (directory.equals(path.getParent())) {
+                            markPending(path, now, deadline);
+                        }
+                    }
+                } else {
+                    Path path = directory.resolve((Path) event.context());
+                    if (registrations.containsKey(path)) {
+                        markPending(path, now, deadline);
+                    }
+                }
+            }
+        }
+        key.reset();
+    }
+    
+    private void markPending(Path path, long now, long deadline) {
+        pendingDeadlines.put(path, Long.valueOf(deadline));
+        if (!pendingSince.containsKey(path)) {
+            pendingSince.put(path, Long.valueOf(now));
+        }
+    }
+    
+    private void runDueCallbacks() {
+        List<Registration> due = new ArrayList<Registration>();
+        List<Long> detected = new ArrayList<Long>();
+        synchronized (lock) {
+            long now = System.nanoTime();
+            for (Iterator<Map.Entry<Path, Long>> it = pendingDeadlines.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Path, Long> pending = it.next();
+                if (pending.getValue().longValue() - now <= 0) {
+                    it.remove();
+                    Long since = pendingSince.remove(pending.getKey());
+                    List<Registration> fileRegistrations = registrations.get(pending.getKey());
+                    if (fileRegistrations != null) {
+                        for (Registration registration : fileRegistrations) {
+                            if (registration.strategy == Strategy.EVENT) {
+                                due.add(registration);
+                                detected.add(since == null ? Long.valueOf(now) : since);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < due.size(); i++) {
+            runCallback(due.get(i), detected.get(i).longValue());
+        }
+    }
+    
+    /**
+     * Runs the callback of a changed file and records the time from when the change was 
+     * detected until the callback has completed.
+     */
+    private void runCallback(Registration registration, long detectedNanos) {
+        try {
+            registration.onChange.run();
+        } catch (RuntimeException e) {
+            configHelper.logToSystemOut("WARNING! Exception while handling change of " + registration.path + "\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+        }
+        configHelper.flushLog();
+        long latency = System.nanoTime() - detectedNanos;
+        reloadCount.incrementAndGet();
+        lastReloadLatencyNanos.set(latency);
+        long max;
+        while (latency > (max = maxReloadLatencyNanos.get()) && !maxReloadLatencyNanos.compareAndSet(max, latency)) {
+            // retry
+        }
+    }
+    
+    /**
+     * @return the number of callbacks that have been run because a watched file changed
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+    
+    /**
+     * @return nanoseconds from detecting the last change until its callback completed, 
+     * including the debounce interval for the EVENT strategy
+     */
+    public long getLastReloadLatencyNanos() {
+        return lastReloadLatencyNanos.get();
+    }
+    
+    /**
+     * @return the highest latency recorded by {@link #getLastReloadLatencyNanos()}
+     */
+    public long getMaxReloadLatencyNanos() {
+        return maxReloadLatencyNanos.get();
+    }
+    
+    /**
+     * @return the number of watcher threads that are currently running, at most one per strategy
+     */
+    public int getActiveThreadCount() {
+        return activeThreads.get();
+    }
+    
+    /**
+     * @return the number of files that are currently watched
+     */
+    public int getWatchedFileCount() {
+        synchronized (lock) {
+            return registrations.size();
+        }
+    }
+    
+    private void cancel(Registration registration) {
+        synchronized (lock) {
+            List<Registration> fileRegistrations = registrations.get(registration.path);
+            if (fileRegistrations == null || !fileRegistrations.remove(registration)) {
+                return;
+            }
+            if (fileRegistrations.isEmpty()) {
+                registrations.remove(registration.path);
+                pendingDeadlines.remove(registration.path);
+                pendingSince.remove(registration.path);
+            }
+            Path directory = registration.path.getParent();
+            boolean directoryInUse = false;
+            boolean polling = false;
+            boolean watching = false;
+            for (Map.Entry<Path, List<Registration>> entry : registrations.entrySet()) {
+                for (Registration other : entry.getValue()) {
+                    polling |= other.strategy == Strategy.POLL;
+                    watching |= other.strategy == Strategy.EVENT;
+                    directoryInUse |= other.strategy == Strategy.EVENT && directory.equals(entry.getKey().getParent());
+                }
+            }
+            if (!directoryInUse) {
+                WatchKey key = directoryKeys.remove(directory);
+                if (key != null) {
+                    key.cancel();
+                }
+            }
+            if (!polling && pollExecutor != null) {
+                pollExecutor.shutdownNow();
+                pollExecutor = null;
+            }
+            if (!watching && watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    configHelper.logToSystemOut("WARNING! Exception while closing the configuration file watcher.\n"
+                            + "Exception:" + e.getClass().toString() + "\n"
+                            + "Message:" + e.getMessage());
+                }
+                watchService = null;
+            }
+        }
+    }
+    
+    /**
+     * A watched file and its callback.
+     */
+    public final class Registration {
+        
+        private final Path path;
+        
+        private final Runnable onChange;
+        
+        private final Strategy strategy;
+        
+        private long lastModified;
+        
+        private long length;
+        
+        private Registration(Path path, Runnable onChange, Strategy strategy) {
+            this.path = path;
+            this.onChange = onChange;
+            this.strategy = strategy;
+            File file = path.toFile();
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+        
+        /**
+         * Only called by the poll thread.
+         * @return true if the last modified time or size of the file has changed since the last poll
+         */
+        private boolean pollChanged() {
+            File file = path.toFile();
+            long currentLastModified = file.lastModified();
+            long currentLength = file.length();
+            if (currentLastModified == lastModified && currentLength == length) {
+                return false;
+            }
+            lastModified = currentLastModified;
+            length = currentLength;
+            return true;
+        }
+        
+        /**
+         * Stops watching the file for this registration.
+         */
+        public void cancel() {
+            ConfigFileWatcher.this.cancel(this);
+        }
+    }
+}
@@ -19,11 +19,13 @@
  */
 package com.chilmers.configbootstrapper;
 
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
 import java.util.PropertyResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -38,7 +40,8 @@ public class ConfigHelper {
     /**
      * Used for reading the application from it's location after initialization is done
      * using the default application config location key.
-     * See {@link ConfigServletContextListener#DEFAULT_CONFIG_LOCATION_PROPERTY_KEY}
+     * See {@link ConfigServletContextListener#DEFAULT_CONFIG_LOCATION_PROPERTY_KEY}<br/>
+     * The configuration is cached, see {@link ConfigSnapshotCache} for when it is read again.
      * @return A property resource bundle holding the current configuration.
      */
     public static PropertyResourceBundle readApplicationConfiguration() {
@@ -47,6 +50,7 @@ public class ConfigHelper {
     
     /**
      * Used for reading the application from it's location after initialization is done.
+     * The configuration is cached, see {@link ConfigSnapshotCache} for when it is read again.
      * @param propertyKey the name of the property for the application config location or
      * null for the default key.
      * Can be null in most cases. If it is blank or null the default key will be used. 
@@ -54,53 +58,278 @@ public class ConfigHelper {
      * @return A property resource bundle holding the current configuration.
      */
     public static PropertyResourceBundle readApplicationConfiguration(String propertyKey) {
+        ConfigSnapshot snapshot = readApplicationConfigurationSnapshot(propertyKey);
+        return snapshot == null ? null : snapshot.getResourceBundle();
+    }
+    
+    /**
+     * Same as {@link #readApplicationConfiguration()} but returns the cached snapshot,
+     * which is cheaper to query than a resource bundle.
+     * @return A snapshot of the current configuration or null if it could not be read.
+     */
+    public static ConfigSnapshot readApplicationConfigurationSnapshot() {
+        return readApplicationConfigurationSnapshot(null);
+    }
+    
+    /**
+     * Same as {@link #readApplicationConfiguration(String)} but returns the cached snapshot,
+     * which is cheaper to query than a resource bundle.
+     * @param propertyKey the name of the property for the application config location or
+     * null for the default key.
+     * @return A snapshot of the current configuration or null if it could not be read.
+     */
+    public static ConfigSnapshot readApplicationConfigurationSnapshot(String propertyKey) {
         if (StringUtils.isBlank(propertyKey)) {
             propertyKey = ConfigServletContextListener.DEFAULT_CONFIG_LOCATION_PROPERTY_KEY;
         }
         String applicationConfigLocation = System.getProperty(propertyKey);
-        return new ConfigHelper("config-bootstrapper").getApplicationConfiguration(applicationConfigLocation);       
+        return ConfigSnapshotCache.getInstance().getSnapshot(applicationConfigLocation);
+    }
+    
+    /**
+     * Returns a live reference to the configuration at the location given by the default application 
+     * config location key, see {@link #readApplicationConfigReference(String)}
+     * @return A reference to the current configuration or null if no location has been set.
+     */
+    public static ConfigReference readApplicationConfigReference() {
+        return readApplicationConfigReference(null);
+    }
+    
+    /**
+     * Returns a live reference to the configuration. Use it to create {@link ConfigKey} handles for
+     * entries that are read on hot paths, the handles will see new values when the configuration is reloaded.
+     * @param propertyKey the name of the property for the application config location or
+     * null for the default key.
+     * @return A reference to the current configuration or null if no location has been set.
+     */
+    public static ConfigReference readApplicationConfigReference(String propertyKey) {
+        if (StringUtils.isBlank(propertyKey)) {
+            propertyKey = ConfigServletContextListener.DEFAULT_CONFIG_LOCATION_PROPERTY_KEY;
+        }
+        return ConfigSnapshotCache.getInstance().getReference(System.getProperty(propertyKey));
+    }
+    
+    /**
+     * Marks the cached configuration for the given location as changed so that the next read parses it again.
+     * @param applicationConfigLocation the application configuration location
+     */
+    public static void invalidateApplicationConfiguration(String applicationConfigLocation) {
+        ConfigSnapshotCache.getInstance().invalidate(applicationConfigLocation);
+    }
+    
+    /**
+     * Returns a typed view of the application configuration at the given location.
+     * The view is shared through {@link ConfigSnapshotCache}, so the location is only read again when it has changed.
+     * @param applicationConfigLocation the location of the application configuration, starting with file: or classpath:
+     * @return the configuration or null if it could not be read
+     */
+    public ConfigView getApplicationConfigView(String applicationConfigLocation) {
+        return ConfigSnapshotCache.getInstance().getSnapshot(applicationConfigLocation, this);
     }
     
+    /**
+     * Returns a live reference to the application configuration at the given location.
+     * @param applicationConfigLocation the location of the application configuration, starting with file: or classpath:
+     * @return the configuration reference, see {@link ConfigReference}
+     */
+    public ConfigReference getApplicationConfigReference(String applicationConfigLocation) {
+        return ConfigSnapshotCache.getInstance().getReference(applicationConfigLocation, this);
+    }
+    
+    /**
+     * Stacks the given locations, where a later location overrides the entries of an earlier one, 
+     * with environment variables and system properties overriding the entries on top.
+     * @param applicationConfigLocations the locations, starting with file: or classpath:, e.g. 
+     * the defaults on the classpath followed by an environment specific file
+     * @return the layered configuration, see {@link LayeredConfiguration}
+     */
+    public LayeredConfiguration getLayeredConfiguration(String... applicationConfigLocations) {
+        LayeredConfiguration configuration = new LayeredConfiguration(this);
+        for (String location : applicationConfigLocations) {
+            configuration.addLocation(location);
+        }
+        return configuration.addEnvironmentOverrides().addSystemPropertyOverrides();
+    }
+    
+    /**
+     * Binds the application configuration at the given location to a type declared with {@link ConfigProperty} 
+     * annotations, see {@link ConfigBinder}. The configuration is read through the {@link ConfigSnapshotCache}.
+     * @param applicationConfigLocation the location of the application configuration
+     * @param type the annotated class or interface
+     * @return an instance of the type holding the values of the configuration
+     * @throws ConfigLoadException if the configuration could not be read
+     * @throws ConfigBindingException if the configuration does not match the declarations of the type
+     */
+    public <T> T bindApplicationConfiguration(String applicationConfigLocation, Class<T> type) 
+            throws ConfigLoadException, ConfigBindingException {
+        return ConfigBinder.bind(ConfigSnapshotCache.getInstance().load(applicationConfigLocation, this), type);
+    }
+    
+    /**
+     * Returns the application configuration at the given location as a resource bundle.
+     * The configuration is read through the {@link ConfigSnapshotCache}, so if it can't be read again
+     * after a change, the last known good configuration is returned.
+     * @param applicationConfigLocation the location of the application configuration, starting with file: or classpath:
+     * @return the configuration or null if it has never been read successfully
+     */
     public PropertyResourceBundle getApplicationConfiguration(String applicationConfigLocation) {
+        ConfigSnapshot snapshot = ConfigSnapshotCache.getInstance().getSnapshot(applicationConfigLocation, this);
+        return snapshot == null ? null : snapshot.getResourceBundle();
+    }
+    
+    /**
+     * Reads and parses the application configuration at the given location, bypassing the cache.
+     * @return the configuration or null if it could not be read
+     */
+    ConfigSnapshot readSnapshot(String applicationConfigLocation) {
+        return readSnapshot(applicationConfigLocation, null);
+    }
+    
+    /**
+     * Reads and parses the application configuration at the given location, bypassing the cache.
+     * @param previous the previously read configuration of the location, whose resolved references are reused 
+     * where nothing they depend on has changed, or null
+     * @return the configuration or null if it could not be read
+     */
+    ConfigSnapshot readSnapshot(String applicationConfigLocation, ConfigSnapshot previous) {
+        try {
+            return loadSnapshot(applicationConfigLocation, previous);
+        } catch (ConfigLoadException e) {
+            logLoadFailure(e);
+            return null;
+        }
+    }
+    
+    void logLoadFailure(ConfigLoadException e) {
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        logToSystemOut("There was a problem reading the application configuration at location: " 
+                + e.getLocation() +"\n"
+                + "Exception:" + cause.getClass().toString() + "\n"
+                + "Message:" + e.getMessage());
+    }
+    
+    /**
+     * Reads and parses the application configuration at the given location, bypassing the cache.
+     * @param previous the previously read configuration of the location, see {@link #readSnapshot(String, ConfigSnapshot)}
+     * @return the configuration
+     * @throws ConfigLoadException if the configuration could not be read
+     */
+    ConfigSnapshot loadSnapshot(String location, ConfigSnapshot previous) throws ConfigLoadException {
+        if (location == null) {
+            throw new ConfigLoadException(null, ConfigLoadException.Reason.INVALID_LOCATION, 
+                    "No application configuration location given", null);
+        }
+        ConfigSource source = ConfigSources.find(location);
+        if (source == null) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.INVALID_LOCATION, 
+                    "The application configuration location must start with file:, classpath: " 
+                    + "or a scheme of a registered ConfigSource, e.g. http:", null);
+        }
+        ConfigSnapshot loaded = source.load(location, previous, this);
+        if (loaded != null) {
+            return loaded;
+        }
         InputStream is = null;
         try {
-            if (applicationConfigLocation.startsWith("classpath:")) {
-                applicationConfigLocation = applicationConfigLocation.replaceFirst("classpath:", "");
-                is = Thread.currentThread().getContextClassLoader().getResourceAsStream(applicationConfigLocation); 
-            } else if (applicationConfigLocation.startsWith("file:")) {
-                applicationConfigLocation = applicationConfigLocation.replaceFirst("file:", "");
-                is = new FileInputStream(applicationConfigLocation);    
-            } else {
-                logToSystemOut("The application configuration location must start with file: or classpath:");
-            }
-            return new PropertyResourceBundle(is);
+            is = ConfigSources.open(location, source, this);
+            ConfigSnapshotStore store = source instanceof FileConfigSource 
+                    ? ConfigSnapshotStore.forFile(FileConfigSource.toFile(location), this) : null;
+            return parse(location, PropertiesParser.read(is), previous, store);
             
-        } catch (Exception e) {
-            logToSystemOut("There was a problem reading the application configuration at location: " 
-                    + applicationConfigLocation +"\n"
-                    + "Exception:" + e.getClass().toString() + "\n"
-                    + "Message:" + e.getMessage());
+        } catch (IOException e) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.READ_FAILED, e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.PARSE_FAILED, e.getMessage(), e);
         } finally {
-            try {
-                is.close();
-            } catch (Exception e) {
-                logToSystemOut("WARNING! Exception while trying to close configuration file.\n"
-                        + "Exception:" + e.getClass().toString() + "\n"
-                        + "Message:" + e.getMessage());
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (Exception e) {
+                    logToSystemOut("WARNING! Exception while trying to close configuration file.\n"
+                            + "Exception:" + e.getClass().toString() + "\n"
+                            + "Message:" + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Parses the content of a configuration, unless the same content is already shared through the 
+     * {@link ConfigRegistry} or available from the {@link ConfigSnapshotStore}.
+     */
+    private ConfigSnapshot parse(String location, ByteBuffer content, ConfigSnapshot previous, 
+            ConfigSnapshotStore store) {
+        ConfigRegistry registry = ConfigRegistry.getInstance();
+        boolean shared = registry.isRegistered(location);
+        if (!shared && store == null) {
+            return PropertiesParser.parse(location, content, previous);
+        }
+        byte[] hash = ConfigSnapshotStore.sha256(content);
+        if (shared) {
+            ConfigSnapshot snapshot = registry.lookup(hash, content.limit());
+            if (snapshot != null) {
+                logToSystemOut("Sharing the already parsed configuration with the same content as " + location);
+                snapshot = snapshot.withLocation(location);
+                registry.remember(location, hash, content.limit(), snapshot);
+                return snapshot;
             }
         }
-        return null;
+        ConfigSnapshot snapshot = store == null ? PropertiesParser.parse(location, content, previous) 
+                : store.readOrParse(location, content, hash, previous);
+        if (shared) {
+            registry.remember(location, hash, content.limit(), snapshot);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Loads the application configuration at the given location without blocking the calling thread, 
+     * using the executor of the {@link ConfigSnapshotCache}. 
+     * The configuration is read through the cache, i.e. a cached, unchanged configuration is not read again.
+     * @param applicationConfigLocation the location of the application configuration, starting with file: or classpath:
+     * @return a future that completes with the configuration, or exceptionally with a {@link ConfigLoadException}
+     */
+    public CompletableFuture<ConfigSnapshot> loadAsync(String applicationConfigLocation) {
+        return loadAsync(applicationConfigLocation, ConfigSnapshotCache.getInstance().getExecutor());
+    }
+    
+    /**
+     * Loads the application configuration at the given location on the given executor.
+     * @param applicationConfigLocation the location of the application configuration, starting with file: or classpath:
+     * @param executor the executor to read the configuration on
+     * @return a future that completes with the configuration, or exceptionally with a {@link ConfigLoadException}
+     * @see #loadAsync(String)
+     */
+    public CompletableFuture<ConfigSnapshot> loadAsync(final String applicationConfigLocation, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return ConfigSnapshotCache.getInstance().load(applicationConfigLocation, this);
+            } catch (ConfigLoadException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
     }
     
     /**
      * Helper method that logs to System.out.
      * Good to have before and after the logging framework is configured
-     * and after it has been shut down. 
+     * and after it has been shut down.<br/>
+     * The text is buffered and written in batches, see {@link BootstrapLog}. 
      * @param text the text to log to System.out
      */
     public void logToSystemOut(String text) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-        System.out.println(sdf.format(new Date()) + " [" + applicationName + "] " + text);
+        BootstrapLog.getInstance().log(applicationName, text);
+    }
+    
+    /**
+     * Writes the buffered output of {@link #logToSystemOut(String)}.
+     */
+    public void flushLog() {
+        BootstrapLog.getInstance().flush();
+    }
+    
+    public String getApplicationName() {
+        return applicationName;
     }
     
 }
@@ -0,0 +1,301 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves <tt>${...}</tt> references in configuration values:
+ * <ul>
+ *  <li><tt>${other.key}</tt> - the value of another entry in the same configuration</li>
+ *  <li><tt>${env:NAME}</tt> - the environment variable NAME</li>
+ *  <li><tt>${sys:name}</tt> - the system property name</li>
+ * </ul>
+ * <tt>$${</tt> is written as a literal <tt>${</tt>. References that cannot be resolved are kept as written.<br/>
+ * <br/>
+ * Every value containing references is compiled once per snapshot into a {@link Template}. 
+ * The entries referring to other entries are then resolved in dependency order (Kahn's algorithm), 
+ * entries that are part of a circular reference are kept unresolved and reported.<br/>
+ * When a previous snapshot of the same location is given, an entry whose raw value is unchanged and whose
+ * referenced entries resolve to the same values as before keeps its previously resolved value, so only 
+ * the entries affected by a change are resolved again.
+ */
+final class ConfigInterpolator {
+
+    private static final byte LITERAL = 0;
+    
+    private static final byte KEY = 1;
+    
+    private static final byte ENV = 2;
+    
+    private static final byte SYS = 3;
+    
+    /**
+     * Entries in a circular reference that are listed in the warning
+     */
+    private static final int MAX_REPORTED_KEYS = 10;
+    
+    private ConfigInterpolator() {
+    }
+    
+    /**
+     * A value compiled into literal parts and references
+     */
+    static final class Template {
+        
+        final byte[] kinds;
+        
+        /**
+         * The literal text or the referenced name, per part
+         */
+        final String[] parts;
+        
+        final boolean systemProperties;
+        
+        private Template(byte[] kinds, String[] parts, boolean systemProperties) {
+            this.kinds = kinds;
+            this.parts = parts;
+            this.systemProperties = systemProperties;
+        }
+    }
+    
+    /**
+     * Compiles the given value.
+     * @return the template or null if the value contains no references
+     */
+    static Template compile(String value) {
+        int start = value.indexOf("${");
+        if (start < 0) {
+            return null;
+        }
+        List<Byte> kinds = new ArrayList<Byte>();
+        List<String> parts = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        boolean references = false;
+        boolean systemProperties = false;
+        int position = 0;
+        while (start >= 0) {
+            if (start > 0 && value.charAt(start - 1) == '$') {
+                // $${ is an escaped ${
+                literal.append(value, position, start - 1).append("${");
+                position = start + 2;
+                references = true;
+                start = value.indexOf("${", position);
+                continue;
+            }
+            int end = value.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            literal.append(value, position, start);
+            String name = value.substring(start + 2, end);
+            byte kind = KEY;
+            if (name.startsWith("env:")) {
+                kind = ENV;
+                name = name.substring("env:".length());
+            } else if (name.startsWith("sys:")) {
+                kind = SYS;
+                name = name.substring("sys:".length());
+                systemProperties = true;
+            }
+            if (name.length() == 0) {
+                literal.append(value, start, end + 1);
+            } else {
+                if (literal.length() > 0) {
+                    kinds.add(Byte.valueOf(LITERAL));
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                }
+                kinds.add(Byte.valueOf(kind));
+                parts.add(name);
+                references = true;
+            }
+            position = end + 1;
+            start = value.indexOf("${", position);
+        }
+        if (!references) {
+            return null;
+        }
+        literal.append(value, position, value.length());
+        if (literal.length() > 0) {
+            kinds.add(Byte.valueOf(LITERAL));
+            parts.add(literal.toString());
+        }
+        byte[] kindArray = new byte[kinds.size()];
+        for (int i = 0; i < kindArray.length; i++) {
+            kindArray[i] = kinds.get(i).byteValue();
+        }
+        return new Template(kindArray, parts.toArray(new String[parts.size()]), systemProperties);
+    }
+    
+    /**
+     * Resolves the templates of a snapshot under construction.
+     * @param snapshot the snapshot, its keys must be in place so that {@link ConfigSnapshot#indexOf(String)} works
+     * @param keys the key table of the snapshot
+     * @param rawValues the values as written, per slot
+     * @param templates the compiled values, per slot, null where a value contains no references
+     * @param previous the previous snapshot of the same location or null
+     * @return the resolved values, per slot
+     */
+    static String[] resolve(ConfigSnapshot snapshot, String[] keys, String[] rawValues, Template[] templates, 
+            ConfigSnapshot previous) {
+        int capacity = keys.length;
+        String[] values = rawValues.clone();
+        // Number of referenced entries that have a template and are not yet resolved, per slot
+        int[] pending = new int[capacity];
+        // Dependents of every slot as linked lists through the edge arrays
+        int[] firstEdge = new int[capacity];
+        Arrays.fill(firstEdge, -1);
+        int[] edgeTarget = new int[16];
+        int[] nextEdge = new int[16];
+        int edges = 0;
+        int[] queue = new int[capacity];
+        int queueEnd = 0;
+        int templateCount = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            Template template = templates[slot];
+            if (template == null) {
+                continue;
+            }
+            templateCount++;
+            for (int part = 0; part < template.kinds.length; part++) {
+                if (template.kinds[part] != KEY) {
+                    continue;
+                }
+                int dependency = snapshot.indexOf(template.parts[part]);
+                if (dependency < 0 || templates[dependency] == null) {
+                    continue;
+                }
+                if (edges == edgeTarget.length) {
+                    edgeTarget = Arrays.copyOf(edgeTarget, edges * 2);
+                    nextEdge = Arrays.copyOf(nextEdge, edges * 2);
+                }
+                edgeTarget[edges] = slot;
+                nextEdge[edges] = firstEdge[dependency];
+                firstEdge[dependency] = edges;
+                edges++;
+                pending[slot]++;
+            }
+            if (pending[slot] == 0) {
+                queue[queueEnd++] = slot;
+            }
+        }
+        int resolved = 0;
+        for (int head = 0; head < queueEnd; head++) {
+            int slot = queue[head];
+            values[slot] = resolve(snapshot, keys[slot], rawValues[slot], templates[slot], values, previous);
+            resolved++;
+            for (int edge = firstEdge[slot]; edge >= 0; edge = nextEdge[edge]) {
+                int dependent = edgeTarget[edge];
+                if (--pending[dependent] == 0) {
+                    queue[queueEnd++] = dependent;
+                }
+            }
+        }
+        if (resolved < templateCount) {
+            reportCycle(snapshot.getLocation(), keys, templates, pending, templateCount - resolved);
+        }
+        return values;
+    }
+    
+    private static String resolve(ConfigSnapshot snapshot, String key, String rawValue, Template template, 
+            String[] values, ConfigSnapshot previous) {
+        if (previous != null && !template.systemProperties) {
+            int previousSlot = previous.indexOf(key);
+            if (previousSlot >= 0 && rawValue.equals(previous.getRawValue(previousSlot)) 
+                    && sameReferences(snapshot, template, values, previous)) {
+                return previous.getValue(previousSlot);
+            }
+        }
+        StringBuilder value = new StringBuilder(rawValue.length() + 32);
+        for (int part = 0; part < template.kinds.length; part++) {
+            String name = template.parts[part];
+            String resolved;
+            switch (template.kinds[part]) {
+                case KEY:
+                    int slot = snapshot.indexOf(name);
+                    resolved = slot < 0 ? null : values[slot];
+                    break;
+                case ENV:
+                    resolved = System.getenv(name);
+                    break;
+                case SYS:
+                    resolved = System.getProperty(name);
+                    break;
+                default:
+                    value.append(name);
+                    continue;
+            }
+            if (resolved == null) {
+                value.append("${");
+                if (template.kinds[part] == ENV) {
+                    value.append("env:");
+                } else if (template.kinds[part] == SYS) {
+                    value.append("sys:");
+                }
+                value.append(name).append('}');
+            } else {
+                value.append(resolved);
+            }
+        }
+        return value.toString();
+    }
+    
+    /**
+     * @return true if every entry referenced by the template resolves to the same value as in the previous snapshot
+     */
+    private static boolean sameReferences(ConfigSnapshot snapshot, Template template, String[] values, 
+            ConfigSnapshot previous) {
+        for (int part = 0; part < template.kinds.length; part++) {
+            if (template.kinds[part] != KEY) {
+                continue;
+            }
+            int slot = snapshot.indexOf(template.parts[part]);
+            String current = slot < 0 ? null : values[slot];
+            int previousSlot = previous.indexOf(template.parts[part]);
+            if (!equals(current, previousSlot < 0 ? null : previous.getValue(previousSlot))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+    
+    private static void reportCycle(String location, String[] keys, Template[] templates, int[] pending, 
+            int unresolved) {
+        StringBuilder names = new StringBuilder();
+        int listed = 0;
+        for (int slot = 0; slot < keys.length && listed < MAX_REPORTED_KEYS; slot++) {
+            if (templates[slot] != null && pending[slot] > 0) {
+                names.append(listed++ == 0 ? "" : ", ").append(keys[slot]);
+            }
+        }
+        if (unresolved > listed) {
+            names.append(", ...");
+        }
+        new ConfigHelper("config-bootstrapper").logToSystemOut("WARNING! Circular references in the configuration at " 
+                + location + ", " + unresolved + " entries were not resolved: " + names);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.time.Duration;
+
+/**
+ * A configuration key that has been resolved once against a {@link ConfigReference}.<br/>
+ * Reading a key is an array index into the current snapshot of the reference. The primitive 
+ * accessors neither box nor throw, they return the default value given when the key was created 
+ * if the entry is missing or has another type.
+ *
+ * @param <T> the type of the value
+ * @see ConfigReference#intKey(String, int)
+ */
+public final class ConfigKey<T> {
+
+    enum Type { STRING, INT, LONG, BOOLEAN, DURATION }
+    
+    private final ConfigReference reference;
+    
+    private final int id;
+    
+    private final String name;
+    
+    private final Type type;
+    
+    private final long defaultNumber;
+    
+    private final boolean defaultBoolean;
+    
+    private final T defaultValue;
+    
+    ConfigKey(ConfigReference reference, int id, String name, Type type, 
+            long defaultNumber, boolean defaultBoolean, T defaultValue) {
+        this.reference = reference;
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.defaultNumber = defaultNumber;
+        this.defaultBoolean = defaultBoolean;
+        this.defaultValue = defaultValue;
+    }
+    
+    /**
+     * @return the configuration key
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return the current value, boxed for primitive keys
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        switch (type) {
+            case INT:
+                return (T) Integer.valueOf(intValue());
+            case LONG:
+                return (T) Long.valueOf(longValue());
+            case BOOLEAN:
+                return (T) Boolean.valueOf(booleanValue());
+            case DURATION:
+                return (T) durationValue();
+            default:
+                return (T) stringValue();
+        }
+    }
+    
+    /**
+     * @return the current value as a String or, if the entry is missing, the default value of a String key 
+     */
+    public String stringValue() {
+        ConfigReference.Binding binding = reference.getBinding();
+        int slot = binding.slots[id];
+        if (slot < 0) {
+            return type == Type.STRING ? (String) defaultValue : null;
+        }
+        binding.snapshot.recordAccess(slot);
+        return binding.snapshot.getValue(slot);
+    }
+    
+    public int intValue() {
+        ConfigReference.Binding binding = reference.getBinding();
+        int slot = binding.slots[id];
+        return slot < 0 ? (int) defaultNumber : binding.snapshot.getInt(slot, (int) defaultNumber);
+    }
+    
+    public long longValue() {
+        ConfigReference.Binding binding = reference.getBinding();
+        int slot = binding.slots[id];
+        return slot < 0 ? defaultNumber : binding.snapshot.getLong(slot, defaultNumber);
+    }
+    
+    public boolean booleanValue() {
+        ConfigReference.Binding binding = reference.getBinding();
+        int slot = binding.slots[id];
+        return slot < 0 ? defaultBoolean : binding.snapshot.getBoolean(slot, defaultBoolean);
+    }
+    
+    public Duration durationValue() {
+        Duration defaultDuration = type == Type.DURATION ? (Duration) defaultValue : null;
+        ConfigReference.Binding binding = reference.getBinding();
+        int slot = binding.slots[id];
+        return slot < 0 ? defaultDuration : binding.snapshot.getDuration(slot, defaultDuration);
+    }
+    
+    @Override
+    public String toString() {
+        return name + "=" + stringValue();
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+/**
+ * Thrown when an application configuration could not be loaded.
+ * The {@link Reason} tells why, the cause holds the underlying exception, if any.
+ * 
+ * @see ConfigHelper#loadAsync(String)
+ */
+public class ConfigLoadException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        /**
+         * The location does not start with a supported prefix such as file: or classpath:
+         */
+        INVALID_LOCATION,
+        /**
+         * There is no configuration at the location
+         */
+        NOT_FOUND,
+        /**
+         * The configuration could not be read
+         */
+        READ_FAILED,
+        /**
+         * The configuration could be read but is not a valid properties file
+         */
+        PARSE_FAILED,
+        /**
+         * The configuration was read but rejected by a {@link ConfigValidator}
+         */
+        VALIDATION_FAILED
+    }
+    
+    private final String location;
+    
+    private final Reason reason;
+    
+    public ConfigLoadException(String location, Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.location = location;
+        this.reason = reason;
+    }
+    
+    /**
+     * @return the location of the configuration that could not be loaded
+     */
+    public String getLocation() {
+        return location;
+    }
+    
+    public Reason getReason() {
+        return reason;
+    }
+}
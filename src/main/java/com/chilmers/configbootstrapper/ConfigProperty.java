@@ -0,0 +1,61 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a configuration entry that is bound by {@link ConfigBinder}, either on a field of a class 
+ * or on a method without parameters of an interface:
+ *<pre>
+ *public interface DatabaseConfig {
+ *    &#64;ConfigProperty("db.url") String url();
+ *    &#64;ConfigProperty(value = "db.pool.size", defaultValue = "10") int poolSize();
+ *    &#64;ConfigProperty(value = "db.timeout", required = false) Duration timeout();
+ *}
+ *</pre>
+ * Supported types are String, int, long, boolean (and their wrappers), Duration, enums and char[], 
+ * which is read with {@link ConfigView#getSecret(String)} so it may be encrypted.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface ConfigProperty {
+
+    /**
+     * @return the key of the entry, defaults to the name of the field or method
+     */
+    String value() default "";
+    
+    /**
+     * @return whether a missing entry is reported as a problem, ignored if there is a default value
+     */
+    boolean required() default true;
+    
+    /**
+     * @return the value to use if there is no entry, written as in a configuration file. 
+     * An empty string means there is no default value.
+     */
+    String defaultValue() default "";
+}
@@ -0,0 +1,469 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A live reference to the configuration read from one location.<br/>
+ * When the location is read again, the new snapshot replaces the old one with a single volatile write,
+ * so readers always see one consistent snapshot.<br/>
+ * <br/>
+ * For frequently read entries, resolve the key once into a {@link ConfigKey} and keep the handle,
+ * e.g. in a static field:
+ *<pre>
+ *private static final ConfigKey&lt;Boolean&gt; NEW_CHECKOUT = 
+ *      ConfigHelper.readApplicationConfigReference().booleanKey("feature.newCheckout", false);
+ *...
+ *if (NEW_CHECKOUT.booleanValue()) {
+ *</pre>
+ * Reading a handle is an array index into the current snapshot, no hashing or String comparison is done.
+ * Handles keep seeing new values after the configuration has been reloaded.<br/>
+ * To react on reloads, register a {@link ConfigChangeListener} or subscribe to {@link #getUpdates()}.<br/>
+ * <br/>
+ * A reloaded snapshot is only published if it could be read and all registered {@link ConfigValidator}s 
+ * accept it, otherwise the current snapshot stays in place. The snapshots it replaced are kept in a bounded 
+ * history, see {@link #getHistory()} and {@link ConfigSnapshotCache#rollback(String)}. The number of kept 
+ * snapshots defaults to 5 and can be changed with the system property
+ *<pre>-Dconfig.bootstrapper.history.size=10</pre>
+ * 
+ * @see ConfigHelper#getApplicationConfigReference(String)
+ */
+public final class ConfigReference {
+
+    /**
+     * Name of the system property that sets how many replaced snapshots are kept for rollback
+     */
+    public static final String HISTORY_SIZE_PROPERTY_KEY = "config.bootstrapper.history.size";
+    
+    static final int HISTORY_SIZE = Math.max(0, Integer.getInteger(HISTORY_SIZE_PROPERTY_KEY, 5).intValue());
+    
+    private final String location;
+    
+    private final List<String> keyNames = new ArrayList<String>();
+    
+    private final CopyOnWriteArrayList<ConfigChangeListener> changeListeners = 
+            new CopyOnWriteArrayList<ConfigChangeListener>();
+    
+    private final CopyOnWriteArrayList<ConfigValidator> validators = new CopyOnWriteArrayList<ConfigValidator>();
+    
+    /**
+     * The replaced snapshots, the most recently replaced first
+     */
+    private final Deque<ConfigSnapshot> history = new ArrayDeque<ConfigSnapshot>();
+    
+    private final ConfigHelper configHelper = new ConfigHelper("config-bootstrapper");
+    
+    private volatile Binding binding = new Binding(null, new int[0]);
+    
+    private final AtomicLong loadCount = new AtomicLong();
+    
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    
+    private volatile long lastLoadNanos;
+    
+    private volatile long lastLoadTimeMillis;
+    
+    private volatile SubmissionPublisher<ConfigSnapshot> publisher;
+    
+    private volatile FeatureFlags featureFlags;
+    
+    private volatile ConfigAccessTracker accessTracker;
+    
+    ConfigReference(String location) {
+        this.location = location;
+    }
+    
+    /**
+     * @return the location of the configuration
+     */
+    public String getLocation() {
+        return location;
+    }
+    
+    /**
+     * @return the current snapshot or null if the configuration could not be read
+     */
+    public ConfigSnapshot getSnapshot() {
+        return binding.snapshot;
+    }
+    
+    public ConfigKey<String> stringKey(String name, String defaultValue) {
+        return new ConfigKey<String>(this, register(name), name, ConfigKey.Type.STRING, 0, false, defaultValue);
+    }
+    
+    public ConfigKey<Integer> intKey(String name, int defaultValue) {
+        return new ConfigKey<Integer>(this, register(name), name, ConfigKey.Type.INT, defaultValue, false, 
+                Integer.valueOf(defaultValue));
+    }
+    
+    public ConfigKey<Long> longKey(String name, long defaultValue) {
+        return new ConfigKey<Long>(this, register(name), name, ConfigKey.Type.LONG, defaultValue, false, 
+                Long.valueOf(defaultValue));
+    }
+    
+    public ConfigKey<Boolean> booleanKey(String name, boolean defaultValue) {
+        return new ConfigKey<Boolean>(this, register(name), name, ConfigKey.Type.BOOLEAN, 0, defaultValue, 
+                Boolean.valueOf(defaultValue));
+    }
+    
+    public ConfigKey<Duration> durationKey(String name, Duration defaultValue) {
+        return new ConfigKey<Duration>(this, register(name), name, ConfigKey.Type.DURATION, 0, false, defaultValue);
+    }
+    
+    /**
+     * @return the number of times the location has been read, including failed reads
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+    
+    /**
+     * @return the number of times the location could not be read or the read configuration was rejected 
+     * by a {@link ConfigValidator}
+     */
+    public long getLoadFailureCount() {
+        return loadFailureCount.get();
+    }
+    
+    /**
+     * @return the time in nanoseconds it took to read and parse the location the last time
+     */
+    public long getLastLoadNanos() {
+        return lastLoadNanos;
+    }
+    
+    /**
+     * @return when the location was last read, in milliseconds since the epoch, or 0 if it has not been read
+     */
+    public long getLastLoadTimeMillis() {
+        return lastLoadTimeMillis;
+    }
+    
+    void recordLoad(long nanos, boolean successful) {
+        loadCount.incrementAndGet();
+        if (!successful) {
+            loadFailureCount.incrementAndGet();
+        }
+        lastLoadNanos = nanos;
+        lastLoadTimeMillis = System.currentTimeMillis();
+    }
+    
+    Binding getBinding() {
+        return binding;
+    }
+    
+    /**
+     * Registers a listener that is notified after each reload that changed at least one entry.
+     * @param listener the listener to add
+     */
+    public void addChangeListener(ConfigChangeListener listener) {
+        changeListeners.addIfAbsent(listener);
+    }
+    
+    public void removeChangeListener(ConfigChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+    
+    /**
+     * Registers a validator that each reloaded snapshot must pass before it is published.
+     * @param validator the validator to add
+     */
+    public void addValidator(ConfigValidator validator) {
+        validators.addIfAbsent(validator);
+    }
+    
+    public void removeValidator(ConfigValidator validator) {
+        validators.remove(validator);
+    }
+    
+    /**
+     * @return true if change listeners, validators, key handles, feature flags or subscribers of the updates 
+     * depend on this reference, which must then keep being updated
+     */
+    synchronized boolean isInUse() {
+        SubmissionPublisher<ConfigSnapshot> currentPublisher = publisher;
+        return !changeListeners.isEmpty() || !validators.isEmpty() || !keyNames.isEmpty() || featureFlags != null 
+                || (currentPublisher != null && currentPublisher.hasSubscribers());
+    }
+    
+    /**
+     * Runs all validators on a snapshot that is about to be published.
+     * @return the work the validators prepared, to run once the snapshot has been published
+     * @throws ConfigLoadException if a validator rejected the snapshot
+     */
+    List<Runnable> validate(ConfigSnapshot snapshot) throws ConfigLoadException {
+        if (validators.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Runnable> prepared = new ArrayList<Runnable>(validators.size());
+        for (ConfigValidator validator : validators) {
+            try {
+                Runnable work = validator.validate(snapshot);
+                if (work != null) {
+                    prepared.add(work);
+                }
+            } catch (Exception e) {
+                throw new ConfigLoadException(location, ConfigLoadException.Reason.VALIDATION_FAILED, 
+                        "The configuration was rejected: " + e.getMessage(), e);
+            }
+        }
+        return prepared;
+    }
+    
+    /**
+     * @return the snapshots this reference has replaced, the most recently replaced first
+     */
+    public synchronized List<ConfigSnapshot> getHistory() {
+        return new ArrayList<ConfigSnapshot>(history);
+    }
+    
+    /**
+     * @return the most recently replaced snapshot, or null if there is none
+     */
+    synchronized ConfigSnapshot getPrevious() {
+        return history.peekFirst();
+    }
+    
+    /**
+     * A stream of the snapshots that replace the current one, published after each reload that changed 
+     * at least one entry. Subscribers are called on the executor of {@link ConfigSnapshotCache#getExecutor()}, 
+     * never on the thread that reloaded the configuration.<br/>
+     * Publishing does not block, a subscriber that falls more than a buffer behind misses snapshots,
+     * the current one is always available from {@link #getSnapshot()}. Failed reloads are not published.
+     * @return the publisher of new snapshots, the same instance on every call
+     */
+    public Flow.Publisher<ConfigSnapshot> getUpdates() {
+        SubmissionPublisher<ConfigSnapshot> current = publisher;
+        if (current == null) {
+            synchronized (this) {
+                current = publisher;
+                if (current == null) {
+                    current = new SubmissionPublisher<ConfigSnapshot>(ConfigSnapshotCache.getInstance().getExecutor(), 
+                            Flow.defaultBufferSize());
+                    publisher = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * The feature flags declared in this configuration, under keys starting with feature.
+     * @return the feature flags, the same instance on every call
+     */
+    public FeatureFlags getFeatureFlags() {
+        FeatureFlags current = featureFlags;
+        if (current == null) {
+            synchronized (this) {
+                current = featureFlags;
+                if (current == null) {
+                    current = new FeatureFlags(this);
+                    featureFlags = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Starts counting the reads of each key of this configuration, see {@link ConfigAccessTracker}. 
+     * Calling it again returns the tracker that is already counting.
+     * @param sampleRate 1 to record every read, or n to record about one in n reads, which costs less per read
+     * @return the tracker
+     */
+    public synchronized ConfigAccessTracker enableAccessTracking(int sampleRate) {
+        ConfigAccessTracker current = accessTracker;
+        if (current == null) {
+            current = new ConfigAccessTracker(sampleRate);
+            if (binding.snapshot != null) {
+                current.track(binding.snapshot);
+            }
+            accessTracker = current;
+        }
+        return current;
+    }
+    
+    /**
+     * @return the tracker of the reads of this configuration, or null if access tracking is not enabled
+     */
+    public ConfigAccessTracker getAccessTracker() {
+        return accessTracker;
+    }
+    
+    /**
+     * Publishes a new snapshot to all readers of this reference and notifies the change listeners.
+     * The decrypted values of the replaced snapshot are zeroed once it is no longer kept in the history.
+     * @param snapshot the new snapshot, null if the configuration could not be read
+     */
+    void update(ConfigSnapshot snapshot) {
+        commit(snapshot, Collections.<Runnable>emptyList(), false);
+    }
+    
+    /**
+     * Publishes a validated snapshot, then runs the work the validators prepared for it 
+     * and notifies the change listeners.
+     * @param snapshot the new snapshot
+     * @param prepared the work returned by {@link #validate(ConfigSnapshot)}
+     * @param rollback true if the snapshot is the most recently replaced one, which is then taken from the history 
+     * instead of adding the current snapshot to it
+     */
+    void commit(ConfigSnapshot snapshot, List<Runnable> prepared, boolean rollback) {
+        if (featureFlags != null && snapshot != null) {
+            // Compile the flags before publishing, so evaluating them never has to
+            snapshot.getFeatureFlagTable();
+        }
+        List<ConfigSnapshot> dropped = new ArrayList<ConfigSnapshot>(1);
+        ConfigSnapshot oldSnapshot = swap(snapshot, rollback, dropped);
+        try {
+            for (Runnable work : prepared) {
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    configHelper.logToSystemOut("WARNING! Could not apply the reloaded configuration of " + location + "\n"
+                            + "Exception:" + e.getClass().toString() + "\n"
+                            + "Message:" + e.getMessage());
+                }
+            }
+            publish(oldSnapshot, snapshot);
+        } finally {
+            for (ConfigSnapshot droppedSnapshot : dropped) {
+                droppedSnapshot.clearSecrets();
+            }
+        }
+    }
+    
+    /**
+     * Forgets the replaced snapshots and zeroes their decrypted values, 
+     * called when the location is no longer used.
+     */
+    void clearHistory() {
+        List<ConfigSnapshot> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<ConfigSnapshot>(history);
+            history.clear();
+        }
+        for (ConfigSnapshot snapshot : dropped) {
+            snapshot.clearSecrets();
+        }
+    }
+    
+    private void publish(ConfigSnapshot oldSnapshot, ConfigSnapshot snapshot) {
+        SubmissionPublisher<ConfigSnapshot> currentPublisher = publisher;
+        if ((changeListeners.isEmpty() && currentPublisher == null) || oldSnapshot == snapshot) {
+            return;
+        }
+        ConfigChangeEvent event = ConfigChangeEvent.diff(this, oldSnapshot, snapshot);
+        if (event == null) {
+            return;
+        }
+        if (currentPublisher != null && snapshot != null) {
+            currentPublisher.offer(snapshot, null);
+        }
+        for (ConfigChangeListener listener : changeListeners) {
+            try {
+                listener.configurationChanged(event);
+            } catch (RuntimeException e) {
+                configHelper.logToSystemOut("WARNING! Configuration change listener failed for " + location + "\n"
+                        + "Exception:" + e.getClass().toString() + "\n"
+                        + "Message:" + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Publishes the snapshot and moves the replaced one into the history.
+     * @param dropped receives the snapshots that are no longer current nor kept in the history, 
+     * whose decrypted values can be zeroed
+     */
+    private synchronized ConfigSnapshot swap(ConfigSnapshot snapshot, boolean rollback, List<ConfigSnapshot> dropped) {
+        ConfigSnapshot oldSnapshot = binding.snapshot;
+        if (accessTracker != null && snapshot != null) {
+            accessTracker.track(snapshot);
+        }
+        if (rollback) {
+            history.remove(snapshot);
+            if (oldSnapshot != null && oldSnapshot != snapshot) {
+                dropped.add(oldSnapshot);
+            }
+        } else if (oldSnapshot != null && oldSnapshot != snapshot) {
+            if (snapshot != null && HISTORY_SIZE > 0) {
+                history.addFirst(oldSnapshot);
+                while (history.size() > HISTORY_SIZE) {
+                    dropped.add(history.removeLast());
+                }
+            } else {
+                dropped.add(oldSnapshot);
+            }
+        }
+        int[] slots = new int[keyNames.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = snapshot == null ? -1 : snapshot.indexOf(keyNames.get(i));
+        }
+        binding = new Binding(snapshot, slots);
+        return oldSnapshot;
+    }
+    
+    /**
+     * Assigns an id to the given key name and publishes a binding that includes it,
+     * so the id is a valid index into the slots of every binding a handle can observe.
+     */
+    private synchronized int register(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("The key name must not be null");
+        }
+        int id = keyNames.indexOf(name);
+        if (id >= 0) {
+            return id;
+        }
+        id = keyNames.size();
+        keyNames.add(name);
+        Binding current = binding;
+        int[] slots = Arrays.copyOf(current.slots, id + 1);
+        slots[id] = current.snapshot == null ? -1 : current.snapshot.indexOf(name);
+        binding = new Binding(current.snapshot, slots);
+        return id;
+    }
+    
+    /**
+     * A snapshot together with the slot of every registered key in that snapshot.
+     */
+    static final class Binding {
+        
+        final ConfigSnapshot snapshot;
+        
+        final int[] slots;
+        
+        Binding(ConfigSnapshot snapshot, int[] slots) {
+            this.snapshot = snapshot;
+            this.slots = slots;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM wide, reference counted registry of the application configurations in use.<br/>
+ * <br/>
+ * Every application that bootstraps a configuration location leases it from the registry and releases it 
+ * when the application is stopped. While a location is leased, its parsed snapshot is also registered by 
+ * content, so a location with exactly the same content as an already leased one (e.g. a base configuration 
+ * copied to several applications) is not parsed again but shares the immutable tables of the first one.
+ * Once the last lease of a location is released its content is no longer shared and it is evicted from the 
+ * {@link ConfigSnapshotCache}, unless listeners or key handles still depend on its reference.<br/>
+ * <br/>
+ * The registry is JVM wide only when the library is loaded by a class loader that is shared by 
+ * the applications, e.g. the common class loader of the container. 
+ * When each application bundles its own copy, each copy has its own registry.
+ */
+public final class ConfigRegistry {
+
+    private static final ConfigRegistry INSTANCE = new ConfigRegistry();
+    
+    private final Map<String, Integer> leases = new HashMap<String, Integer>();
+    private final Map<String, ContentKey> contentByLocation = new HashMap<String, ContentKey>();
+    private final Map<ContentKey, Shared> contents = new HashMap<ContentKey, Shared>();
+    
+    private ConfigRegistry() {
+    }
+    
+    /**
+     * @return the registry shared by all applications that see this class
+     */
+    public static ConfigRegistry getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Leases the configuration at the given location, reading it if this is the first lease.<br/>
+     * Every call must be matched by a call to {@link #release(String)}.
+     * @param location the application configuration location, starting with file: or classpath:
+     * @return a live reference to the configuration
+     */
+    public ConfigReference acquire(String location) {
+        return acquire(location, new ConfigHelper("config-bootstrapper"));
+    }
+    
+    ConfigReference acquire(String location, ConfigHelper helper) {
+        if (location == null) {
+            return null;
+        }
+        boolean first;
+        synchronized (this) {
+            Integer count = leases.get(location);
+            first = count == null;
+            leases.put(location, first ? 1 : count + 1);
+        }
+        if (first) {
+            ConfigSnapshotCache.getInstance().invalidate(location);
+        }
+        return ConfigSnapshotCache.getInstance().getReference(location, helper);
+    }
+    
+    /**
+     * Releases a lease taken with {@link #acquire(String)}. 
+     * When the last lease of the location is released, the location is forgotten.
+     * @param location the application configuration location
+     */
+    public void release(String location) {
+        if (location == null) {
+            return;
+        }
+        synchronized (this) {
+            Integer count = leases.get(location);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                leases.put(location, count - 1);
+                return;
+            }
+            leases.remove(location);
+            forget(location);
+        }
+        ConfigSnapshotCache.getInstance().evict(location);
+    }
+    
+    /**
+     * @return the number of leases currently held on the given location
+     */
+    public synchronized int getLeaseCount(String location) {
+        Integer count = leases.get(location);
+        return count == null ? 0 : count;
+    }
+    
+    /**
+     * @return the number of distinct configuration contents currently shared by the leased locations
+     */
+    public synchronized int getSharedContentCount() {
+        return contents.size();
+    }
+    
+    synchronized boolean isRegistered(String location) {
+        return leases.containsKey(location);
+    }
+    
+    /**
+     * @return a snapshot parsed from content with the given hash and length, or null
+     */
+    synchronized ConfigSnapshot lookup(byte[] hash, long length) {
+        Shared shared = contents.get(new ContentKey(hash, length));
+        return shared == null ? null : shared.snapshot;
+    }
+    
+    /**
+     * Registers the snapshot read for a leased location under the hash of the content it was parsed from.
+     */
+    synchronized void remember(String location, byte[] hash, long length, ConfigSnapshot snapshot) {
+        if (!leases.containsKey(location)) {
+            return;
+        }
+        ContentKey key = new ContentKey(hash, length);
+        if (key.equals(contentByLocation.get(location))) {
+            return;
+        }
+        forget(location);
+        contentByLocation.put(location, key);
+        Shared shared = contents.get(key);
+        if (shared == null) {
+            contents.put(key, new Shared(snapshot));
+        } else {
+            shared.references++;
+        }
+    }
+    
+    private void forget(String location) {
+        ContentKey key = contentByLocation.remove(location);
+        if (key != null) {
+            Shared shared = contents.get(key);
+            if (shared != null && --shared.references == 0) {
+                contents.remove(key);
+            }
+        }
+    }
+    
+    private static final class Shared {
+        
+        final ConfigSnapshot snapshot;
+        int references = 1;
+        
+        Shared(ConfigSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+    
+    private static final class ContentKey {
+        
+        private final byte[] hash;
+        private final long length;
+        
+        ContentKey(byte[] hash, long length) {
+            this.hash = hash;
+            this.length = length;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey other = (ContentKey) obj;
+            return length == other.length && Arrays.equals(hash, other.hash);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(hash) * 31 + (int) (length ^ (length >>> 32));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Encrypted configuration values, written as <tt>ENC(...)</tt>, e.g.
+ * <pre>db.password=ENC(k3Jd0c...)</pre>
+ * The text between the parentheses is the Base64 encoding of a 12 byte IV followed by the AES/GCM encrypted 
+ * UTF-8 value, see {@link #encrypt(char[], SecretKey)}.<br/>
+ * <br/>
+ * Encrypted values are returned as written by the String getters of a configuration, 
+ * they are decrypted by {@link ConfigView#getSecret(String)} on first access and kept in the snapshot until 
+ * it is replaced by a reloaded configuration, when they are zeroed.<br/>
+ * <br/>
+ * The key is taken from the {@link KeyProvider} set with {@link #setKeyProvider(KeyProvider)}, 
+ * or if none was set, from the keystore given by the system properties
+ * <pre>-Dconfig.bootstrapper.keystore=/etc/myapp/config.p12 -Dconfig.bootstrapper.keystore.password=...
+ *-Dconfig.bootstrapper.keystore.alias=config -Dconfig.bootstrapper.keystore.type=PKCS12</pre>
+ * where the password may also be given in the environment variable CONFIG_BOOTSTRAPPER_KEYSTORE_PASSWORD, 
+ * the alias defaults to <tt>config</tt> and the type to <tt>PKCS12</tt>.
+ */
+public final class ConfigSecrets {
+
+    public static final String KEYSTORE_PROPERTY_KEY = "config.bootstrapper.keystore";
+    
+    public static final String KEYSTORE_PASSWORD_PROPERTY_KEY = "config.bootstrapper.keystore.password";
+    
+    public static final String KEYSTORE_ALIAS_PROPERTY_KEY = "config.bootstrapper.keystore.alias";
+    
+    public static final String KEYSTORE_TYPE_PROPERTY_KEY = "config.bootstrapper.keystore.type";
+    
+    private static final String KEYSTORE_PASSWORD_ENVIRONMENT_VARIABLE = "CONFIG_BOOTSTRAPPER_KEYSTORE_PASSWORD";
+    
+    private static final String PREFIX = "ENC(";
+    
+    private static final String SUFFIX = ")";
+    
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    
+    private static final int IV_LENGTH = 12;
+    
+    private static final int TAG_BITS = 128;
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private static volatile KeyProvider keyProvider;
+    
+    private ConfigSecrets() {
+    }
+    
+    /**
+     * @param provider the provider of the key to decrypt values with, or null to use the keystore 
+     * given by the system properties
+     */
+    public static void setKeyProvider(KeyProvider provider) {
+        keyProvider = provider;
+    }
+    
+    /**
+     * @param value a configuration value
+     * @return true if the value is written as ENC(...)
+     */
+    public static boolean isEncrypted(String value) {
+        return value != null && value.startsWith(PREFIX) && value.endsWith(SUFFIX);
+    }
+    
+    /**
+     * Encrypts a value for use in a configuration file.
+     * @param value the value to encrypt
+     * @param key the AES key
+     * @return the encrypted value, written as ENC(...)
+     * @throws GeneralSecurityException if the value can't be encrypted with the key
+     */
+    public static String encrypt(char[] value, SecretKey key) throws GeneralSecurityException {
+        ByteBuffer plain = UTF_8.encode(CharBuffer.wrap(value));
+        byte[] iv = new byte[IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        byte[] encrypted = new byte[IV_LENGTH + cipher.getOutputSize(plain.remaining())];
+        System.arraycopy(iv, 0, encrypted, 0, IV_LENGTH);
+        try {
+            cipher.doFinal(plain.duplicate(), ByteBuffer.wrap(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH));
+        } finally {
+            zero(plain);
+        }
+        return PREFIX + Base64.getEncoder().encodeToString(encrypted) + SUFFIX;
+    }
+    
+    /**
+     * @param value a value written as ENC(...)
+     * @return the decrypted value
+     * @throws GeneralSecurityException if the value can't be decrypted, e.g. if it was encrypted with another key
+     * @throws IOException if the key can't be read
+     */
+    static char[] decrypt(String value) throws GeneralSecurityException, IOException {
+        KeyProvider provider = getKeyProvider();
+        if (provider == null) {
+            throw new GeneralSecurityException("No key provider for encrypted configuration values, set the system property " 
+                    + KEYSTORE_PROPERTY_KEY + " or ConfigSecrets.setKeyProvider");
+        }
+        byte[] encrypted;
+        try {
+            encrypted = Base64.getDecoder().decode(value.substring(PREFIX.length(), value.length() - SUFFIX.length()).trim());
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("The encrypted value is not valid Base64", e);
+        }
+        if (encrypted.length < IV_LENGTH) {
+            throw new GeneralSecurityException("The encrypted value is too short");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, provider.getKey(), new GCMParameterSpec(TAG_BITS, encrypted, 0, IV_LENGTH));
+        byte[] plain = cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH);
+        try {
+            CharBuffer chars = UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(plain));
+            char[] secret = new char[chars.remaining()];
+            chars.get(secret);
+            zero(chars);
+            return secret;
+        } catch (CharacterCodingException e) {
+            throw new GeneralSecurityException("The decrypted value is not valid UTF-8", e);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+    
+    private static KeyProvider getKeyProvider() {
+        KeyProvider provider = keyProvider;
+        if (provider == null) {
+            String keyStore = System.getProperty(KEYSTORE_PROPERTY_KEY);
+            if (StringUtils.isBlank(keyStore)) {
+                return null;
+            }
+            String password = System.getProperty(KEYSTORE_PASSWORD_PROPERTY_KEY);
+            if (password == null) {
+                password = System.getenv(KEYSTORE_PASSWORD_ENVIRONMENT_VARIABLE);
+            }
+            provider = new KeyStoreKeyProvider(new File(keyStore.trim()), password == null ? new char[0] : password.toCharArray(), 
+                    System.getProperty(KEYSTORE_ALIAS_PROPERTY_KEY, "config"), System.getProperty(KEYSTORE_TYPE_PROPERTY_KEY, "PKCS12"));
+            keyProvider = provider;
+        }
+        return provider;
+    }
+    
+    private static void zero(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+    
+    private static void zero(CharBuffer buffer) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put('\0');
+        }
+    }
+}
@@ -21,10 +21,17 @@
 
 package com.chilmers.configbootstrapper;
 
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.MissingResourceException;
+import java.util.List;
 import java.util.PropertyResourceBundle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
@@ -33,8 +40,7 @@ import javax.servlet.ServletContextListener;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import org.apache.log4j.PropertyConfigurator;
-import org.apache.log4j.xml.DOMConfigurator;
+import org.apache.log4j.spi.LoggerRepository;
 
 /**
  *  Config Bootstrapper - https://github.com/chilmers/config-bootstrapper/<br/>
@@ -206,6 +212,110 @@ import org.apache.log4j.xml.DOMConfigurator;
  *      &lt;param-value&gt;My Application&lt;/param-value&gt;
  *&lt;/context-param&gt;
  *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      If true, independent initialization stages such as exporting system properties and parsing the log4j 
+ *      configuration run concurrently. Defaults to true.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.parallelBootstrap&lt;/param-name&gt;
+ *      &lt;param-value&gt;false&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      If true, the System.out messages logged during initialization are also logged through log4j once it 
+ *      has been configured. Defaults to false.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.replayBootstrapLog&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      If true, system properties exported from system.property.* entries are removed when the entries are removed 
+ *      from the application configuration and it is reloaded. Defaults to false.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.removeStaleSystemProperties&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      If true, encrypted system.property.* entries, i.e. ENC(...) values, are decrypted and set as system properties. 
+ *      Defaults to false, i.e. encrypted entries are not set.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.exportEncryptedSystemProperties&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      Comma separated names of classes or interfaces declared with @ConfigProperty annotations. The application 
+ *      configuration is validated against them and bound to them when it is loaded, and the bound objects are 
+ *      stored as servlet context attributes named after the types. If the configuration does not match, 
+ *      initialization fails with a report of all problems. See ConfigBinder.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.configTypes&lt;/param-name&gt;
+ *      &lt;param-value&gt;com.example.DatabaseConfig&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      If true, the reads of each application configuration key are counted and reported through the 
+ *      bootstrap metrics MBean: the most read keys, the keys that are never read and the keys that are read 
+ *      after initialization. Defaults to false. See ConfigAccessTracker.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.trackConfigAccess&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      Records only about one in this many reads when configServletContextListener.trackConfigAccess is true, 
+ *      which lowers the cost of tracking. Defaults to 1, i.e. every read is recorded.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.configAccessSampleRate&lt;/param-name&gt;
+ *      &lt;param-value&gt;16&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      If true, the application gets a log4j logger repository of its own, so configuring and shutting down logging 
+ *      does not affect other applications in the same JVM. Requires log4j to be loaded by a class loader shared by 
+ *      the applications. Defaults to false.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.isolatedLogging&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      How changes of file: configurations are detected, "event" uses file system events and "poll" checks 
+ *      the files at a fixed interval. Defaults to event.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.watchStrategy&lt;/param-name&gt;
+ *      &lt;param-value&gt;poll&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
+ *<pre>
+ *&lt;context-param&gt;
+ *      &lt;description&gt;
+ *      Milliseconds between two polls when polling, defaults to 5000. When using events, the milliseconds a file 
+ *      must be quiet before it is reloaded, defaults to 250.
+ *      &lt;/description&gt;
+ *      &lt;param-name&gt;configServletContextListener.watchInterval&lt;/param-name&gt;
+ *      &lt;param-value&gt;10000&lt;/param-value&gt;
+ *&lt;/context-param&gt;
+ *</pre>
  *  
  * @author Christian Hilmersson (https://github.com/chilmers/)
  */
@@ -253,6 +363,57 @@ public class ConfigServletContextListener implements ServletContextListener {
      */
     private static final String OVERRIDE_DEFAULT_LOG4J_CONFIG_LOCATION_PROPERTY_KEY_PARAM = "configServletContextListener.log4jConfigLocationPropertyKey";    
     
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#watchStrategy}
+     */
+    private static final String WATCH_STRATEGY_PARAM = "configServletContextListener.watchStrategy";
+    
+    /**
+     * The name of the context param to use for setting the interval in milliseconds used by the watch strategy, 
+     * i.e. the poll interval when polling or the time a file must be quiet before it is reloaded when using events
+     */
+    private static final String WATCH_INTERVAL_PARAM = "configServletContextListener.watchInterval";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#replayBootstrapLog}
+     */
+    private static final String REPLAY_BOOTSTRAP_LOG_PARAM = "configServletContextListener.replayBootstrapLog";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#parallelBootstrap}
+     */
+    private static final String PARALLEL_BOOTSTRAP_PARAM = "configServletContextListener.parallelBootstrap";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#removeStaleSystemProperties}
+     */
+    private static final String REMOVE_STALE_SYSTEM_PROPERTIES_PARAM = "configServletContextListener.removeStaleSystemProperties";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#exportEncryptedSystemProperties}
+     */
+    private static final String EXPORT_ENCRYPTED_SYSTEM_PROPERTIES_PARAM = "configServletContextListener.exportEncryptedSystemProperties";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#trackConfigAccess}
+     */
+    private static final String TRACK_CONFIG_ACCESS_PARAM = "configServletContextListener.trackConfigAccess";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#configAccessSampleRate}
+     */
+    private static final String CONFIG_ACCESS_SAMPLE_RATE_PARAM = "configServletContextListener.configAccessSampleRate";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#configTypes}
+     */
+    private static final String CONFIG_TYPES_PARAM = "configServletContextListener.configTypes";
+    
+    /**
+     * The name of the context param to use for setting {@link ConfigServletContextListener#isolatedLogging}
+     */
+    private static final String ISOLATED_LOGGING_PARAM = "configServletContextListener.isolatedLogging";
+    
     /**
      * Prefix for system properties found in the application configuration file
      */
@@ -315,26 +476,306 @@ public class ConfigServletContextListener implements ServletContextListener {
      */
     private String applicationName;
     
+    /**
+     * How changes of file: configurations are detected, either "event" (default) to use file system events
+     * or "poll" to check the files at a fixed interval. Both share one thread for all watched files.
+     * Can be set in web.xml by stating the following context-param
+     *<pre>
+     *&lt;context-param&gt;
+     *      &lt;param-name&gt;configServletContextListener.watchStrategy&lt;/param-name&gt;
+     *      &lt;param-value&gt;poll&lt;/param-value&gt;
+     *&lt;/context-param&gt;
+     *</pre>
+     */
+    private ConfigFileWatcher.Strategy watchStrategy;
+    
+    /**
+     * If true, the System.out messages logged during initialization are logged again through log4j 
+     * once it has been configured, so they end up in the application's log files.
+     * Defaults to false, can be set in web.xml with the context-param configServletContextListener.replayBootstrapLog
+     */
+    private boolean replayBootstrapLog;
+    
+    /**
+     * If true (default), independent initialization stages such as exporting system properties and parsing the 
+     * log4j configuration run concurrently. Can be switched off in web.xml with the context-param
+     * configServletContextListener.parallelBootstrap set to false.
+     */
+    private boolean parallelBootstrap;
+    
+    /**
+     * If true, system properties that were exported from the application configuration are removed when their 
+     * entries are removed from the configuration. Defaults to false, can be set in web.xml with the context-param 
+     * configServletContextListener.removeStaleSystemProperties
+     */
+    private boolean removeStaleSystemProperties;
+    
+    /**
+     * If true, encrypted system.property.* entries (ENC(...), see {@link ConfigSecrets}) are decrypted and set as 
+     * system properties. Defaults to false, i.e. they are not set, can be set in web.xml with the context-param 
+     * configServletContextListener.exportEncryptedSystemProperties
+     */
+    private boolean exportEncryptedSystemProperties;
+    
+    /**
+     * Types declared with {@link ConfigProperty} annotations that the application configuration is bound to, 
+     * see {@link ConfigBinder}. The bound objects are stored as servlet context attributes named after the types.
+     * Can be set in web.xml with the context-param configServletContextListener.configTypes
+     */
+    private final List<Class<?>> configTypes = new ArrayList<Class<?>>();
+    
+    private ServletContext servletContext;
+    
+    /**
+     * If true, the reads of the application configuration keys are counted, see {@link ConfigAccessTracker}.
+     * Defaults to false, can be set in web.xml with the context-param configServletContextListener.trackConfigAccess
+     */
+    private boolean trackConfigAccess;
+    
+    /**
+     * Records about one in this many reads when {@link #trackConfigAccess} is set, defaults to 1. 
+     * Can be set in web.xml with the context-param configServletContextListener.configAccessSampleRate
+     */
+    private int configAccessSampleRate;
+    
+    /**
+     * Binds a reloaded application configuration to the {@link #configTypes} before it is published, 
+     * a configuration that does not match them is rejected and the current one is kept
+     */
+    private final ConfigValidator configTypesValidator = new ConfigValidator() {
+        public Runnable validate(ConfigSnapshot snapshot) throws ConfigBindingException {
+            final List<Object> bound = bindConfigTypes(snapshot);
+            return () -> storeConfigTypes(bound);
+        }
+    };
+    
+    /**
+     * Parses the log4j configuration named in a reloaded application configuration before it is published, 
+     * if it names another log4j configuration than the current one. If it can't be parsed, the reload is 
+     * rejected, so the application configuration and logging are only changed together.
+     */
+    private final ConfigValidator log4jValidator = new ConfigValidator() {
+        public Runnable validate(ConfigSnapshot snapshot) throws Exception {
+            final String location = StringUtils.trimToNull(snapshot.getString(log4jConfigLocationPropertyKey));
+            if (location == null || location.equals(log4jConfigLocation)) {
+                return null;
+            }
+            final Log4jConfiguration parsed = Log4jConfiguration.parse(location);
+            return () -> {
+                logToSystemOut("The log4j configuration location has changed, reconfiguring logger using file: " + location);
+                parsed.apply(getLoggerRepository());
+                log4jConfigLocation = location;
+                watchLoggingConfiguration();
+            };
+        }
+    };
+    
+    /**
+     * If true, the application is configured and shut down in a log4j logger repository of its own instead of 
+     * the global one. Defaults to false, can be set in web.xml with the context-param 
+     * configServletContextListener.isolatedLogging
+     */
+    private boolean isolatedLogging;
+    
+    /**
+     * The logger repository of this application, null when the global repository is used
+     */
+    private LoggerRepository loggerRepository;
+    
+    /**
+     * Keeps track of the exported system.property.* entries, so a reload only writes what has changed
+     */
+    private final SystemPropertyExporter systemPropertyExporter = new SystemPropertyExporter(CONFIG_SYSTEM_PROPERTY_PREFIX);
+    
+    /**
+     * Exports the system.property.* entries again when the application configuration is reloaded
+     */
+    private final ConfigChangeListener systemPropertyListener = new ConfigChangeListener() {
+        public void configurationChanged(ConfigChangeEvent event) {
+            if (event.getNewSnapshot() != null) {
+                loadApplicationConfigurationSystemProperties(event.getNewSnapshot());
+            }
+        }
+    };
+    
     private ConfigHelper configHelper;
     
+    /**
+     * Watched configuration files, cancelled when the servlet context is destroyed
+     */
+    private final List<ConfigFileWatcher.Registration> watches = new CopyOnWriteArrayList<ConfigFileWatcher.Registration>();
+    
+    /**
+     * Configuration sources discovered in the class loader of the application, unregistered when the servlet 
+     * context is destroyed so they don't keep serving other applications or keep the class loader alive
+     */
+    private final List<ConfigSource> discoveredSources = new ArrayList<ConfigSource>();
+    
+    /**
+     * The application configuration location that was decided upon initialization
+     */
+    private String configLocation;
+    
+    /**
+     * The log4j configuration location found in the application configuration, null if none was found
+     */
+    private volatile String log4jConfigLocation;
+    
+    /**
+     * Watch of the log4j configuration file, null if it is not read from the file system
+     */
+    private ConfigFileWatcher.Registration log4jWatch;
+    
+    /**
+     * Registration of the application configuration watch, which is done in the background
+     */
+    private CompletableFuture<Void> pendingWatch;
+    
+    /**
+     * True while this listener is attached to the {@link BootstrapLog}
+     */
+    private boolean bootstrapLogAttached;
+    
+    /**
+     * Timings and counters of this application, registered as an MBean while the servlet context is alive
+     */
+    private volatile BootstrapMetrics metrics;
+    
     /**
      * Configures the when the servlet context is initialized.
      * {@inheritDoc} 
      */
     public void contextInitialized(ServletContextEvent sce) {
-        overrideDefaults(sce.getServletContext());
-        String configLocation = getApplicationConfigurationLocation(sce.getServletContext());
-        if (!configLocation.startsWith("classpath:") && !configLocation.startsWith("file:")) {
-            configLocation = "file:" + configLocation;
-            logToSystemOut("The application config location neither starts with classpath: nor file:, " +
+        if (!bootstrapLogAttached) {
+            BootstrapLog.getInstance().attach();
+            bootstrapLogAttached = true;
+        }
+        try {
+            initialize(sce);
+        } finally {
+            // Also write the messages logged before a failure, they are the ones that explain it
+            configHelper.flushLog();
+        }
+    }
+    
+    private void initialize(ServletContextEvent sce) {
+        long logSequence = BootstrapLog.getInstance().getSequence();
+        final ServletContext ctx = sce.getServletContext();
+        overrideDefaults(ctx);
+        discoveredSources.addAll(ConfigSources.discover(Thread.currentThread().getContextClassLoader()));
+        if (isolatedLogging) {
+            loggerRepository = Log4jRepositories.acquire(configHelper);
+        }
+        BootstrapPipeline pipeline = BootstrapPipeline.create(parallelBootstrap);
+        try {
+            final String configLocation = pipeline.run(BootstrapMetrics.STAGE_RESOLVE_LOCATION, () -> resolveApplicationConfigurationLocation(ctx));
+            final ConfigSnapshot snapshot = pipeline.run(BootstrapMetrics.STAGE_READ_CONFIG, () -> {
+                ConfigReference reference = ConfigRegistry.getInstance().acquire(configLocation, configHelper);
+                if (trackConfigAccess) {
+                    reference.enableAccessTracking(configAccessSampleRate);
+                }
+                return reference.getSnapshot();
+            });
+            if(snapshot != null){
+                // The system properties and the log4j document are independent of each other, 
+                // log4j is configured once both are done since its configuration may refer to system properties
+                CompletableFuture<Void> systemProperties = pipeline.async(BootstrapMetrics.STAGE_SYSTEM_PROPERTIES, () -> {
+                    loadApplicationConfigurationSystemProperties(snapshot);
+                    return null;
+                });
+                CompletableFuture<Log4jConfiguration> log4jConfiguration = pipeline.async(BootstrapMetrics.STAGE_PARSE_LOG4J, 
+                        () -> parseLoggingConfiguration(snapshot));
+                BootstrapPipeline.await(systemProperties);
+                final Log4jConfiguration parsedLog4jConfiguration = BootstrapPipeline.await(log4jConfiguration);
+                pipeline.run(BootstrapMetrics.STAGE_CONFIGURE_LOG4J, () -> {
+                    loadLoggingConfiguration(parsedLog4jConfiguration);
+                    return null;
+                });
+            }
+            if (!configTypes.isEmpty()) {
+                if (snapshot == null) {
+                    throw new IllegalStateException("The application configuration at " + configLocation 
+                            + " could not be read, so it can't be bound to " + configTypes);
+                }
+                try {
+                    storeConfigTypes(bindConfigTypes(snapshot));
+                } catch (ConfigBindingException e) {
+                    logToSystemOut(e.getMessage());
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+            if (ConfigSources.find(configLocation) instanceof FileConfigSource) {
+                // Nothing later in the startup depends on the watch, so don't wait for it
+                pendingWatch = pipeline.async("watch", () -> {
+                    watchApplicationConfiguration(configLocation);
+                    return null;
+                });
+            }
+        } finally {
+            pipeline.shutdown();
+        }
+        logToSystemOut("Bootstrap completed in " + TimeUnit.NANOSECONDS.toMillis(pipeline.getElapsedNanos()) + " ms (" 
+                + pipeline.describeTimings() + ")");
+        ConfigReference configReference = ConfigSnapshotCache.getInstance().getReference(this.configLocation, configHelper);
+        configReference.addChangeListener(systemPropertyListener);
+        configReference.addValidator(log4jValidator);
+        if (!configTypes.isEmpty()) {
+            configReference.addValidator(configTypesValidator);
+        }
+        metrics = new BootstrapMetrics(applicationName);
+        metrics.setConfigReference(configReference);
+        metrics.recordBootstrap(pipeline);
+        metrics.register();
+        if (replayBootstrapLog) {
+            BootstrapLog.getInstance().replay(getLogger(), applicationName, logSequence);
+        }
+        if (configReference.getAccessTracker() != null) {
+            configReference.getAccessTracker().markStartupComplete();
+        }
+    }
+    
+    /**
+     * Decides which application configuration location to use, prefixes it with file: if it 
+     * lacks a prefix and stores it in the system properties.
+     */
+    private String resolveApplicationConfigurationLocation(ServletContext ctx) {
+        String configLocation = getApplicationConfigurationLocation(ctx);
+        if (ConfigSources.find(configLocation) == null) {
+            configLocation = FileConfigSource.PREFIX + configLocation;
+            logToSystemOut("The application config location is not supported by any configuration source, " +
             		"assuming " + configLocation);
         }
         setSystemProperty(this.configLocationPropertyKey, configLocation);        
-        
-        PropertyResourceBundle config = configHelper.getApplicationConfiguration(configLocation);
-        if(config != null){
-            loadApplicationConfigurationSystemProperties(config);
-            loadLoggingConfiguration(config);    
+        this.configLocation = configLocation;
+        return configLocation;
+    }
+    
+    private void watchApplicationConfiguration(final String location) {
+        watch(FileConfigSource.toFile(location).getPath(), new Runnable() {
+            public void run() {
+                logToSystemOut("The application configuration has changed, reloading " + location);
+                ConfigSnapshotCache.getInstance().reload(location, configHelper);
+                configHelper.flushLog();
+            }
+        });
+    }
+    
+    /**
+     * Watches the given file with the shared {@link ConfigFileWatcher}.
+     * The watch is cancelled when the servlet context is destroyed.
+     * @return the registration of the watch, or null if the file could not be watched
+     */
+    private ConfigFileWatcher.Registration watch(String path, Runnable onChange) {
+        try {
+            ConfigFileWatcher.Registration registration = ConfigFileWatcher.getInstance().watch(new File(path), 
+                    onChange, watchStrategy);
+            watches.add(registration);
+            return registration;
+        } catch (IOException e) {
+            logToSystemOut("WARNING! Could not watch " + path + " for changes.\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+            return null;
         }
     }
     
@@ -359,6 +800,55 @@ public class ConfigServletContextListener implements ServletContextListener {
             this.applicationName = DEFAULT_APPLICATION_NAME;
         }
         configHelper = new ConfigHelper(applicationName);
+        
+        this.replayBootstrapLog = Boolean.parseBoolean(ctx.getInitParameter(REPLAY_BOOTSTRAP_LOG_PARAM));
+        this.parallelBootstrap = !"false".equalsIgnoreCase(StringUtils.trimToEmpty(ctx.getInitParameter(PARALLEL_BOOTSTRAP_PARAM)));
+        this.removeStaleSystemProperties = Boolean.parseBoolean(ctx.getInitParameter(REMOVE_STALE_SYSTEM_PROPERTIES_PARAM));
+        this.isolatedLogging = Boolean.parseBoolean(ctx.getInitParameter(ISOLATED_LOGGING_PARAM));
+        this.exportEncryptedSystemProperties = Boolean.parseBoolean(ctx.getInitParameter(EXPORT_ENCRYPTED_SYSTEM_PROPERTIES_PARAM));
+        systemPropertyExporter.setExportSecrets(exportEncryptedSystemProperties);
+        this.servletContext = ctx;
+        this.trackConfigAccess = Boolean.parseBoolean(ctx.getInitParameter(TRACK_CONFIG_ACCESS_PARAM));
+        this.configAccessSampleRate = 1;
+        String sampleRate = ctx.getInitParameter(CONFIG_ACCESS_SAMPLE_RATE_PARAM);
+        if (StringUtils.isNotBlank(sampleRate)) {
+            try {
+                this.configAccessSampleRate = Math.max(1, Integer.parseInt(sampleRate.trim()));
+            } catch (NumberFormatException e) {
+                logToSystemOut("Invalid config access sample rate " + sampleRate + ", recording every read");
+            }
+        }
+        this.configTypes.clear();
+        for (String typeName : StringUtils.split(StringUtils.trimToEmpty(ctx.getInitParameter(CONFIG_TYPES_PARAM)), ", ")) {
+            try {
+                this.configTypes.add(Class.forName(typeName, true, Thread.currentThread().getContextClassLoader()));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("The configuration type " + typeName + " given in " 
+                        + CONFIG_TYPES_PARAM + " was not found", e);
+            }
+        }
+        
+        this.watchStrategy = ConfigFileWatcher.Strategy.EVENT;
+        String strategy = ctx.getInitParameter(WATCH_STRATEGY_PARAM);
+        if (StringUtils.isNotBlank(strategy)) {
+            try {
+                this.watchStrategy = ConfigFileWatcher.Strategy.valueOf(strategy.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logToSystemOut("Unknown watch strategy " + strategy + ", using " + this.watchStrategy);
+            }
+        }
+        String interval = ctx.getInitParameter(WATCH_INTERVAL_PARAM);
+        if (StringUtils.isNotBlank(interval)) {
+            try {
+                if (this.watchStrategy == ConfigFileWatcher.Strategy.POLL) {
+                    ConfigFileWatcher.getInstance().setPollInterval(Long.parseLong(interval.trim()));
+                } else {
+                    ConfigFileWatcher.getInstance().setDebounce(Long.parseLong(interval.trim()));
+                }
+            } catch (NumberFormatException e) {
+                logToSystemOut("Invalid watch interval " + interval + ", using the default interval");
+            }
+        }
     }
     
     /**
@@ -402,11 +892,77 @@ public class ConfigServletContextListener implements ServletContextListener {
     }
 
 
+    /**
+     * Loads system properties from the application configuration.<br/>
+     * Only entries that changed since the last call are written, in one batch, see {@link SystemPropertyExporter}. 
+     * If a subclass overrides {@link #setSystemProperty(String, String)}, the changed entries are set through it 
+     * one by one instead.
+     *  
+     * @param snapshot The application configuration
+     */
+    protected void loadApplicationConfigurationSystemProperties(ConfigSnapshot snapshot){
+        logToSystemOut("Checking for system properties in application configuration");
+        SystemPropertyExporter.Result result = systemPropertyExporter.export(snapshot, removeStaleSystemProperties, 
+                overridesSetSystemProperty() ? this::setSystemProperty : null);
+        if (!result.changed.isEmpty()) {
+            logToSystemOut("Set system properties " + StringUtils.join(result.changed.keySet(), ", "));
+        }
+        if (!result.removed.isEmpty()) {
+            logToSystemOut("Removed system properties " + StringUtils.join(result.removed, ", "));
+        }
+        if (!result.skipped.isEmpty()) {
+            logToSystemOut("Did not set the encrypted system properties " + StringUtils.join(result.skipped, ", ") 
+                    + (exportEncryptedSystemProperties ? ", they could not be decrypted" 
+                            : ", set " + EXPORT_ENCRYPTED_SYSTEM_PROPERTIES_PARAM + " to true to set them"));
+        }
+    }
+
+    /**
+     * Binds the application configuration to each of the {@link #configTypes}.
+     *
+     * @param snapshot The application configuration
+     * @return the bound objects, in the order of the types
+     * @throws ConfigBindingException If the configuration did not match one of the types
+     */
+    private List<Object> bindConfigTypes(ConfigSnapshot snapshot) throws ConfigBindingException {
+        List<Object> bound = new ArrayList<Object>(configTypes.size());
+        for (Class<?> type : configTypes) {
+            bound.add(ConfigBinder.bind(snapshot, type));
+        }
+        return bound;
+    }
+    
+    /**
+     * Stores the objects bound by {@link #bindConfigTypes(ConfigSnapshot)} as servlet context attributes 
+     * named after the types.
+     */
+    private void storeConfigTypes(List<Object> bound) {
+        for (int i = 0; i < configTypes.size(); i++) {
+            servletContext.setAttribute(configTypes.get(i).getName(), bound.get(i));
+        }
+        logToSystemOut("Bound the application configuration to " + configTypes);
+    }
+
+    private boolean overridesSetSystemProperty() {
+        for (Class<?> type = getClass(); type != ConfigServletContextListener.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("setSystemProperty", String.class, String.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Not declared in this class, check the superclass
+            }
+        }
+        return false;
+    }
+    
     /**
      * Loads system properties from the application configuration
      *  
      * @param configBundle The application configuration
+     * @deprecated contextInitialized uses {@link #loadApplicationConfigurationSystemProperties(ConfigSnapshot)}, 
+     * which does not need the configuration as a resource bundle
      */
+    @Deprecated
     protected void loadApplicationConfigurationSystemProperties(PropertyResourceBundle configBundle){
         logToSystemOut("Checking for system properties in application configuration");
         Enumeration<String> keys = configBundle.getKeys();
@@ -426,7 +982,7 @@ public class ConfigServletContextListener implements ServletContextListener {
     }
     
     /**
-     * Loads the log4j configuration from a file whose location is given in the application configuration. 
+     * Reads and parses the log4j configuration from a file whose location is given in the application configuration. 
      * 
      * The location of the log4j configuration file shall by default be specified in 
      * an entry in the application configuration file with key "application.log4j.config.location"
@@ -435,65 +991,160 @@ public class ConfigServletContextListener implements ServletContextListener {
      * If no such property is found in the application configuration, log4j's default 
      * configuration mechanism will be used, e.g. it will look for log4j.xml 
      * or log4j.properties on the classpath.
+     * 
+     * @return the parsed configuration or null if log4j's default configuration shall be kept
      */
-    private void loadLoggingConfiguration(PropertyResourceBundle configBundle) {
+    private Log4jConfiguration parseLoggingConfiguration(ConfigView config) {
         logToSystemOut("Finding log4j configuration location in application configuration...");
         
-        String log4jConfigLocation = null;
-        
-        try {
-            log4jConfigLocation = configBundle.getString(this.log4jConfigLocationPropertyKey);
-        } catch (MissingResourceException e) {
+        String log4jConfigLocation = config.getString(this.log4jConfigLocationPropertyKey);
+        this.log4jConfigLocation = StringUtils.isNotBlank(log4jConfigLocation) ? log4jConfigLocation.trim() : null;
+        if (log4jConfigLocation == null) {
             logToSystemOut("No log4j configuration location was found for property " + 
                     this.log4jConfigLocationPropertyKey + " in the application configuration. ");
         }
     
         if (StringUtils.isNotBlank(log4jConfigLocation)) {
-            LogManager.resetConfiguration();
             logToSystemOut("Found log4j configuration location in the application configuration. " +
             		"Configuring logger using file: " + log4jConfigLocation);
-            if (log4jConfigLocation.startsWith("file:")) {
-                log4jConfigLocation = log4jConfigLocation.replaceFirst("file:", "");
-            }
-            if (log4jConfigLocation.endsWith(".xml")) {
-                if (log4jConfigLocation.startsWith("classpath:")) {
-                    log4jConfigLocation = log4jConfigLocation.replaceFirst("classpath:", "");
-                    InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(log4jConfigLocation);
-                    new DOMConfigurator().doConfigure(is, LogManager.getLoggerRepository());
-                } else {
-                    DOMConfigurator.configureAndWatch(log4jConfigLocation);
-                }
-            } else if (log4jConfigLocation.endsWith(".properties")) {
-                if (log4jConfigLocation.startsWith("classpath:")) {
-                    log4jConfigLocation = log4jConfigLocation.replaceFirst("classpath:", "");
-                    InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(log4jConfigLocation);
-                    PropertyConfigurator.configure(is);
-                } else {
-                    PropertyConfigurator.configureAndWatch(log4jConfigLocation);
-                }
-            } else {
-                logToSystemOut("The log4j configuration file location must end with .xml or .properties. " +
-                		"\nFalling back to the default log4j configuration mechanism.");
-            }
+            return parseLog4jConfiguration(this.log4jConfigLocation);
         } else {
             logToSystemOut("Didn't find log4j configuration location in application configuration. " +
             		"Falling back to the default log4j configuration mechanism.");
         }
-        log.info("Log4j was configured, see System.out log for initialization information.");
+        return null;
+    }
+    
+    private Log4jConfiguration parseLog4jConfiguration(String log4jConfigLocation) {
+        try {
+            return Log4jConfiguration.parse(log4jConfigLocation);
+        } catch (IllegalArgumentException e) {
+            logToSystemOut("The log4j configuration file location must end with .xml or .properties. " +
+                    "\nFalling back to the default log4j configuration mechanism.");
+        } catch (Exception e) {
+            logToSystemOut("WARNING! Could not read the log4j configuration at " + log4jConfigLocation 
+                    + ", keeping the current log4j configuration.\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * Configures log4j with a parsed configuration. 
+     * The current configuration is only reset if there is a new configuration to replace it with.
+     * Configurations read from the file system are reconfigured whenever the file changes.
+     * Replaces log4j's own configureAndWatch which starts one polling thread per file.
+     * @param parsed the parsed configuration or null to keep the current configuration
+     */
+    private void loadLoggingConfiguration(Log4jConfiguration parsed) {
+        if (parsed != null) {
+            parsed.apply(getLoggerRepository());
+        }
+        watchLoggingConfiguration();
+        getLogger().info("Log4j was configured, see System.out log for initialization information.");
+    }
+    
+    /**
+     * Watches the current log4j configuration file, if it is read from the file system, instead of the 
+     * previously watched one. A changed file is parsed before the current configuration is reset, 
+     * so a file that can't be parsed keeps the current configuration.
+     */
+    private synchronized void watchLoggingConfiguration() {
+        if (log4jWatch != null) {
+            log4jWatch.cancel();
+            watches.remove(log4jWatch);
+            log4jWatch = null;
+        }
+        if (this.log4jConfigLocation != null && Log4jConfiguration.isFile(this.log4jConfigLocation)) {
+            final String location = this.log4jConfigLocation;
+            final File file = FileConfigSource.toFile(location);
+            log4jWatch = watch(file.getPath(), new Runnable() {
+                public void run() {
+                    if (file.exists()) {
+                        logToSystemOut("The log4j configuration has changed, reconfiguring logger using file: " + location);
+                        Log4jConfiguration changed = parseLog4jConfiguration(location);
+                        if (changed != null) {
+                            changed.apply(getLoggerRepository());
+                        } else if (metrics != null) {
+                            metrics.recordLog4jReloadFailure();
+                        }
+                        configHelper.flushLog();
+                    }
+                }
+            });
+        }
+    }
+    
+    private LoggerRepository getLoggerRepository() {
+        return loggerRepository != null ? loggerRepository : LogManager.getLoggerRepository();
+    }
+    
+    private Logger getLogger() {
+        return loggerRepository != null ? loggerRepository.getLogger(ConfigServletContextListener.class.getName()) : log;
     }
 
     /**
-     * Destroys the servlet context and shutting down the Log Manager 
-     * which in turn is stopping Log4j's watch dog thread.
+     * Destroys the servlet context, stops watching the configuration files 
+     * and shuts down the Log Manager.
      * {@inheritDoc}
      */
     public void contextDestroyed(ServletContextEvent sce) {
-        log.debug("Servlet context destroyed");
-        log.debug("Shutting down log manager...");
+        try {
+            destroy();
+        } finally {
+            configHelper.flushLog();
+            if (bootstrapLogAttached) {
+                BootstrapLog.getInstance().detach();
+                bootstrapLogAttached = false;
+            }
+        }
+    }
+    
+    private void destroy() {
+        getLogger().debug("Servlet context destroyed");
+        getLogger().debug("Shutting down log manager...");
         logToSystemOut("Destroying servlet context...");
+        if (pendingWatch != null) {
+            try {
+                pendingWatch.join();
+            } catch (CompletionException | CancellationException e) {
+                // The rest of the teardown must run regardless, or the MBean and the watches would leak
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                logToSystemOut("WARNING! Could not watch the application configuration for changes.\n"
+                        + "Exception:" + cause.getClass().toString() + "\n"
+                        + "Message:" + cause.getMessage());
+            }
+            pendingWatch = null;
+        }
+        if (metrics != null) {
+            metrics.unregister();
+        }
+        for (ConfigFileWatcher.Registration watch : watches) {
+            watch.cancel();
+        }
+        watches.clear();
+        log4jWatch = null;
+        ConfigReference configReference = ConfigSnapshotCache.getInstance().getReference(this.configLocation, configHelper);
+        if (configReference != null) {
+            configReference.removeChangeListener(systemPropertyListener);
+            configReference.removeValidator(log4jValidator);
+            configReference.removeValidator(configTypesValidator);
+        }
+        logToSystemOut("Stopped watching configuration files.");
         logToSystemOut("Shutting down log manager...");
-        LogManager.shutdown();
+        if (loggerRepository != null) {
+            Log4jRepositories.release(loggerRepository);
+            loggerRepository = null;
+        } else {
+            LogManager.shutdown();
+        }
         logToSystemOut("The log manager has been shut down.");
+        ConfigRegistry.getInstance().release(this.configLocation);
+        for (ConfigSource source : discoveredSources) {
+            ConfigSources.unregister(source);
+        }
+        discoveredSources.clear();
         logToSystemOut("The servlet context has been destroyed.");
     }
 
@@ -0,0 +1,619 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.PropertyResourceBundle;
+
+/**
+ * An immutable, read-optimized view of a parsed application configuration.<br/>
+ * The entries are kept in a flat open-addressed table (linear probing over two parallel arrays),
+ * so a lookup is a hash, a few array reads and at most a couple of String#equals calls,
+ * without any synchronization or allocation.<br/>
+ * Typed values are parsed once when the snapshot is created and kept in primitive slots
+ * next to the String values, see {@link ConfigView}.<br/>
+ * Snapshots are built directly by {@link PropertiesParser}, the resource bundle for the 
+ * legacy API is only created when it is asked for.<br/>
+ * References to other entries, environment variables and system properties, e.g. <tt>${app.home}/logs</tt>, 
+ * are resolved when the snapshot is created, see {@link ConfigInterpolator}. The getters return resolved values, 
+ * {@link #getRawString(String)} the values as written.<br/>
+ * For prefix queries, see {@link #subset(String)}, the slots are also indexed in key order. 
+ * That index is built on the first prefix query.<br/>
+ * <br/>
+ * Instances are handed out by {@link ConfigSnapshotCache} and may be shared freely between threads.
+ * 
+ * @see ConfigHelper#readApplicationConfigurationSnapshot()
+ */
+public final class ConfigSnapshot implements ConfigView {
+
+    private static final byte TYPE_LONG = 1;
+    
+    private static final byte TYPE_INT = 2;
+    
+    private static final byte TYPE_BOOLEAN = 4;
+    
+    private static final byte TYPE_DURATION = 8;
+    
+    private final String location;
+    
+    private final String[] keys;
+    
+    private final String[] values;
+    
+    /**
+     * The values as written, before references were resolved. The same array as values if there are no references.
+     */
+    private final String[] rawValues;
+    
+    private final byte[] types;
+    
+    private final long[] numbers;
+    
+    private final boolean[] booleans;
+    
+    private final Duration[] durations;
+    
+    private final int mask;
+    
+    private final int size;
+    
+    private final long sourceBytes;
+    
+    private volatile PropertyResourceBundle resourceBundle;
+    
+    private volatile int[] sortedSlots;
+    
+    private volatile FeatureFlagTable featureFlagTable;
+    
+    /**
+     * Counts the reads of the entries, null unless access tracking is enabled, see {@link ConfigAccessTracker}
+     */
+    private volatile ConfigAccessTracker.Recorder accessRecorder;
+    
+    /**
+     * The decrypted ENC(...) values by slot, allocated on the first decryption. Guarded by this snapshot.
+     */
+    private char[][] secrets;
+    
+    /**
+     * Set when this snapshot has been replaced, secrets are no longer kept from then on. Guarded by this snapshot.
+     */
+    private boolean secretsCleared;
+    
+    private ConfigSnapshot(String location, String[] keys, String[] rawValues, int size, long sourceBytes, 
+            ConfigSnapshot previous) {
+        this.sourceBytes = sourceBytes;
+        this.location = location;
+        this.keys = keys;
+        this.rawValues = rawValues;
+        this.mask = keys.length - 1;
+        this.size = size;
+        this.values = interpolate(previous);
+        this.types = new byte[keys.length];
+        this.numbers = new long[keys.length];
+        this.booleans = new boolean[keys.length];
+        this.durations = new Duration[keys.length];
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                parseTypedValue(slot, values[slot]);
+            }
+        }
+    }
+    
+    /**
+     * A copy for another location, sharing all tables with the given snapshot
+     */
+    private ConfigSnapshot(ConfigSnapshot shared, String location) {
+        this.location = location;
+        this.keys = shared.keys;
+        this.values = shared.values;
+        this.rawValues = shared.rawValues;
+        this.types = shared.types;
+        this.numbers = shared.numbers;
+        this.booleans = shared.booleans;
+        this.durations = shared.durations;
+        this.mask = shared.mask;
+        this.size = shared.size;
+        this.sourceBytes = shared.sourceBytes;
+        this.resourceBundle = shared.resourceBundle;
+        this.sortedSlots = shared.sortedSlots;
+        this.featureFlagTable = shared.featureFlagTable;
+    }
+    
+    /**
+     * @param location a location with the same content as this snapshot's
+     * @return this snapshot if the location is the same, otherwise a snapshot for the given location 
+     * that shares the entries of this one
+     */
+    ConfigSnapshot withLocation(String location) {
+        return this.location.equals(location) ? this : new ConfigSnapshot(this, location);
+    }
+    
+    private String[] interpolate(ConfigSnapshot previous) {
+        ConfigInterpolator.Template[] templates = null;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (rawValues[slot] != null) {
+                ConfigInterpolator.Template template = ConfigInterpolator.compile(rawValues[slot]);
+                if (template != null) {
+                    if (templates == null) {
+                        templates = new ConfigInterpolator.Template[keys.length];
+                    }
+                    templates[slot] = template;
+                }
+            }
+        }
+        if (templates == null) {
+            return rawValues;
+        }
+        return ConfigInterpolator.resolve(this, keys, rawValues, templates, previous);
+    }
+    
+    private void parseTypedValue(int slot, String value) {
+        Long number = ValueParser.parseLong(value);
+        if (number != null) {
+            numbers[slot] = number.longValue();
+            types[slot] |= TYPE_LONG;
+            if (number.longValue() == number.intValue()) {
+                types[slot] |= TYPE_INT;
+            }
+        }
+        Boolean bool = ValueParser.parseBoolean(value);
+        if (bool != null) {
+            booleans[slot] = bool.booleanValue();
+            types[slot] |= TYPE_BOOLEAN;
+        }
+        Duration duration = ValueParser.parseDuration(value);
+        if (duration != null) {
+            durations[slot] = duration;
+            types[slot] |= TYPE_DURATION;
+        }
+    }
+    
+    /**
+     * Creates a snapshot holding the given entries, a later entry replaces an earlier one with the same key.
+     * References in the values are resolved, see {@link ConfigInterpolator}.
+     * @param location the location the entries were read from
+     * @param entryKeys the keys in the order they were read
+     * @param entryValues the values in the order they were read
+     * @param count the number of entries in the arrays
+     * @param sourceBytes the number of bytes read from the location
+     * @param previous the previous snapshot of the location, whose resolved values are reused where 
+     * nothing they depend on has changed, or null
+     * @return a new snapshot
+     */
+    static ConfigSnapshot create(String location, String[] entryKeys, String[] entryValues, int count, 
+            long sourceBytes, ConfigSnapshot previous) {
+        int capacity = tableCapacity(count);
+        String[] keys = new String[capacity];
+        String[] values = new String[capacity];
+        int mask = capacity - 1;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            String key = entryKeys[i];
+            int slot = hash(key) & mask;
+            while (keys[slot] != null && !keys[slot].equals(key)) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == null) {
+                size++;
+            }
+            keys[slot] = key;
+            values[slot] = entryValues[i];
+        }
+        return new ConfigSnapshot(location, keys, values, size, sourceBytes, previous);
+    }
+    
+    /**
+     * Smallest power of two that keeps the load factor at or below 0.5
+     */
+    private static int tableCapacity(int entries) {
+        int capacity = 2;
+        while (capacity < entries * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+    
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+    
+    /**
+     * @param key the configuration key
+     * @return the slot of the key in this snapshot's table or -1 if the key is not present
+     */
+    int indexOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        int slot = hash(key) & mask;
+        String candidate;
+        while ((candidate = keys[slot]) != null) {
+            if (candidate == key || candidate.equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    
+    /**
+     * @param key the configuration key
+     * @return the value for the given key or null if there is no such entry
+     */
+    public String getString(String key) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        recordAccess(slot);
+        return values[slot];
+    }
+    
+    /**
+     * @param key the configuration key
+     * @param defaultValue the value to return if there is no such entry
+     * @return the value for the given key or the default value if there is no such entry
+     */
+    public String getString(String key, String defaultValue) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return defaultValue;
+        }
+        recordAccess(slot);
+        return values[slot];
+    }
+    
+    public int getInt(String key, int defaultValue) {
+        return getInt(indexOf(key), defaultValue);
+    }
+    
+    int getInt(int slot, int defaultValue) {
+        recordAccess(slot);
+        return slot < 0 || (types[slot] & TYPE_INT) == 0 ? defaultValue : (int) numbers[slot];
+    }
+    
+    public long getLong(String key, long defaultValue) {
+        return getLong(indexOf(key), defaultValue);
+    }
+    
+    long getLong(int slot, long defaultValue) {
+        recordAccess(slot);
+        return slot < 0 || (types[slot] & TYPE_LONG) == 0 ? defaultValue : numbers[slot];
+    }
+    
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return getBoolean(indexOf(key), defaultValue);
+    }
+    
+    boolean getBoolean(int slot, boolean defaultValue) {
+        recordAccess(slot);
+        return slot < 0 || (types[slot] & TYPE_BOOLEAN) == 0 ? defaultValue : booleans[slot];
+    }
+    
+    public Duration getDuration(String key, Duration defaultValue) {
+        return getDuration(indexOf(key), defaultValue);
+    }
+    
+    Duration getDuration(int slot, Duration defaultValue) {
+        recordAccess(slot);
+        return slot < 0 || (types[slot] & TYPE_DURATION) == 0 ? defaultValue : durations[slot];
+    }
+    
+    public char[] getSecret(String key) {
+        return getSecret(indexOf(key));
+    }
+    
+    char[] getSecret(int slot) {
+        if (slot < 0) {
+            return null;
+        }
+        recordAccess(slot);
+        String value = values[slot];
+        if (!ConfigSecrets.isEncrypted(value)) {
+            return value.toCharArray();
+        }
+        synchronized (this) {
+            if (secrets != null && secrets[slot] != null) {
+                return secrets[slot].clone();
+            }
+            char[] secret = decrypt(slot);
+            if (secretsCleared) {
+                return secret;
+            }
+            if (secrets == null) {
+                secrets = new char[keys.length][];
+            }
+            secrets[slot] = secret;
+            return secret.clone();
+        }
+    }
+    
+    private char[] decrypt(int slot) {
+        try {
+            return ConfigSecrets.decrypt(values[slot]);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not decrypt the value of " + keys[slot] + " in " + location 
+                    + ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Zeroes the decrypted values, called when this snapshot has been replaced by a reloaded configuration 
+     * and is no longer kept for rollback, see {@link ConfigReference#getHistory()}.
+     * Later calls to {@link #getSecret(String)} decrypt the value again without keeping it.
+     */
+    synchronized void clearSecrets() {
+        secretsCleared = true;
+        if (secrets != null) {
+            for (char[] secret : secrets) {
+                if (secret != null) {
+                    Arrays.fill(secret, '\0');
+                }
+            }
+            secrets = null;
+        }
+    }
+    
+    public boolean containsKey(String key) {
+        int slot = indexOf(key);
+        recordAccess(slot);
+        return slot >= 0;
+    }
+    
+    /**
+     * @return the number of entries in this snapshot
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * The capacity of the underlying table. Use together with {@link #getKey(int)} and {@link #getValue(int)} 
+     * to iterate over the entries without allocating, skipping the slots where the key is null. 
+     * @return the number of slots in the table
+     */
+    public int capacity() {
+        return keys.length;
+    }
+    
+    /**
+     * @param slot a slot between 0 (inclusive) and {@link #capacity()} (exclusive)
+     * @return the key in the given slot or null if the slot is empty
+     */
+    public String getKey(int slot) {
+        return keys[slot];
+    }
+    
+    /**
+     * @param slot a slot between 0 (inclusive) and {@link #capacity()} (exclusive)
+     * @return the value in the given slot or null if the slot is empty
+     */
+    public String getValue(int slot) {
+        return values[slot];
+    }
+    
+    String getRawValue(int slot) {
+        return rawValues[slot];
+    }
+    
+    /**
+     * @param key the configuration key
+     * @return the value as written in the configuration, i.e. with <tt>${...}</tt> references unresolved, 
+     * or null if there is no such entry
+     */
+    public String getRawString(String key) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        recordAccess(slot);
+        return rawValues[slot];
+    }
+    
+    /**
+     * Counts a read of the entry in the given slot, if access tracking is enabled
+     * @param slot the slot of the entry, or -1 for a missing entry, which is not counted
+     */
+    void recordAccess(int slot) {
+        ConfigAccessTracker.Recorder recorder = accessRecorder;
+        if (recorder != null && slot >= 0) {
+            recorder.record(slot);
+        }
+    }
+    
+    void setAccessRecorder(ConfigAccessTracker.Recorder recorder) {
+        this.accessRecorder = recorder;
+    }
+    
+    public ConfigSubset subset(String prefix) {
+        int[] sorted = getSortedSlots();
+        return new ConfigSubset(this, prefix, sorted, boundary(sorted, prefix, false), boundary(sorted, prefix, true));
+    }
+    
+    /**
+     * @return the occupied slots ordered by their keys
+     */
+    int[] getSortedSlots() {
+        int[] sorted = sortedSlots;
+        if (sorted == null) {
+            String[] sortedKeys = new String[size];
+            int count = 0;
+            for (String key : keys) {
+                if (key != null) {
+                    sortedKeys[count++] = key;
+                }
+            }
+            Arrays.sort(sortedKeys);
+            sorted = new int[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = indexOf(sortedKeys[i]);
+            }
+            sortedSlots = sorted;
+        }
+        return sorted;
+    }
+    
+    /**
+     * Binary search for the first position in the sorted slots whose key starts with (or, 
+     * if upper is set, comes after all keys starting with) the given prefix
+     */
+    private int boundary(int[] sorted, String prefix, boolean upper) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = comparePrefix(keys[sorted[middle]], prefix);
+            if (comparison < 0 || (upper && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Compares the beginning of the key with the prefix, consistent with String#compareTo
+     * @return 0 if the key starts with the prefix
+     */
+    private static int comparePrefix(String key, String prefix) {
+        int length = Math.min(key.length(), prefix.length());
+        for (int i = 0; i < length; i++) {
+            int difference = key.charAt(i) - prefix.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return key.length() < prefix.length() ? -1 : 0;
+    }
+    
+    /**
+     * @return the feature.* entries compiled into a table, see {@link FeatureFlags}, compiled on the first call
+     */
+    FeatureFlagTable getFeatureFlagTable() {
+        FeatureFlagTable table = featureFlagTable;
+        if (table == null) {
+            table = FeatureFlagTable.compile(this);
+            featureFlagTable = table;
+        }
+        return table;
+    }
+    
+    /**
+     * @return the number of bytes that were read from the location
+     */
+    public long getSourceBytes() {
+        return sourceBytes;
+    }
+    
+    /**
+     * @return the location this snapshot was read from
+     */
+    public String getLocation() {
+        return location;
+    }
+    
+    /**
+     * The configuration as a resource bundle, for code written against 
+     * {@link ConfigHelper#readApplicationConfiguration()}.<br/>
+     * The bundle is created on the first call and the same instance is returned on every following call, 
+     * it has no public mutators and is safe to share.
+     * @return the configuration as a property resource bundle
+     */
+    public PropertyResourceBundle getResourceBundle() {
+        PropertyResourceBundle bundle = resourceBundle;
+        if (bundle == null) {
+            synchronized (this) {
+                bundle = resourceBundle;
+                if (bundle == null) {
+                    bundle = createResourceBundle();
+                    resourceBundle = bundle;
+                }
+            }
+        }
+        return bundle;
+    }
+    
+    private PropertyResourceBundle createResourceBundle() {
+        StringBuilder text = new StringBuilder(size * 32);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                escape(text, keys[slot], true);
+                text.append('=');
+                escape(text, values[slot], false);
+                text.append('\n');
+            }
+        }
+        try {
+            return new PropertyResourceBundle(new StringReader(text.toString()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Escapes the characters that would otherwise change the meaning of a key or value in the .properties format
+     */
+    private static void escape(StringBuilder text, String s, boolean key) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                case '\f':
+                    text.append("\\f");
+                    break;
+                case ' ':
+                    if (key || i == 0) {
+                        text.append('\\');
+                    }
+                    text.append(c);
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    if (key) {
+                        text.append('\\');
+                    }
+                    text.append(c);
+                    break;
+                default:
+                    text.append(c);
+            }
+        }
+    }
+    
+}
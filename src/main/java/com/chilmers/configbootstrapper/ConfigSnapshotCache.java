@@ -0,0 +1,440 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Process wide cache of parsed application configurations, keyed by configuration location.<br/>
+ * <br/>
+ * A location is only read and parsed again when its source has changed, i.e. when the 
+ * last modified time or size of a file: location changes, or when the URL that a classpath: location 
+ * resolves to changes, or when the version reported by the {@link ConfigSource} of any other location changes.
+ * To keep the cost of a lookup bounded, the source is checked for changes at most once per 
+ * check interval (see {@link #setCheckInterval(long)}), between checks the cached snapshot is returned 
+ * without touching the file system.<br/>
+ * <br/>
+ * The default check interval is 1000 milliseconds and can be changed with the system property
+ * <pre>-Dconfig.bootstrapper.cache.check.interval=5000</pre>
+ * A check interval of 0 checks the source on every lookup.<br/>
+ * <br/>
+ * To avoid parsing unchanged file: configurations again after a restart, compiled snapshots can be kept on disk:
+ * <pre>-Dconfig.bootstrapper.snapshot.store=adjacent</pre>
+ * writes them next to the configuration files, 
+ * <pre>-Dconfig.bootstrapper.snapshot.store=/var/cache/myapp</pre>
+ * to the given directory.<br/>
+ * <br/>
+ * A location that can't be read again, or whose new snapshot is rejected by a {@link ConfigValidator}, keeps 
+ * its last known good snapshot, the failure is counted in {@link ConfigReference#getLoadFailureCount()}. 
+ * Earlier snapshots can be restored with {@link #rollback(String)}.
+ */
+public final class ConfigSnapshotCache {
+
+    /**
+     * Name of the system property that sets the initial check interval in milliseconds
+     */
+    public static final String CHECK_INTERVAL_PROPERTY_KEY = "config.bootstrapper.cache.check.interval";
+    
+    /**
+     * Name of the system property that enables compiled snapshots on disk for file: locations,
+     * set it to <tt>adjacent</tt> to keep them next to the configuration files or to a directory, 
+     * see {@link ConfigSnapshotStore}
+     */
+    public static final String SNAPSHOT_STORE_PROPERTY_KEY = "config.bootstrapper.snapshot.store";
+    
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+    
+    private static final ConfigSnapshotCache INSTANCE = new ConfigSnapshotCache();
+    
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    
+    private final ConfigHelper configHelper = new ConfigHelper("config-bootstrapper");
+    
+    private volatile long checkIntervalNanos;
+    
+    private volatile Executor executor;
+    
+    private ConfigSnapshotCache() {
+        long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+        String configured = System.getProperty(CHECK_INTERVAL_PROPERTY_KEY);
+        if (StringUtils.isNotBlank(configured)) {
+            try {
+                checkIntervalMillis = Long.parseLong(configured.trim());
+            } catch (NumberFormatException e) {
+                configHelper.logToSystemOut("Invalid value for system property " + CHECK_INTERVAL_PROPERTY_KEY 
+                        + ": " + configured + ", using " + DEFAULT_CHECK_INTERVAL_MILLIS + " ms");
+            }
+        }
+        setCheckInterval(checkIntervalMillis);
+    }
+    
+    public static ConfigSnapshotCache getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Sets how often a cached location is checked for changes.
+     * @param checkIntervalMillis the minimum number of milliseconds between two checks of the same location
+     */
+    public void setCheckInterval(long checkIntervalMillis) {
+        this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, checkIntervalMillis));
+    }
+    
+    /**
+     * @return the minimum number of milliseconds between two checks of the same location 
+     */
+    public long getCheckInterval() {
+        return TimeUnit.NANOSECONDS.toMillis(checkIntervalNanos);
+    }
+    
+    /**
+     * Sets the executor that asynchronous loads and the publishers of {@link ConfigReference#getUpdates()} run on.
+     * By default a pool of daemon threads that are started on demand is used.
+     * @param executor the executor, null restores the default
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * @return the executor for asynchronous loads and update publishers
+     * @see #setExecutor(Executor)
+     */
+    public Executor getExecutor() {
+        Executor current = executor;
+        return current == null ? DefaultExecutor.INSTANCE : current;
+    }
+    
+    /**
+     * Returns the snapshot for the given location, reading it if it is not cached or if 
+     * the source has changed since it was read.
+     * @param location the application configuration location, starting with file: or classpath:
+     * @return the configuration snapshot or null if the configuration could not be read
+     */
+    public ConfigSnapshot getSnapshot(String location) {
+        return getSnapshot(location, configHelper);
+    }
+    
+    ConfigSnapshot getSnapshot(String location, ConfigHelper helper) {
+        ConfigReference reference = getReference(location, helper);
+        return reference == null ? null : reference.getSnapshot();
+    }
+    
+    /**
+     * Like {@link #getSnapshot(String)}, but reports why the configuration could not be read.
+     * @throws ConfigLoadException if the last read of the location failed
+     */
+    ConfigSnapshot load(String location, ConfigHelper helper) throws ConfigLoadException {
+        if (location == null) {
+            throw new ConfigLoadException(null, ConfigLoadException.Reason.INVALID_LOCATION, 
+                    "No application configuration location given", null);
+        }
+        Entry entry = getEntry(location, helper);
+        ConfigSnapshot snapshot = entry.reference.getSnapshot();
+        if (snapshot == null) {
+            ConfigLoadException failure = entry.failure;
+            throw failure != null ? failure : new ConfigLoadException(location, 
+                    ConfigLoadException.Reason.READ_FAILED, "The configuration could not be read", null);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Returns a live reference to the configuration at the given location. 
+     * The reference is updated whenever the location is read again by this cache.
+     * @param location the application configuration location, starting with file: or classpath:
+     * @return the configuration reference, or null if the location is null
+     */
+    public ConfigReference getReference(String location) {
+        return getReference(location, configHelper);
+    }
+    
+    ConfigReference getReference(String location, ConfigHelper helper) {
+        if (location == null) {
+            return null;
+        }
+        return getEntry(location, helper).reference;
+    }
+    
+    private Entry getEntry(String location, ConfigHelper helper) {
+        Entry entry = entries.get(location);
+        if (entry == null) {
+            Entry created = new Entry(location);
+            entry = entries.putIfAbsent(location, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        entry.refreshIfStale(helper, checkIntervalNanos);
+        return entry;
+    }
+    
+    /**
+     * Reads the given location again, regardless of whether the source has changed or not.
+     * @param location the application configuration location, starting with file: or classpath:
+     * @return the new configuration snapshot or null if the configuration could not be read
+     */
+    public ConfigSnapshot reload(String location) {
+        return reload(location, configHelper);
+    }
+    
+    ConfigSnapshot reload(String location, ConfigHelper helper) {
+        invalidate(location);
+        return getSnapshot(location, helper);
+    }
+    
+    /**
+     * Replaces the current snapshot of the given location with the snapshot it replaced, see 
+     * {@link ConfigReference#getHistory()}. The restored snapshot passes the validators of the reference again 
+     * and is kept until the source of the location changes or the location is reloaded.
+     * @param location the application configuration location
+     * @return the restored snapshot, or null if the location has no earlier snapshot
+     * @throws ConfigLoadException if a validator rejected the earlier snapshot
+     */
+    public ConfigSnapshot rollback(String location) throws ConfigLoadException {
+        Entry entry = location == null ? null : entries.get(location);
+        return entry == null ? null : entry.rollback(configHelper);
+    }
+    
+    /**
+     * Marks the given location as changed, the next lookup will read it again.
+     * References to the location stay valid and see the new configuration once it has been read.
+     * @param location the application configuration location
+     */
+    public void invalidate(String location) {
+        if (location != null) {
+            Entry entry = entries.get(location);
+            if (entry != null) {
+                entry.invalidate();
+            }
+        }
+    }
+    
+    /**
+     * Marks all locations as changed.
+     */
+    public void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            entry.invalidate();
+        }
+    }
+    
+    /**
+     * Forgets the given location and releases it in its source, see {@link ConfigSource#release(String)}, 
+     * unless its reference still has listeners or key handles, see {@link ConfigReference#isInUse()}. 
+     * Other references handed out earlier keep their last snapshot but are no longer updated.
+     * @param location the application configuration location
+     */
+    void evict(String location) {
+        if (location == null) {
+            return;
+        }
+        Entry entry = entries.get(location);
+        if (entry != null) {
+            if (entry.reference.isInUse() || !entries.remove(location, entry)) {
+                return;
+            }
+            entry.reference.clearHistory();
+        }
+        ConfigSources.release(location);
+    }
+    
+    /**
+     * A cached location. The snapshot and its source stamp are replaced together
+     * by the single thread that wins the check for the current interval.
+     * A new snapshot is read and validated first and only then published, a failure in either 
+     * step keeps the current snapshot.
+     */
+    private static final class Entry {
+        
+        private final ConfigReference reference;
+        
+        private final AtomicLong nextCheckNanos = new AtomicLong();
+        
+        private volatile boolean loaded;
+        
+        private volatile SourceStamp stamp;
+        
+        /**
+         * Why the last read failed, null if it succeeded
+         */
+        private volatile ConfigLoadException failure;
+        
+        Entry(String location) {
+            this.reference = new ConfigReference(location);
+        }
+        
+        void invalidate() {
+            loaded = false;
+        }
+        
+        void refreshIfStale(ConfigHelper helper, long checkIntervalNanos) {
+            if (!loaded) {
+                synchronized (this) {
+                    if (!loaded) {
+                        load(helper, SourceStamp.of(reference.getLocation()), checkIntervalNanos);
+                    }
+                }
+                return;
+            }
+            long now = System.nanoTime();
+            long next = nextCheckNanos.get();
+            if (now - next < 0 || !nextCheckNanos.compareAndSet(next, now + checkIntervalNanos)) {
+                return;
+            }
+            SourceStamp current = SourceStamp.of(reference.getLocation());
+            if (!current.equals(stamp)) {
+                synchronized (this) {
+                    load(helper, current, checkIntervalNanos);
+                }
+            }
+        }
+        
+        private void load(ConfigHelper helper, SourceStamp current, long checkIntervalNanos) {
+            long start = System.nanoTime();
+            ConfigSnapshot snapshot = null;
+            List<Runnable> prepared = null;
+            try {
+                snapshot = helper.loadSnapshot(reference.getLocation(), reference.getSnapshot());
+                prepared = reference.validate(snapshot);
+                failure = null;
+            } catch (ConfigLoadException e) {
+                helper.logLoadFailure(e);
+                failure = e;
+                snapshot = null;
+            }
+            reference.recordLoad(System.nanoTime() - start, snapshot != null);
+            if (snapshot != null) {
+                reference.commit(snapshot, prepared, false);
+            } else if (reference.getSnapshot() != null) {
+                helper.logToSystemOut("Keeping the last known good configuration of " + reference.getLocation());
+            }
+            stamp = current;
+            nextCheckNanos.set(System.nanoTime() + checkIntervalNanos);
+            loaded = true;
+            helper.flushLog();
+        }
+        
+        synchronized ConfigSnapshot rollback(ConfigHelper helper) throws ConfigLoadException {
+            ConfigSnapshot previous = reference.getPrevious();
+            if (previous == null) {
+                return null;
+            }
+            List<Runnable> prepared = reference.validate(previous);
+            helper.logToSystemOut("Rolling back the configuration of " + reference.getLocation() 
+                    + " to the snapshot it replaced");
+            reference.commit(previous, prepared, true);
+            helper.flushLog();
+            return previous;
+        }
+    }
+    
+    /**
+     * Identifies the version of a configuration source without reading it.
+     */
+    private static final class SourceStamp {
+        
+        private final String resource;
+        
+        private final long lastModified;
+        
+        private final long length;
+        
+        private SourceStamp(String resource, long lastModified, long length) {
+            this.resource = resource;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+        
+        static SourceStamp of(String location) {
+            if (location.startsWith(FileConfigSource.PREFIX)) {
+                File file = FileConfigSource.toFile(location);
+                return new SourceStamp(file.getPath(), file.lastModified(), file.length());
+            }
+            if (location.startsWith(ClasspathConfigSource.PREFIX)) {
+                URL url = ClasspathConfigSource.toURL(location);
+                if (url == null) {
+                    return new SourceStamp(null, 0, 0);
+                }
+                if ("file".equals(url.getProtocol())) {
+                    try {
+                        File file = new File(url.toURI());
+                        return new SourceStamp(url.toExternalForm(), file.lastModified(), file.length());
+                    } catch (URISyntaxException e) {
+                        // Fall through and only compare the URL
+                    }
+                }
+                return new SourceStamp(url.toExternalForm(), 0, 0);
+            }
+            ConfigSource source = ConfigSources.find(location);
+            return new SourceStamp(location, source == null ? 0 : source.getVersion(location), 0);
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SourceStamp)) {
+                return false;
+            }
+            SourceStamp other = (SourceStamp) obj;
+            return lastModified == other.lastModified && length == other.length 
+                    && StringUtils.equals(resource, other.resource);
+        }
+        
+        @Override
+        public int hashCode() {
+            return (resource == null ? 0 : resource.hashCode()) * 31 + (int) (lastModified ^ length);
+        }
+    }
+    
+    /**
+     * Daemon threads for reading configurations, so pending loads never keep the JVM alive
+     */
+    private static final class DefaultExecutor {
+        
+        static final Executor INSTANCE;
+        
+        static {
+            final AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, 
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "config-bootstrapper-loader-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            INSTANCE = executor;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Compiled snapshots of file: configurations on disk, so a restarted JVM does not have to parse 
+ * an unchanged configuration again.<br/>
+ * <br/>
+ * The store is enabled with the system property {@link ConfigSnapshotCache#SNAPSHOT_STORE_PROPERTY_KEY}, 
+ * either set to <tt>adjacent</tt> to write <tt>&lt;configuration file&gt;.snapshot</tt> next to the configuration, 
+ * or to a directory to keep the snapshots there.<br/>
+ * <br/>
+ * A compiled snapshot holds the entries of the parsed configuration together with the SHA-256 hash and 
+ * length of the text it was parsed from, and a CRC-32C checksum of the entries. The configuration file is still 
+ * read on every load, but when hash and length match, the entries are taken from the memory mapped snapshot 
+ * instead of parsing the text. The lookup table is built again from the entries, so it never depends on 
+ * the hashing of an earlier version.
+ * Otherwise, or if the snapshot cannot be read or its checksum does not match, the text is parsed and 
+ * the snapshot is written again.<br/>
+ * Snapshots are written to a temporary file that is then moved in place, so readers never see a partial snapshot.
+ */
+final class ConfigSnapshotStore {
+
+    /**
+     * Value of the system property that keeps the snapshots next to the configuration files
+     */
+    static final String ADJACENT = "adjacent";
+    
+    private static final String SUFFIX = ".snapshot";
+    
+    private static final int MAGIC = 0x43464753;
+    
+    private static final int VERSION = 2;
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final File snapshotFile;
+    
+    private final ConfigHelper configHelper;
+    
+    private ConfigSnapshotStore(File snapshotFile, ConfigHelper configHelper) {
+        this.snapshotFile = snapshotFile;
+        this.configHelper = configHelper;
+    }
+    
+    /**
+     * @param configFile the configuration file
+     * @param configHelper the helper to log with
+     * @return the store for the given configuration file or null if the store is not enabled
+     */
+    static ConfigSnapshotStore forFile(File configFile, ConfigHelper configHelper) {
+        String store = System.getProperty(ConfigSnapshotCache.SNAPSHOT_STORE_PROPERTY_KEY);
+        if (StringUtils.isBlank(store)) {
+            return null;
+        }
+        File absolute = configFile.getAbsoluteFile();
+        if (ADJACENT.equals(store.trim())) {
+            return new ConfigSnapshotStore(new File(absolute.getPath() + SUFFIX), configHelper);
+        }
+        // Several configurations with the same name may share a directory, so the name includes the path hash
+        String name = absolute.getName() + "-" + toHex(digest(absolute.getPath().getBytes(UTF_8)), 8) + SUFFIX;
+        return new ConfigSnapshotStore(new File(store.trim(), name), configHelper);
+    }
+    
+    File getSnapshotFile() {
+        return snapshotFile;
+    }
+    
+    /**
+     * Takes the table from the compiled snapshot if it matches the given content, 
+     * otherwise parses the content and writes a new compiled snapshot.
+     * @param hash the SHA-256 hash of the content, see {@link #sha256(ByteBuffer)}
+     */
+    ConfigSnapshot readOrParse(String location, ByteBuffer content, byte[] hash, ConfigSnapshot previous) {
+        ConfigSnapshot snapshot = read(location, hash, content.limit(), previous);
+        if (snapshot == null) {
+            snapshot = PropertiesParser.parse(location, content, previous);
+            write(snapshot, hash, content.limit());
+        }
+        return snapshot;
+    }
+    
+    private ConfigSnapshot read(String location, byte[] hash, long sourceBytes, ConfigSnapshot previous) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try {
+            FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ);
+            ByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != sourceBytes) {
+                return null;
+            }
+            byte[] storedHash = new byte[hash.length];
+            buffer.get(storedHash);
+            if (!Arrays.equals(hash, storedHash)) {
+                return null;
+            }
+            int size = buffer.getInt();
+            int checksum = buffer.getInt();
+            // Each entry takes at least the two lengths
+            if (size < 0 || size > buffer.remaining() / 8) {
+                throw new IOException("Invalid entry count " + size);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("The checksum of the entries does not match");
+            }
+            String[] keys = new String[size];
+            String[] rawValues = new String[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = readString(buffer);
+                rawValues[i] = readString(buffer);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException(buffer.remaining() + " bytes after the last entry");
+            }
+            return ConfigSnapshot.create(location, keys, rawValues, size, sourceBytes, previous);
+        } catch (IOException e) {
+            logInvalidSnapshot(e);
+        } catch (BufferUnderflowException e) {
+            logInvalidSnapshot(e);
+        } catch (IllegalArgumentException e) {
+            logInvalidSnapshot(e);
+        }
+        return null;
+    }
+    
+    private void logInvalidSnapshot(Exception e) {
+        configHelper.logToSystemOut("WARNING! Could not read the compiled configuration snapshot " 
+                + snapshotFile + ", parsing the configuration instead.\n"
+                + "Exception:" + e.getClass().toString() + "\n"
+                + "Message:" + e.getMessage());
+    }
+    
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+    
+    private void write(ConfigSnapshot snapshot, byte[] hash, long sourceBytes) {
+        File temporary = null;
+        try {
+            File directory = snapshotFile.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+            byte[][] encoded = new byte[snapshot.size() * 2][];
+            int headerLength = 4 + 4 + 8 + hash.length + 4 + 4;
+            int length = headerLength;
+            int entry = 0;
+            for (int slot = 0; slot < snapshot.capacity(); slot++) {
+                if (snapshot.getKey(slot) != null) {
+                    encoded[entry] = snapshot.getKey(slot).getBytes(UTF_8);
+                    encoded[entry + 1] = snapshot.getRawValue(slot).getBytes(UTF_8);
+                    length += 4 + encoded[entry].length + 4 + encoded[entry + 1].length;
+                    entry += 2;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.position(headerLength);
+            for (entry = 0; entry < encoded.length; entry += 2) {
+                buffer.putInt(encoded[entry].length).put(encoded[entry]);
+                buffer.putInt(encoded[entry + 1].length).put(encoded[entry + 1]);
+            }
+            buffer.flip().position(headerLength);
+            CRC32C checksum = new CRC32C();
+            checksum.update(buffer);
+            buffer.rewind();
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(sourceBytes).put(hash);
+            buffer.putInt(snapshot.size()).putInt((int) checksum.getValue());
+            buffer.rewind();
+            temporary = File.createTempFile(snapshotFile.getName(), ".tmp", directory);
+            FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE);
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                channel.close();
+            }
+            Files.move(temporary.toPath(), snapshotFile.toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        } catch (IOException e) {
+            configHelper.logToSystemOut("WARNING! Could not write the compiled configuration snapshot " 
+                    + snapshotFile + "\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+        } finally {
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+    
+    /**
+     * @param content the content to hash, from its position to its limit, the position is not changed
+     * @return the SHA-256 hash of the content
+     */
+    static byte[] sha256(ByteBuffer content) {
+        MessageDigest digest = sha256();
+        digest.update(content.duplicate());
+        return digest.digest();
+    }
+    
+    static byte[] digest(byte[] content) {
+        return sha256().digest(content);
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    static String toHex(byte[] bytes, int count) {
+        StringBuilder hex = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
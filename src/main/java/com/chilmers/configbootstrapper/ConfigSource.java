@@ -0,0 +1,97 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads application configurations from a type of location, e.g. file:, classpath: or http: locations.<br/>
+ * <br/>
+ * Sources are discovered with {@link java.util.ServiceLoader}, i.e. listed in 
+ * <tt>META-INF/services/com.chilmers.configbootstrapper.ConfigSource</tt>, or registered with 
+ * {@link ConfigSources#register(ConfigSource)}. 
+ * The source with the highest priority that supports a location reads it.
+ */
+public interface ConfigSource {
+
+    /**
+     * @param location an application configuration location
+     * @return true if this source reads the given location
+     */
+    boolean supports(String location);
+    
+    /**
+     * Opens the configuration at the given location. 
+     * The caller closes the stream.
+     * @param location a location supported by this source
+     * @return the content of the configuration in .properties format
+     * @throws ConfigLoadException if the location does not exist or is invalid
+     * @throws IOException if the configuration could not be read
+     */
+    InputStream open(String location) throws ConfigLoadException, IOException;
+    
+    /**
+     * Reads the configuration at the given location as a whole instead of parsing {@link #open(String)}, 
+     * for sources that can do better, e.g. by reusing the entries of the parts that have not changed.
+     * @param location a location supported by this source
+     * @param previous the previously read configuration of the location, or null
+     * @param helper used for logging
+     * @return the configuration, or null to parse the content returned by {@link #open(String)}
+     * @throws ConfigLoadException if the configuration could not be read
+     */
+    default ConfigSnapshot load(String location, ConfigSnapshot previous, ConfigHelper helper) throws ConfigLoadException {
+        return null;
+    }
+    
+    /**
+     * Called by the {@link ConfigSnapshotCache} to decide whether a cached configuration must be read again, 
+     * so it should be cheap, i.e. not touch the network.
+     * @param location a location supported by this source
+     * @return a number that changes whenever the configuration at the location changes
+     */
+    long getVersion(String location);
+    
+    /**
+     * @return the priority of this source, sources with a higher priority are asked before sources with a lower one. 
+     * The built in sources for file:, classpath: and http: have priority 0.
+     */
+    default int getPriority() {
+        return 0;
+    }
+    
+    /**
+     * The latency budget for reading the given location. When reading takes longer, the content that was last read 
+     * from the location is used instead, or the read fails if there is none, so a slow source does not stall startup.
+     * @param location a location supported by this source
+     * @return the budget in milliseconds, 0 for no budget
+     */
+    default long getTimeoutMillis(String location) {
+        return 0;
+    }
+    
+    /**
+     * Called when the given location is no longer used by any application, so the source can drop 
+     * what it keeps for the location, e.g. stop refreshing it in the background.
+     * @param location a location supported by this source
+     */
+    default void release(String location) {
+    }
+}
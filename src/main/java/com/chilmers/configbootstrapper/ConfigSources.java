@@ -0,0 +1,254 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The available {@link ConfigSource}s, ordered by priority.<br/>
+ * <br/>
+ * The built in sources read file:, classpath:, dir:, http: and https: locations, and gzip compressed 
+ * configurations (locations ending with .gz) from any of them. 
+ * Further sources are discovered with {@link ServiceLoader} from the class loader of this library and from the 
+ * class loaders passed to {@link #discover(ClassLoader)}, which the {@link ConfigServletContextListener} does 
+ * for the class loader of each application and undoes when the application is stopped, 
+ * or registered with {@link #register(ConfigSource)}.
+ * Among sources with the same priority, the one registered last is asked first.<br/>
+ * <br/>
+ * The source of a location is looked up once and then cached until the registered sources change.
+ */
+public final class ConfigSources {
+
+    private static final List<ConfigSource> sources = new ArrayList<ConfigSource>();
+    
+    private static final ConcurrentMap<String, ConfigSource> sourceByLocation = new ConcurrentHashMap<String, ConfigSource>();
+    
+    /**
+     * The content last read from the locations of sources with a latency budget
+     */
+    private static final ConcurrentMap<String, byte[]> lastContent = new ConcurrentHashMap<String, byte[]>();
+    
+    private static final Comparator<ConfigSource> BY_PRIORITY = new Comparator<ConfigSource>() {
+        public int compare(ConfigSource first, ConfigSource second) {
+            return Integer.compare(second.getPriority(), first.getPriority());
+        }
+    };
+    
+    private static final ConfigHelper configHelper = new ConfigHelper("config-bootstrapper");
+    
+    static {
+        register(new FileConfigSource());
+        register(new ClasspathConfigSource());
+        register(HttpConfigSource.getInstance());
+        register(new DirectoryConfigSource());
+        register(new GzipConfigSource());
+        discover(ConfigSources.class.getClassLoader());
+    }
+    
+    private ConfigSources() {
+    }
+    
+    /**
+     * Registers a source.
+     * @param source the source to register
+     */
+    public static synchronized void register(ConfigSource source) {
+        List<ConfigSource> registered = new ArrayList<ConfigSource>(sources);
+        registered.add(0, source);
+        // The sort is stable, so a later source stays ahead of earlier sources with the same priority
+        Collections.sort(registered, BY_PRIORITY);
+        sources.clear();
+        sources.addAll(registered);
+        sourceByLocation.clear();
+    }
+    
+    /**
+     * Unregisters a source and forgets the content it has read.
+     * @param source a registered source
+     */
+    public static synchronized void unregister(ConfigSource source) {
+        for (Iterator<String> locations = lastContent.keySet().iterator(); locations.hasNext();) {
+            if (find(locations.next(), null) == source) {
+                locations.remove();
+            }
+        }
+        sources.remove(source);
+        sourceByLocation.clear();
+    }
+    
+    /**
+     * Forgets what is kept for a location that is no longer used and releases it in its source, 
+     * see {@link ConfigSource#release(String)}.
+     * @param location an application configuration location
+     */
+    static void release(String location) {
+        lastContent.remove(location);
+        ConfigSource source = find(location);
+        sourceByLocation.remove(location);
+        if (source != null) {
+            source.release(location);
+        }
+    }
+    
+    /**
+     * Registers the sources that are listed in <tt>META-INF/services/com.chilmers.configbootstrapper.ConfigSource</tt> 
+     * in the given class loader, unless a source of the same class is already registered.
+     * @param classLoader the class loader to look in
+     * @return the sources that were registered, to be unregistered when the class loader is no longer used
+     */
+    public static synchronized List<ConfigSource> discover(ClassLoader classLoader) {
+        List<ConfigSource> registered = new ArrayList<ConfigSource>();
+        Iterator<ConfigSource> discovered = ServiceLoader.load(ConfigSource.class, classLoader).iterator();
+        while (true) {
+            try {
+                if (!discovered.hasNext()) {
+                    break;
+                }
+                ConfigSource source = discovered.next();
+                if (!isRegistered(source.getClass())) {
+                    register(source);
+                    registered.add(source);
+                    configHelper.logToSystemOut("Discovered configuration source " + source.getClass().getName());
+                }
+            } catch (ServiceConfigurationError e) {
+                configHelper.logToSystemOut("WARNING! Could not load a configuration source.\n"
+                        + "Exception:" + e.getClass().toString() + "\n"
+                        + "Message:" + e.getMessage());
+            }
+        }
+        return registered;
+    }
+    
+    private static boolean isRegistered(Class<?> sourceClass) {
+        for (ConfigSource source : sources) {
+            if (source.getClass() == sourceClass) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param location an application configuration location
+     * @return the source that reads the given location or null if no source supports it
+     */
+    static ConfigSource find(String location) {
+        ConfigSource source = sourceByLocation.get(location);
+        if (source == null) {
+            source = find(location, null);
+            if (source != null) {
+                sourceByLocation.put(location, source);
+            }
+        }
+        return source;
+    }
+    
+    /**
+     * @param skip a source not to return, i.e. a source that delegates to another source
+     * @return the source with the highest priority that supports the given location, or null
+     */
+    static synchronized ConfigSource find(String location, ConfigSource skip) {
+        for (ConfigSource source : sources) {
+            if (source != skip && source.supports(location)) {
+                return source;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Opens the given location with the given source, within the latency budget of the source.
+     * @param helper used for logging
+     */
+    static InputStream open(final String location, final ConfigSource source, ConfigHelper helper) 
+            throws ConfigLoadException, IOException {
+        long budget = source.getTimeoutMillis(location);
+        if (budget <= 0) {
+            return source.open(location);
+        }
+        FutureTask<byte[]> read = new FutureTask<byte[]>(() -> {
+            InputStream is = source.open(location);
+            try {
+                return readFully(is);
+            } finally {
+                is.close();
+            }
+        });
+        ConfigSnapshotCache.getInstance().getExecutor().execute(read);
+        try {
+            byte[] content = read.get(budget, TimeUnit.MILLISECONDS);
+            lastContent.put(location, content);
+            return new ByteArrayInputStream(content);
+        } catch (TimeoutException e) {
+            read.cancel(true);
+            byte[] content = lastContent.get(location);
+            if (content == null) {
+                throw new ConfigLoadException(location, ConfigLoadException.Reason.READ_FAILED, 
+                        "Reading took longer than " + budget + " ms", e);
+            }
+            helper.logToSystemOut("WARNING! Reading " + location + " took longer than " + budget 
+                    + " ms, using the content that was read last time.");
+            return new ByteArrayInputStream(content);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ConfigLoadException) {
+                throw (ConfigLoadException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            read.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + location);
+        }
+    }
+    
+    static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return content.toByteArray();
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.time.Duration;
+
+/**
+ * The entries of a {@link ConfigSnapshot} whose keys start with a common prefix, keyed without that prefix.<br/>
+ * A subset is a range in the snapshot's key ordered index, nothing is copied. Lookups are binary searches 
+ * within that range and, like the snapshot's, do not allocate.<br/>
+ * The entries can be iterated in key order:
+ * <pre>
+ * ConfigSubset db = snapshot.subset("db.");
+ * for (int i = 0; i &lt; db.size(); i++) {
+ *     pool.set(db.getKey(i), db.getValue(i));
+ * }
+ * </pre>
+ * 
+ * @see ConfigView#subset(String)
+ */
+public final class ConfigSubset implements ConfigView {
+
+    private final ConfigSnapshot snapshot;
+    
+    private final String prefix;
+    
+    private final int[] sortedSlots;
+    
+    private final int from;
+    
+    private final int to;
+    
+    ConfigSubset(ConfigSnapshot snapshot, String prefix, int[] sortedSlots, int from, int to) {
+        this.snapshot = snapshot;
+        this.prefix = prefix;
+        this.sortedSlots = sortedSlots;
+        this.from = from;
+        this.to = to;
+    }
+    
+    /**
+     * @return the snapshot slot of the given key without prefix or -1 if there is no such entry
+     */
+    private int indexOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        int offset = prefix.length();
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            String candidate = snapshot.getKey(sortedSlots[middle]);
+            int comparison = compareSuffix(candidate, offset, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return sortedSlots[middle];
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Compares the part of the candidate after offset with the key, consistent with String#compareTo
+     */
+    private static int compareSuffix(String candidate, int offset, String key) {
+        int candidateLength = candidate.length() - offset;
+        int length = Math.min(candidateLength, key.length());
+        for (int i = 0; i < length; i++) {
+            int difference = candidate.charAt(offset + i) - key.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return candidateLength - key.length();
+    }
+    
+    public String getString(String key) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        snapshot.recordAccess(slot);
+        return snapshot.getValue(slot);
+    }
+    
+    public String getString(String key, String defaultValue) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return defaultValue;
+        }
+        snapshot.recordAccess(slot);
+        return snapshot.getValue(slot);
+    }
+    
+    public char[] getSecret(String key) {
+        return snapshot.getSecret(indexOf(key));
+    }
+    
+    public int getInt(String key, int defaultValue) {
+        return snapshot.getInt(indexOf(key), defaultValue);
+    }
+    
+    public long getLong(String key, long defaultValue) {
+        return snapshot.getLong(indexOf(key), defaultValue);
+    }
+    
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return snapshot.getBoolean(indexOf(key), defaultValue);
+    }
+    
+    public Duration getDuration(String key, Duration defaultValue) {
+        return snapshot.getDuration(indexOf(key), defaultValue);
+    }
+    
+    public boolean containsKey(String key) {
+        int slot = indexOf(key);
+        snapshot.recordAccess(slot);
+        return slot >= 0;
+    }
+    
+    public int size() {
+        return to - from;
+    }
+    
+    public ConfigSubset subset(String prefix) {
+        return snapshot.subset(this.prefix + prefix);
+    }
+    
+    /**
+     * @param index an index between 0 (inclusive) and {@link #size()} (exclusive)
+     * @return the key at the given index in key order, without the prefix
+     */
+    public String getKey(int index) {
+        return snapshot.getKey(slot(index)).substring(prefix.length());
+    }
+    
+    /**
+     * @param index an index between 0 (inclusive) and {@link #size()} (exclusive)
+     * @return the value at the given index in key order
+     */
+    public String getValue(int index) {
+        return snapshot.getValue(slot(index));
+    }
+    
+    private int slot(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return sortedSlots[from + index];
+    }
+    
+    /**
+     * @return the prefix of the keys in this subset
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+    
+    /**
+     * @return the snapshot this is a subset of
+     */
+    public ConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+/**
+ * Takes part in reloading the configuration behind a {@link ConfigReference}.<br/>
+ * A reloaded snapshot is validated by all validators before it replaces the current one, and it is only 
+ * published if all of them accept it. Otherwise the current snapshot is kept as the last known good 
+ * configuration and the reload is counted as failed.<br/>
+ * <br/>
+ * Besides checking the snapshot, a validator can prepare whatever depends on it, e.g. parse a file named in it, 
+ * and return the work that applies the prepared result. That work is run once the snapshot has been published, 
+ * so the configuration and what depends on it are changed together or not at all.
+ * 
+ * @see ConfigReference#addValidator(ConfigValidator)
+ */
+public interface ConfigValidator {
+
+    /**
+     * Called on the thread that reloaded the configuration, before the new snapshot is published.
+     * Must not change any state that is visible before the returned work is run.
+     * @param snapshot the new snapshot
+     * @return the work to run once the snapshot has been published, or null
+     * @throws Exception if the snapshot must not be published
+     */
+    Runnable validate(ConfigSnapshot snapshot) throws Exception;
+    
+}
@@ -0,0 +1,116 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.time.Duration;
+
+/**
+ * Read access to a parsed application configuration.<br/>
+ * <br/>
+ * The typed getters never throw for missing or unparsable entries, they return the given default value instead.
+ * Values are parsed once when the configuration is loaded, so a typed lookup costs the same as a 
+ * String lookup and does not allocate or box.<br/>
+ * <br/>
+ * Supported formats:
+ * <ul>
+ *  <li><strong>int/long</strong> - decimal numbers, e.g. <tt>42</tt> or <tt>-1</tt></li>
+ *  <li><strong>boolean</strong> - <tt>true/false</tt>, <tt>yes/no</tt> or <tt>on/off</tt>, ignoring case</li>
+ *  <li><strong>Duration</strong> - ISO-8601, e.g. <tt>PT30S</tt>, a number followed by one of the units
+ *      <tt>ns, us, ms, s, m, h, d</tt>, e.g. <tt>500ms</tt> or <tt>5m</tt>, 
+ *      or a plain number which is interpreted as milliseconds</li>
+ * </ul>
+ * 
+ * @see ConfigHelper#getApplicationConfigView(String)
+ */
+public interface ConfigView {
+
+    /**
+     * @param key the configuration key
+     * @return the value for the given key or null if there is no such entry
+     */
+    String getString(String key);
+    
+    /**
+     * @param key the configuration key
+     * @param defaultValue the value to return if there is no such entry
+     * @return the value for the given key or the default value if there is no such entry
+     */
+    String getString(String key, String defaultValue);
+    
+    /**
+     * Returns the value of an entry that may be encrypted, i.e. written as <tt>ENC(...)</tt>, 
+     * see {@link ConfigSecrets}. The String getters return encrypted values as written.<br/>
+     * An encrypted value is decrypted on first access and kept until the configuration is replaced by a 
+     * reloaded one, when the kept value is zeroed.
+     * @param key the configuration key
+     * @return a copy of the decrypted value, which the caller may zero after use, or the value as is if it is 
+     * not encrypted, or null if there is no such entry
+     * @throws IllegalStateException if the value can't be decrypted, e.g. if there is no key
+     */
+    char[] getSecret(String key);
+    
+    /**
+     * @param key the configuration key
+     * @param defaultValue the value to return if there is no such entry or if it is not an int
+     * @return the value for the given key or the default value
+     */
+    int getInt(String key, int defaultValue);
+    
+    /**
+     * @param key the configuration key
+     * @param defaultValue the value to return if there is no such entry or if it is not a long
+     * @return the value for the given key or the default value
+     */
+    long getLong(String key, long defaultValue);
+    
+    /**
+     * @param key the configuration key
+     * @param defaultValue the value to return if there is no such entry or if it is not a boolean
+     * @return the value for the given key or the default value
+     */
+    boolean getBoolean(String key, boolean defaultValue);
+    
+    /**
+     * @param key the configuration key
+     * @param defaultValue the value to return if there is no such entry or if it is not a duration
+     * @return the value for the given key or the default value
+     */
+    Duration getDuration(String key, Duration defaultValue);
+    
+    /**
+     * @param key the configuration key
+     * @return true if there is an entry for the given key
+     */
+    boolean containsKey(String key);
+    
+    /**
+     * @return the number of entries
+     */
+    int size();
+    
+    /**
+     * A view of the entries whose keys start with the given prefix, e.g. <tt>subset("db.")</tt> 
+     * gives access to <tt>db.url</tt> as <tt>url</tt>. The entries are not copied.
+     * @param prefix the key prefix, an empty prefix gives a view of all entries
+     * @return a view of the matching entries, keyed without the prefix
+     */
+    ConfigSubset subset(String prefix);
+    
+}
@@ -0,0 +1,271 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads dir: locations, i.e. a directory of configuration fragments such as <tt>dir:/etc/myapp/conf.d</tt>.<br/>
+ * <br/>
+ * All <tt>*.properties</tt> files in the directory are merged into one configuration in the order of their names, 
+ * so an entry in <tt>20-team-b.properties</tt> overrides the same entry in <tt>10-team-a.properties</tt>. 
+ * References (<tt>${...}</tt>) are resolved after merging, so a fragment may refer to entries of other fragments.<br/>
+ * <br/>
+ * The fragments are parsed in parallel on the executor of the {@link ConfigSnapshotCache}. 
+ * The parsed entries of each fragment are kept, so when the directory is read again only the fragments 
+ * that were added or changed since (by last modified time or size) are parsed.
+ */
+final class DirectoryConfigSource implements ConfigSource {
+
+    static final String PREFIX = "dir:";
+    
+    private static final String FRAGMENT_SUFFIX = ".properties";
+    
+    private static final FileFilter FRAGMENTS = new FileFilter() {
+        public boolean accept(File file) {
+            return file.getName().endsWith(FRAGMENT_SUFFIX) && file.isFile();
+        }
+    };
+    
+    private static final Comparator<File> BY_NAME = new Comparator<File>() {
+        public int compare(File first, File second) {
+            return first.getName().compareTo(second.getName());
+        }
+    };
+    
+    private final ConcurrentMap<String, Map<String, Fragment>> fragmentsByLocation = 
+            new ConcurrentHashMap<String, Map<String, Fragment>>();
+    
+    public boolean supports(String location) {
+        return location.startsWith(PREFIX);
+    }
+    
+    /**
+     * Concatenates the fragments in merge order, for readers of the plain content. 
+     * The configuration itself is read with {@link #load(String, ConfigSnapshot, ConfigHelper)}.
+     */
+    public InputStream open(String location) throws ConfigLoadException, IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (File file : listFragments(location)) {
+            InputStream is = new FileInputStream(file);
+            try {
+                content.write(ConfigSources.readFully(is));
+            } finally {
+                is.close();
+            }
+            content.write('\n');
+        }
+        return new ByteArrayInputStream(content.toByteArray());
+    }
+    
+    public long getVersion(String location) {
+        File[] files = toDirectory(location).listFiles(FRAGMENTS);
+        if (files == null) {
+            return 0;
+        }
+        // The order of listFiles is up to the file system, the version must not be
+        Arrays.sort(files, BY_NAME);
+        long version = files.length;
+        for (File file : files) {
+            version = version * 31 + file.getName().hashCode();
+            version = version * 31 + file.lastModified();
+            version = version * 31 + file.length();
+        }
+        return version;
+    }
+    
+    /**
+     * Reads the fragments that have changed since the location was last read and merges all fragments.
+     * @param previous the previously read configuration of the location, or null
+     * @param helper used for logging
+     * @return the merged configuration
+     */
+    public ConfigSnapshot load(String location, ConfigSnapshot previous, ConfigHelper helper) throws ConfigLoadException {
+        File[] files = listFragments(location);
+        Map<String, Fragment> cached = fragmentsByLocation.get(location);
+        Fragment[] fragments = new Fragment[files.length];
+        int changed = 0;
+        for (int i = 0; i < files.length; i++) {
+            Fragment fragment = cached == null ? null : cached.get(files[i].getName());
+            if (fragment != null && fragment.lastModified == files[i].lastModified() && fragment.length == files[i].length()) {
+                fragments[i] = fragment;
+            } else {
+                changed++;
+            }
+        }
+        if (changed > 0 || cached == null || cached.size() != files.length) {
+            helper.logToSystemOut("Reading " + changed + " of " + files.length + " configuration fragments in " + location);
+        }
+        readChanged(location, files, fragments, changed);
+        
+        Map<String, Fragment> current = new HashMap<String, Fragment>();
+        int count = 0;
+        long sourceBytes = 0;
+        for (int i = 0; i < files.length; i++) {
+            current.put(files[i].getName(), fragments[i]);
+            count += fragments[i].count;
+            sourceBytes += fragments[i].length;
+        }
+        String[] keys = new String[count];
+        String[] values = new String[count];
+        int offset = 0;
+        for (Fragment fragment : fragments) {
+            System.arraycopy(fragment.keys, 0, keys, offset, fragment.count);
+            System.arraycopy(fragment.values, 0, values, offset, fragment.count);
+            offset += fragment.count;
+        }
+        fragmentsByLocation.put(location, current);
+        return ConfigSnapshot.create(location, keys, values, count, sourceBytes, previous);
+    }
+    
+    /**
+     * Drops the parsed fragments of the location
+     */
+    public void release(String location) {
+        fragmentsByLocation.remove(location);
+    }
+    
+    /**
+     * Parses the fragments that are missing in the given array, in parallel if there are several
+     */
+    private void readChanged(String location, File[] files, Fragment[] fragments, int changed) throws ConfigLoadException {
+        if (changed == 0) {
+            return;
+        }
+        if (changed == 1) {
+            for (int i = 0; i < files.length; i++) {
+                if (fragments[i] == null) {
+                    fragments[i] = read(location, files[i]);
+                }
+            }
+            return;
+        }
+        // Indexed like the files, null for the fragments that are still current
+        List<CompletableFuture<Fragment>> reads = new ArrayList<CompletableFuture<Fragment>>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            if (fragments[i] == null) {
+                final File file = files[i];
+                reads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return read(location, file);
+                    } catch (ConfigLoadException e) {
+                        throw new CompletionException(e);
+                    }
+                }, ConfigSnapshotCache.getInstance().getExecutor()));
+            } else {
+                reads.add(null);
+            }
+        }
+        ConfigLoadException failure = null;
+        for (int i = 0; i < files.length; i++) {
+            CompletableFuture<Fragment> read = reads.get(i);
+            if (read != null) {
+                try {
+                    fragments[i] = read.join();
+                } catch (CompletionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof ConfigLoadException ? (ConfigLoadException) e.getCause() 
+                                : new ConfigLoadException(location, ConfigLoadException.Reason.READ_FAILED, 
+                                        e.getCause().getMessage(), e.getCause());
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    private static Fragment read(String location, File file) throws ConfigLoadException {
+        // Stamp before reading, so a change while reading is seen the next time
+        long lastModified = file.lastModified();
+        long length = file.length();
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                PropertiesParser parser = PropertiesParser.readEntries(PropertiesParser.read(is));
+                return new Fragment(lastModified, length, parser.getKeys(), parser.getValues(), parser.getCount());
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.READ_FAILED, 
+                    "Could not read " + file + ": " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.PARSE_FAILED, 
+                    "Could not parse " + file + ": " + e.getMessage(), e);
+        }
+    }
+    
+    private static File[] listFragments(String location) throws ConfigLoadException {
+        File directory = toDirectory(location);
+        File[] files = directory.listFiles(FRAGMENTS);
+        if (files == null) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.NOT_FOUND, 
+                    "There is no directory " + directory.getAbsolutePath(), null);
+        }
+        Arrays.sort(files, BY_NAME);
+        return files;
+    }
+    
+    private static File toDirectory(String location) {
+        return new File(location.substring(PREFIX.length()));
+    }
+    
+    /**
+     * The parsed entries of a fragment, in the order they were read
+     */
+    private static final class Fragment {
+        
+        final long lastModified;
+        
+        final long length;
+        
+        final String[] keys;
+        
+        final String[] values;
+        
+        final int count;
+        
+        Fragment(long lastModified, long length, String[] keys, String[] values, int count) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.keys = keys;
+            this.values = values;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The feature flags of one snapshot, compiled into parallel arrays ordered by flag name.<br/>
+ * A table is compiled once per snapshot, see {@link ConfigSnapshot#getFeatureFlagTable()}, 
+ * evaluating a flag is a few array reads, at most one binary search in the allow-list and an integer hash, 
+ * without any allocation.
+ * 
+ * @see FeatureFlags
+ */
+final class FeatureFlagTable {
+
+    static final String PREFIX = "feature.";
+    
+    static final String ALLOW_SUFFIX = ".allow";
+    
+    /**
+     * The number of buckets ids are hashed into, a rollout of 0.01% enables one bucket
+     */
+    static final int BUCKETS = 10000;
+    
+    static final FeatureFlagTable EMPTY = new FeatureFlagTable(new String[0], new int[0], new int[0], 
+            new String[0][], new long[0][]);
+    
+    private static final ConfigHelper configHelper = new ConfigHelper("config-bootstrapper");
+    
+    private final String[] names;
+    
+    /**
+     * The number of enabled buckets of each flag, 0 if it is off and {@link #BUCKETS} if it is on for everyone
+     */
+    private final int[] thresholds;
+    
+    private final int[] seeds;
+    
+    /**
+     * The sorted allow-list of each flag, null if it has none
+     */
+    private final String[][] allowLists;
+    
+    /**
+     * The entries of each allow-list that are numbers, sorted, for {@link #isEnabled(int, long)}
+     */
+    private final long[][] numericAllowLists;
+    
+    private FeatureFlagTable(String[] names, int[] thresholds, int[] seeds, String[][] allowLists, 
+            long[][] numericAllowLists) {
+        this.names = names;
+        this.thresholds = thresholds;
+        this.seeds = seeds;
+        this.allowLists = allowLists;
+        this.numericAllowLists = numericAllowLists;
+    }
+    
+    /**
+     * Compiles the feature.* entries of a snapshot.
+     * <tt>feature.&lt;name&gt;</tt> is on, off (also true/false, yes/no) or a share of the ids in percent, e.g. 
+     * <tt>12.5%</tt>. <tt>feature.&lt;name&gt;.allow</tt> is a comma separated list of ids the flag is always 
+     * enabled for. An invalid value is logged and turns the flag off.
+     */
+    static FeatureFlagTable compile(ConfigSnapshot snapshot) {
+        ConfigSubset features = snapshot.subset(PREFIX);
+        if (features.size() == 0) {
+            return EMPTY;
+        }
+        TreeMap<String, String[]> flags = new TreeMap<String, String[]>();
+        for (int i = 0; i < features.size(); i++) {
+            String key = features.getKey(i);
+            boolean allowList = key.endsWith(ALLOW_SUFFIX);
+            String name = allowList ? key.substring(0, key.length() - ALLOW_SUFFIX.length()) : key;
+            if (name.length() == 0) {
+                continue;
+            }
+            String[] values = flags.get(name);
+            if (values == null) {
+                values = new String[2];
+                flags.put(name, values);
+            }
+            values[allowList ? 1 : 0] = features.getValue(i);
+        }
+        int count = flags.size();
+        String[] names = flags.keySet().toArray(new String[count]);
+        int[] thresholds = new int[count];
+        int[] seeds = new int[count];
+        String[][] allowLists = new String[count][];
+        long[][] numericAllowLists = new long[count][];
+        for (int i = 0; i < count; i++) {
+            String[] values = flags.get(names[i]);
+            thresholds[i] = parseThreshold(names[i], values[0]);
+            seeds[i] = mix(names[i].hashCode());
+            if (values[1] != null) {
+                allowLists[i] = parseAllowList(values[1]);
+                numericAllowLists[i] = parseNumericAllowList(allowLists[i]);
+            }
+        }
+        return new FeatureFlagTable(names, thresholds, seeds, allowLists, numericAllowLists);
+    }
+    
+    private static int parseThreshold(String name, String value) {
+        if (value == null) {
+            return 0;
+        }
+        String trimmed = value.trim();
+        if (trimmed.endsWith("%")) {
+            try {
+                double percent = Double.parseDouble(trimmed.substring(0, trimmed.length() - 1).trim());
+                if (percent >= 0 && percent <= 100) {
+                    return (int) Math.round(percent * BUCKETS / 100);
+                }
+            } catch (NumberFormatException e) {
+                // Logged below
+            }
+        } else {
+            Boolean on = ValueParser.parseBoolean(trimmed);
+            if (on != null) {
+                return on.booleanValue() ? BUCKETS : 0;
+            }
+        }
+        configHelper.logToSystemOut("WARNING! Invalid value for feature flag " + name + ": " + value 
+                + ", expected on, off or a percentage between 0% and 100%. The flag is off.");
+        return 0;
+    }
+    
+    private static String[] parseAllowList(String value) {
+        List<String> ids = new ArrayList<String>();
+        for (String id : value.split(",")) {
+            if (id.trim().length() > 0) {
+                ids.add(id.trim());
+            }
+        }
+        String[] allowList = ids.toArray(new String[ids.size()]);
+        Arrays.sort(allowList);
+        return allowList;
+    }
+    
+    private static long[] parseNumericAllowList(String[] allowList) {
+        long[] numbers = new long[allowList.length];
+        int count = 0;
+        for (String id : allowList) {
+            Long number = ValueParser.parseLong(id);
+            if (number != null && number.toString().equals(id)) {
+                numbers[count++] = number.longValue();
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+    
+    /**
+     * @return the index of the flag, or a negative number if the snapshot has no such flag
+     */
+    int indexOf(String name) {
+        return Arrays.binarySearch(names, name);
+    }
+    
+    int size() {
+        return names.length;
+    }
+    
+    String getName(int index) {
+        return names[index];
+    }
+    
+    /**
+     * @return true if the flag is on for everyone
+     */
+    boolean isEnabled(int index) {
+        return index >= 0 && thresholds[index] >= BUCKETS;
+    }
+    
+    boolean isEnabled(int index, String id) {
+        if (index < 0) {
+            return false;
+        }
+        int threshold = thresholds[index];
+        if (threshold >= BUCKETS) {
+            return true;
+        }
+        if (id == null) {
+            return false;
+        }
+        String[] allowList = allowLists[index];
+        if (allowList != null && Arrays.binarySearch(allowList, id) >= 0) {
+            return true;
+        }
+        return threshold > 0 && bucket(seeds[index], id.hashCode()) < threshold;
+    }
+    
+    /**
+     * Same as {@link #isEnabled(int, String)} for the decimal representation of the id, without creating it
+     */
+    boolean isEnabled(int index, long id) {
+        if (index < 0) {
+            return false;
+        }
+        int threshold = thresholds[index];
+        if (threshold >= BUCKETS) {
+            return true;
+        }
+        long[] allowList = numericAllowLists[index];
+        if (allowList != null && Arrays.binarySearch(allowList, id) >= 0) {
+            return true;
+        }
+        return threshold > 0 && bucket(seeds[index], decimalHashCode(id)) < threshold;
+    }
+    
+    /**
+     * The bucket of an id, independent for each flag since the seed is derived from the flag name.
+     * Raising the share of a flag keeps it enabled for the ids it was enabled for.
+     */
+    static int bucket(int seed, int idHash) {
+        return (mix(seed ^ idHash) & 0x7fffffff) % BUCKETS;
+    }
+    
+    /**
+     * The finalization step of MurmurHash3, spreads the bits of String#hashCode over the whole int
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+    
+    /**
+     * @return the same as <tt>Long.toString(value).hashCode()</tt>
+     */
+    static int decimalHashCode(long value) {
+        int hash = 0;
+        if (value < 0) {
+            hash = '-';
+        } else {
+            // Count in negative numbers, which also covers Long.MIN_VALUE
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor <= -10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + ('0' - (int) ((value / divisor) % 10));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feature flags declared in the configuration behind a {@link ConfigReference}, under keys starting 
+ * with <tt>feature.</tt>:
+ *<pre>
+ *# On or off for everyone
+ *feature.newCheckout=on
+ *# On for a share of the ids, the same ids stay enabled when the share is raised
+ *feature.searchV2=12.5%
+ *# Always on for some ids, whatever the share
+ *feature.searchV2.allow=alice,bob,42
+ *</pre>
+ * The flags are compiled once per snapshot into a flat table. Resolve a flag once into a {@link Flag} handle 
+ * and keep it, e.g. in a static field:
+ *<pre>
+ *private static final FeatureFlags.Flag SEARCH_V2 = 
+ *      ConfigHelper.readApplicationConfigReference().getFeatureFlags().flag("searchV2");
+ *...
+ *if (SEARCH_V2.isEnabled(userId)) {
+ *</pre>
+ * Evaluating a handle does not allocate or lock, handles see the flags of reloaded configurations. 
+ * The result for an id only depends on the flag name, the id and the configured share, so it is the same on 
+ * every node and after restarts, and a numeric id gives the same result as its decimal representation.<br/>
+ * <br/>
+ * Each flag counts its evaluations and how many of them were enabled, in striped counters that don't 
+ * contend under concurrent evaluation.
+ * 
+ * @see ConfigReference#getFeatureFlags()
+ */
+public final class FeatureFlags {
+
+    private final ConfigReference reference;
+    
+    private final ConcurrentMap<String, Flag> flags = new ConcurrentHashMap<String, Flag>();
+    
+    FeatureFlags(ConfigReference reference) {
+        this.reference = reference;
+    }
+    
+    /**
+     * @param name the name of the flag, without the feature. prefix
+     * @return the handle of the flag, the same instance for every call with the same name
+     */
+    public Flag flag(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("The flag name must not be null");
+        }
+        Flag flag = flags.get(name);
+        if (flag == null) {
+            Flag created = new Flag(this, name);
+            flag = flags.putIfAbsent(name, created);
+            if (flag == null) {
+                flag = created;
+            }
+        }
+        return flag;
+    }
+    
+    /**
+     * Short hand for <tt>flag(name).isEnabled(id)</tt>, prefer keeping the handle on hot paths
+     */
+    public boolean isEnabled(String name, String id) {
+        return flag(name).isEnabled(id);
+    }
+    
+    /**
+     * Short hand for <tt>flag(name).isEnabled(id)</tt>, prefer keeping the handle on hot paths
+     */
+    public boolean isEnabled(String name, long id) {
+        return flag(name).isEnabled(id);
+    }
+    
+    /**
+     * @return the names of the flags in the current configuration, in name order
+     */
+    public List<String> getFlagNames() {
+        FeatureFlagTable table = getTable();
+        List<String> names = new ArrayList<String>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            names.add(table.getName(i));
+        }
+        return names;
+    }
+    
+    /**
+     * @return the handles that have been created, e.g. to report their counters
+     */
+    public List<Flag> getFlags() {
+        return new ArrayList<Flag>(flags.values());
+    }
+    
+    FeatureFlagTable getTable() {
+        ConfigSnapshot snapshot = reference.getSnapshot();
+        return snapshot == null ? FeatureFlagTable.EMPTY : snapshot.getFeatureFlagTable();
+    }
+    
+    /**
+     * A flag resolved by name. The position of the flag in the table of the current snapshot 
+     * is looked up again only when the snapshot has changed.
+     */
+    public static final class Flag {
+        
+        private final FeatureFlags flags;
+        
+        private final String name;
+        
+        private final LongAdder evaluationCount = new LongAdder();
+        
+        private final LongAdder enabledCount = new LongAdder();
+        
+        private volatile Resolution resolution = new Resolution(null, -1);
+        
+        private Flag(FeatureFlags flags, String name) {
+            this.flags = flags;
+            this.name = name;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return true if the flag is on for everyone
+         */
+        public boolean isEnabled() {
+            Resolution current = resolve();
+            return count(current.table.isEnabled(current.index));
+        }
+        
+        /**
+         * @param id identifies who the flag is evaluated for, e.g. a user id, null for nobody in particular
+         * @return true if the flag is on for everyone, or on for the id through the allow-list or the share
+         */
+        public boolean isEnabled(String id) {
+            Resolution current = resolve();
+            return count(current.table.isEnabled(current.index, id));
+        }
+        
+        /**
+         * Same as {@link #isEnabled(String)} with the decimal representation of the id
+         */
+        public boolean isEnabled(long id) {
+            Resolution current = resolve();
+            return count(current.table.isEnabled(current.index, id));
+        }
+        
+        /**
+         * @return the number of times this flag has been evaluated
+         */
+        public long getEvaluationCount() {
+            return evaluationCount.sum();
+        }
+        
+        /**
+         * @return the number of evaluations that returned true
+         */
+        public long getEnabledCount() {
+            return enabledCount.sum();
+        }
+        
+        private boolean count(boolean enabled) {
+            evaluationCount.increment();
+            if (enabled) {
+                enabledCount.increment();
+            }
+            return enabled;
+        }
+        
+        private Resolution resolve() {
+            FeatureFlagTable table = flags.getTable();
+            Resolution current = resolution;
+            if (current.table != table) {
+                current = new Resolution(table, table.indexOf(name));
+                resolution = current;
+            }
+            return current;
+        }
+        
+        @Override
+        public String toString() {
+            return "Flag[" + name + ", evaluations=" + getEvaluationCount() + ", enabled=" + getEnabledCount() + "]";
+        }
+    }
+    
+    /**
+     * The table of a snapshot together with the index of a flag in it
+     */
+    private static final class Resolution {
+        
+        final FeatureFlagTable table;
+        
+        final int index;
+        
+        Resolution(FeatureFlagTable table, int index) {
+            this.table = table;
+            this.index = index;
+        }
+    }
+}
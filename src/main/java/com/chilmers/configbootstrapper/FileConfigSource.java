@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads file: locations, e.g. <tt>file:/etc/myapp/application.properties</tt>
+ */
+final class FileConfigSource implements ConfigSource {
+
+    static final String PREFIX = "file:";
+    
+    public boolean supports(String location) {
+        return location.startsWith(PREFIX);
+    }
+    
+    public InputStream open(String location) throws ConfigLoadException, IOException {
+        File file = toFile(location);
+        if (!file.isFile()) {
+            throw new ConfigLoadException(location, ConfigLoadException.Reason.NOT_FOUND, 
+                    "There is no file " + file.getAbsolutePath(), null);
+        }
+        return new FileInputStream(file);
+    }
+    
+    public long getVersion(String location) {
+        File file = toFile(location);
+        return file.lastModified() * 31 + file.length();
+    }
+    
+    /**
+     * @param location a file: location or a plain path
+     * @return the file of the location
+     */
+    static File toFile(String location) {
+        return new File(location.startsWith(PREFIX) ? location.substring(PREFIX.length()) : location);
+    }
+}
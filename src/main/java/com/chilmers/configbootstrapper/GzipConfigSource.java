@@ -0,0 +1,71 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads gzip compressed configurations, i.e. locations ending with .gz such as 
+ * <tt>file:/etc/myapp/application.properties.gz</tt> or <tt>classpath:application.properties.gz</tt>.<br/>
+ * The compressed content is read by the source that supports the location without the decompression.
+ */
+final class GzipConfigSource implements ConfigSource {
+
+    static final String SUFFIX = ".gz";
+    
+    public boolean supports(String location) {
+        return location.endsWith(SUFFIX) && getDelegate(location) != null;
+    }
+    
+    public InputStream open(String location) throws ConfigLoadException, IOException {
+        InputStream compressed = getDelegate(location).open(location);
+        try {
+            return new GZIPInputStream(compressed);
+        } catch (IOException e) {
+            compressed.close();
+            throw e;
+        }
+    }
+    
+    public long getVersion(String location) {
+        return getDelegate(location).getVersion(location);
+    }
+    
+    public int getPriority() {
+        return 100;
+    }
+    
+    public long getTimeoutMillis(String location) {
+        return getDelegate(location).getTimeoutMillis(location);
+    }
+    
+    public void release(String location) {
+        ConfigSource delegate = getDelegate(location);
+        if (delegate != null) {
+            delegate.release(location);
+        }
+    }
+    
+    private ConfigSource getDelegate(String location) {
+        return ConfigSources.find(location, this);
+    }
+}
@@ -0,0 +1,537 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Reads application configurations from a configuration server, i.e. from http: and https: locations.<br/>
+ * <br/>
+ * Every configuration that has been read is kept as a last known good copy in a local cache directory, 
+ * together with its ETag and Last-Modified headers. 
+ * When a configuration is first opened and a cached copy exists, the cached copy is used right away and 
+ * the server is asked for changes in the background, so starting an application does not wait for the network.
+ * Only when there is no cached copy the server is asked directly.<br/>
+ * <br/>
+ * Once opened, a configuration is refreshed in the background with conditional requests 
+ * (If-None-Match and If-Modified-Since), so an unchanged configuration is not transferred again. 
+ * When it has changed, it is reloaded in the {@link ConfigSnapshotCache}, which notifies the 
+ * {@link ConfigChangeListener}s. If the server cannot be reached, the last known good configuration is kept.<br/>
+ * <br/>
+ * The cache directory and the files in it are only accessible by the user running the JVM, since the configurations 
+ * may hold secrets. A cache directory owned by another user is not used, nor are cached files owned by another user, 
+ * so a copy planted by another user of a shared directory is never served.<br/>
+ * <br/>
+ * The cache directory defaults to <tt>config-bootstrapper</tt> in java.io.tmpdir, the refresh interval to 
+ * 30000 milliseconds and the latency budget of a request to 10000 milliseconds, they can be changed with the system properties
+ * <pre>-Dconfig.bootstrapper.http.cache.dir=/var/cache/myapp -Dconfig.bootstrapper.http.refresh.interval=60000 
+ *-Dconfig.bootstrapper.http.timeout=2000</pre>
+ * A refresh interval of 0 turns the background refresh off.<br/>
+ * <br/>
+ * The refresh of a location stops when it is released, i.e. when the last application using it has been stopped, 
+ * and the refresh thread stops when no location is refreshed.
+ */
+public final class HttpConfigSource implements ConfigSource {
+
+    /**
+     * Name of the system property that sets the directory of the last known good configurations
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY_KEY = "config.bootstrapper.http.cache.dir";
+    
+    /**
+     * Name of the system property that sets the background refresh interval in milliseconds
+     */
+    public static final String REFRESH_INTERVAL_PROPERTY_KEY = "config.bootstrapper.http.refresh.interval";
+    
+    private static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 30000;
+    
+    /**
+     * Name of the system property that sets the latency budget in milliseconds for reading a configuration, 
+     * see {@link ConfigSource#getTimeoutMillis(String)}
+     */
+    public static final String TIMEOUT_PROPERTY_KEY = "config.bootstrapper.http.timeout";
+    
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private static final String ETAG = "etag";
+    
+    private static final String LAST_MODIFIED = "lastModified";
+    
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+    
+    private static final HttpConfigSource INSTANCE = new HttpConfigSource(getDefaultCacheDirectory(), 
+            getLongProperty(REFRESH_INTERVAL_PROPERTY_KEY, DEFAULT_REFRESH_INTERVAL_MILLIS), 
+            getLongProperty(TIMEOUT_PROPERTY_KEY, DEFAULT_TIMEOUT_MILLIS));
+    
+    private final ConcurrentMap<String, Remote> remotes = new ConcurrentHashMap<String, Remote>();
+    
+    private final ConfigHelper configHelper = new ConfigHelper("config-bootstrapper");
+    
+    private final File cacheDirectory;
+    
+    private final long refreshIntervalMillis;
+    
+    private final long timeoutMillis;
+    
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * The owner of the cache directory once it has been checked, null if it has not been checked or can't be used
+     */
+    private UserPrincipal cacheOwner;
+    
+    private boolean cacheChecked;
+    
+    HttpConfigSource(File cacheDirectory, long refreshIntervalMillis, long timeoutMillis) {
+        this.cacheDirectory = cacheDirectory;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+    
+    /**
+     * @return the source that is registered by default in {@link ConfigSources}
+     */
+    public static HttpConfigSource getInstance() {
+        return INSTANCE;
+    }
+    
+    public boolean supports(String location) {
+        return location.startsWith("http:") || location.startsWith("https:");
+    }
+    
+    public InputStream open(String location) throws ConfigLoadException, IOException {
+        Remote remote = getRemote(location);
+        synchronized (remote) {
+            if (remote.content == null) {
+                if (readCache(remote)) {
+                    configHelper.logToSystemOut("Using the last known good configuration of " + location 
+                            + " from " + remote.cacheFile + " until the server has been asked for changes");
+                    schedule(remote, 0);
+                } else {
+                    fetch(remote);
+                    schedule(remote, refreshIntervalMillis);
+                }
+            }
+            return new ByteArrayInputStream(remote.content);
+        }
+    }
+    
+    public long getVersion(String location) {
+        Remote remote = remotes.get(location);
+        return remote == null ? 0 : remote.version;
+    }
+    
+    public long getTimeoutMillis(String location) {
+        return timeoutMillis;
+    }
+    
+    /**
+     * Asks the server whether the configuration at the given location has changed and reloads it if so.
+     * @return true if the configuration has changed
+     */
+    boolean refresh(String location) {
+        Remote remote = remotes.get(location);
+        if (remote == null) {
+            return false;
+        }
+        try {
+            boolean changed;
+            synchronized (remote) {
+                changed = fetch(remote);
+            }
+            // A released location is not read into the cache again
+            if (changed && remotes.get(location) == remote) {
+                configHelper.logToSystemOut("The application configuration has changed on the server, reloading " + location);
+                ConfigSnapshotCache.getInstance().reload(location);
+            }
+            return changed;
+        } catch (Exception e) {
+            configHelper.logToSystemOut("WARNING! Could not refresh the configuration at " + location 
+                    + ", keeping the last known good configuration.\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+            return false;
+        } finally {
+            configHelper.flushLog();
+        }
+    }
+    
+    /**
+     * Stops refreshing the configuration at the given location and forgets it.
+     * The last known good copy is kept in the cache directory.
+     */
+    public void release(String location) {
+        Remote remote = remotes.remove(location);
+        if (remote != null) {
+            synchronized (this) {
+                if (remote.refresh != null) {
+                    remote.refresh.cancel(false);
+                    remote.refresh = null;
+                }
+                if (remotes.isEmpty()) {
+                    stopScheduler();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Stops refreshing all configurations in the background and forgets them.
+     */
+    synchronized void close() {
+        remotes.clear();
+        stopScheduler();
+    }
+    
+    /**
+     * @return true if the background refresh thread is running
+     */
+    synchronized boolean isRefreshing() {
+        return scheduler != null;
+    }
+    
+    private synchronized void stopScheduler() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    private Remote getRemote(String location) {
+        Remote remote = remotes.get(location);
+        if (remote == null) {
+            // The cache file name includes the hash of the location, since URLs are not valid file names
+            File cacheFile = new File(cacheDirectory, 
+                    ConfigSnapshotStore.toHex(ConfigSnapshotStore.digest(location.getBytes(UTF_8)), 16) + ".properties");
+            Remote created = new Remote(location, cacheFile);
+            remote = remotes.putIfAbsent(location, created);
+            if (remote == null) {
+                remote = created;
+            }
+        }
+        return remote;
+    }
+    
+    /**
+     * Sends a conditional request for the configuration. Must be called holding the lock of the remote.
+     * @return true if the configuration has changed
+     */
+    private boolean fetch(Remote remote) throws ConfigLoadException, IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(remote.location).openConnection();
+        connection.setConnectTimeout((int) timeoutMillis);
+        connection.setReadTimeout((int) timeoutMillis);
+        connection.setUseCaches(false);
+        if (remote.content != null) {
+            if (remote.etag != null) {
+                connection.setRequestProperty("If-None-Match", remote.etag);
+            }
+            if (remote.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", remote.lastModified);
+            }
+        }
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return false;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                error.close();
+            }
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                throw new ConfigLoadException(remote.location, ConfigLoadException.Reason.NOT_FOUND, 
+                        "The server responded " + status + " for " + remote.location, null);
+            }
+            throw new IOException("The server responded " + status + " for " + remote.location);
+        }
+        InputStream is = connection.getInputStream();
+        byte[] content;
+        try {
+            content = ConfigSources.readFully(is);
+        } finally {
+            is.close();
+        }
+        remote.content = content;
+        remote.etag = connection.getHeaderField("ETag");
+        remote.lastModified = connection.getHeaderField("Last-Modified");
+        remote.version++;
+        writeCache(remote);
+        return true;
+    }
+    
+    private synchronized void schedule(final Remote remote, long delayMillis) {
+        // A remote released while it was opened is not refreshed
+        if (refreshIntervalMillis <= 0 || remote.refresh != null || remotes.get(remote.location) != remote) {
+            return;
+        }
+        remote.refresh = getScheduler().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh(remote.location);
+            }
+        }, delayMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "config-bootstrapper-http-refresh");
+                    thread.setDaemon(true);
+                    // Not the class loader of the application that happened to open the first location
+                    thread.setContextClassLoader(HttpConfigSource.class.getClassLoader());
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+    
+    /**
+     * Creates the cache directory accessible only by the user running the JVM, or checks that an existing one 
+     * is owned by that user and restricts its permissions. Done once, the result is kept.
+     * @return the owner of the cache directory, or null if it must not be used
+     */
+    private synchronized UserPrincipal getCacheOwner() {
+        if (cacheChecked) {
+            return cacheOwner;
+        }
+        cacheChecked = true;
+        Path directory = cacheDirectory.toPath();
+        boolean posix = isPosix(directory);
+        try {
+            if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+                if (posix) {
+                    Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+                } else {
+                    Files.createDirectories(directory);
+                }
+            }
+            if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IOException(directory + " is not a directory");
+            }
+            UserPrincipal owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS);
+            // A new file is owned by the user running the JVM, whatever its name is
+            Path probe = Files.createTempFile(directory, "owner", ".tmp", fileAttributes(posix));
+            UserPrincipal user;
+            try {
+                user = Files.getOwner(probe, LinkOption.NOFOLLOW_LINKS);
+            } finally {
+                Files.delete(probe);
+            }
+            if (!owner.equals(user)) {
+                throw new IOException(directory + " is owned by " + owner.getName() + " and not by " + user.getName());
+            }
+            if (posix && !OWNER_ONLY_DIRECTORY.containsAll(Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS))) {
+                Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY);
+            }
+            cacheOwner = owner;
+        } catch (IOException e) {
+            configHelper.logToSystemOut("WARNING! The last known good configurations will not be kept in " + cacheDirectory 
+                    + ", set " + CACHE_DIRECTORY_PROPERTY_KEY + " to a directory of your own.\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+        }
+        return cacheOwner;
+    }
+    
+    private boolean readCache(Remote remote) {
+        UserPrincipal owner = getCacheOwner();
+        if (owner == null || !isOwnedBy(remote.cacheFile, owner)) {
+            return false;
+        }
+        try {
+            InputStream is = new FileInputStream(remote.cacheFile);
+            try {
+                remote.content = ConfigSources.readFully(is);
+            } finally {
+                is.close();
+            }
+            Properties headers = new Properties();
+            File headersFile = getHeadersFile(remote);
+            if (isOwnedBy(headersFile, owner)) {
+                InputStream headersStream = new FileInputStream(headersFile);
+                try {
+                    headers.load(headersStream);
+                } finally {
+                    headersStream.close();
+                }
+            }
+            remote.etag = headers.getProperty(ETAG);
+            remote.lastModified = headers.getProperty(LAST_MODIFIED);
+            remote.version++;
+            return true;
+        } catch (IOException e) {
+            configHelper.logToSystemOut("WARNING! Could not read the last known good configuration " + remote.cacheFile + "\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+            remote.content = null;
+            return false;
+        }
+    }
+    
+    private void writeCache(Remote remote) {
+        if (getCacheOwner() == null) {
+            return;
+        }
+        try {
+            // The content is written before the headers, so stale headers only cost a full request
+            writeAtomically(remote.cacheFile, remote.content);
+            Properties headers = new Properties();
+            if (remote.etag != null) {
+                headers.setProperty(ETAG, remote.etag);
+            }
+            if (remote.lastModified != null) {
+                headers.setProperty(LAST_MODIFIED, remote.lastModified);
+            }
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            headers.store(encoded, remote.location);
+            writeAtomically(getHeadersFile(remote), encoded.toByteArray());
+        } catch (IOException e) {
+            configHelper.logToSystemOut("WARNING! Could not write the last known good configuration " + remote.cacheFile + "\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+        }
+    }
+    
+    private void writeAtomically(File file, byte[] content) throws IOException {
+        Path directory = cacheDirectory.toPath();
+        Path temporary = Files.createTempFile(directory, file.getName(), ".tmp", fileAttributes(isPosix(directory)));
+        try {
+            OutputStream os = Files.newOutputStream(temporary);
+            try {
+                os.write(content);
+            } finally {
+                os.close();
+            }
+            Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+    
+    /**
+     * @return true if the given file is a regular file owned by the given user
+     */
+    private static boolean isOwnedBy(File file, UserPrincipal owner) {
+        Path path = file.toPath();
+        try {
+            return Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) 
+                    && owner.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+    
+    private static FileAttribute<?>[] fileAttributes(boolean posix) {
+        return posix ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE)} 
+                : new FileAttribute<?>[0];
+    }
+    
+    private static File getHeadersFile(Remote remote) {
+        return new File(remote.cacheFile.getPath() + ".headers");
+    }
+    
+    private static File getDefaultCacheDirectory() {
+        String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY_KEY);
+        if (StringUtils.isBlank(directory)) {
+            return new File(System.getProperty("java.io.tmpdir"), "config-bootstrapper");
+        }
+        return new File(directory.trim());
+    }
+    
+    private static long getLongProperty(String key, long defaultValue) {
+        String value = System.getProperty(key);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                new ConfigHelper("config-bootstrapper").logToSystemOut("Invalid value for system property " 
+                        + key + ": " + value + ", using " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+    
+    /**
+     * A configuration on the server. The content and headers are guarded by the lock of the remote.
+     */
+    private static final class Remote {
+        
+        final String location;
+        
+        final File cacheFile;
+        
+        volatile byte[] content;
+        
+        String etag;
+        
+        String lastModified;
+        
+        volatile long version;
+        
+        /**
+         * The background refresh, guarded by the lock of the source
+         */
+        ScheduledFuture<?> refresh;
+        
+        Remote(String location, File cacheFile) {
+            this.location = location;
+            this.cacheFile = cacheFile;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Provides the key that encrypted configuration values, i.e. <tt>ENC(...)</tt> values, are decrypted with.
+ * 
+ * @see ConfigSecrets#setKeyProvider(KeyProvider)
+ * @see KeyStoreKeyProvider
+ */
+public interface KeyProvider {
+
+    /**
+     * Called when the first encrypted value of a configuration is read, the key is not kept by the caller.
+     * @return the AES key
+     * @throws GeneralSecurityException if the key can't be recovered
+     * @throws IOException if the key can't be read
+     */
+    SecretKey getKey() throws GeneralSecurityException, IOException;
+}
@@ -0,0 +1,80 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.UnrecoverableKeyException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Reads the key for encrypted configuration values from a local keystore file, e.g. a PKCS12 keystore created with
+ * <pre>keytool -genseckey -keyalg AES -keysize 256 -alias config -storetype PKCS12 -keystore config.p12</pre>
+ * The keystore is read once, on the first call to {@link #getKey()}.
+ */
+public final class KeyStoreKeyProvider implements KeyProvider {
+
+    private final File keyStoreFile;
+    
+    private final char[] password;
+    
+    private final String alias;
+    
+    private final String type;
+    
+    private SecretKey key;
+    
+    /**
+     * @param keyStoreFile the keystore file
+     * @param password the password of the keystore, also used for the key
+     * @param alias the alias of the key
+     * @param type the keystore type, e.g. PKCS12 or JCEKS
+     */
+    public KeyStoreKeyProvider(File keyStoreFile, char[] password, String alias, String type) {
+        this.keyStoreFile = keyStoreFile;
+        this.password = password.clone();
+        this.alias = alias;
+        this.type = type;
+    }
+    
+    public synchronized SecretKey getKey() throws GeneralSecurityException, IOException {
+        if (key == null) {
+            KeyStore keyStore = KeyStore.getInstance(type);
+            InputStream is = new FileInputStream(keyStoreFile);
+            try {
+                keyStore.load(is, password);
+            } finally {
+                is.close();
+            }
+            Key entry = keyStore.getKey(alias, password);
+            if (!(entry instanceof SecretKey)) {
+                throw new UnrecoverableKeyException("There is no secret key " + alias + " in " + keyStoreFile);
+            }
+            key = (SecretKey) entry;
+        }
+        return key;
+    }
+}
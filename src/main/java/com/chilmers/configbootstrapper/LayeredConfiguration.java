@@ -0,0 +1,361 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * An application configuration stacked from several layers, where a later layer overrides the entries of 
+ * the earlier ones. A typical stack is:
+ *<pre>
+ *LayeredConfiguration configuration = new LayeredConfiguration()
+ *      .addLocation("classpath:application-defaults.properties")
+ *      .addLocation("file:/etc/myapp/application.properties")
+ *      .addEnvironmentOverrides()
+ *      .addSystemPropertyOverrides();
+ *ConfigReference reference = configuration.getReference();
+ *</pre>
+ * The layers are merged into one flattened {@link ConfigSnapshot}, so a lookup is a single probe no matter
+ * how many layers there are.<br/>
+ * <br/>
+ * Location layers are read through the {@link ConfigSnapshotCache}. When a location has changed, only that 
+ * location is read again, the other layers are reused, and the merged snapshot is replaced in the 
+ * {@link ConfigReference} with a single write, i.e. readers see either the old or the new merged configuration.
+ * Locations are checked for changes on {@link #refresh()} and whenever the cache reads them, 
+ * e.g. by the file watcher of {@link ConfigServletContextListener}. 
+ * {@link #getSnapshot()} only reads the merged snapshot, so it is as cheap as {@link ConfigReference#getSnapshot()}.<br/>
+ * <br/>
+ * Override layers are added after the location layers and only replace entries that exist in a location layer, 
+ * they never add entries:
+ * <ul>
+ *  <li><strong>Environment overrides</strong> - the entry <tt>db.pool.size</tt> is overridden by the environment 
+ *      variable <tt>DB_POOL_SIZE</tt>, i.e. the key in upper case with every character other than letters and 
+ *      digits replaced by underscore</li>
+ *  <li><strong>System property overrides</strong> - the entry <tt>db.pool.size</tt> is overridden by the system 
+ *      property <tt>db.pool.size</tt></li>
+ * </ul>
+ * The environment is read once, system properties are read again on every merge and on {@link #refresh()}, 
+ * so a system property set at runtime takes effect on the next refresh or change of a location.
+ * 
+ * @see ConfigHelper#getLayeredConfiguration(String...)
+ */
+public final class LayeredConfiguration {
+
+    private final ConfigHelper configHelper;
+    
+    private final List<Layer> layers = new ArrayList<Layer>();
+    
+    private final ConfigChangeListener layerListener = new ConfigChangeListener() {
+        public void configurationChanged(ConfigChangeEvent event) {
+            merge();
+        }
+    };
+    
+    private volatile ConfigReference reference;
+    
+    public LayeredConfiguration() {
+        this(new ConfigHelper("config-bootstrapper"));
+    }
+    
+    LayeredConfiguration(ConfigHelper configHelper) {
+        this.configHelper = configHelper;
+    }
+    
+    /**
+     * Adds a layer read from the given location. 
+     * A location that cannot be read contributes no entries until it can be read.
+     * @param location the location, starting with file: or classpath:
+     * @return this configuration
+     * @throws IllegalStateException if an override layer has already been added
+     */
+    public synchronized LayeredConfiguration addLocation(String location) {
+        if (StringUtils.isBlank(location)) {
+            throw new IllegalArgumentException("The location must not be blank");
+        }
+        if (!layers.isEmpty() && layers.get(layers.size() - 1) instanceof OverrideLayer) {
+            throw new IllegalStateException("Location layers must be added before override layers");
+        }
+        ConfigReference layerReference = ConfigSnapshotCache.getInstance().getReference(location, configHelper);
+        layerReference.addChangeListener(layerListener);
+        layers.add(new LocationLayer(layerReference));
+        return mergeIfStarted();
+    }
+    
+    /**
+     * Adds a layer where environment variables override the entries of the earlier layers.
+     * @return this configuration
+     */
+    public synchronized LayeredConfiguration addEnvironmentOverrides() {
+        layers.add(new EnvironmentLayer(System.getenv()));
+        return mergeIfStarted();
+    }
+    
+    /**
+     * Adds a layer where system properties override the entries of the earlier layers.
+     * @return this configuration
+     */
+    public synchronized LayeredConfiguration addSystemPropertyOverrides() {
+        layers.add(new SystemPropertyLayer());
+        return mergeIfStarted();
+    }
+    
+    private LayeredConfiguration mergeIfStarted() {
+        if (reference != null) {
+            merge();
+        }
+        return this;
+    }
+    
+    /**
+     * @return a live reference to the merged configuration, the same instance on every call
+     */
+    public ConfigReference getReference() {
+        ConfigReference merged = reference;
+        if (merged != null) {
+            return merged;
+        }
+        synchronized (this) {
+            if (reference == null) {
+                // Published once merged, so readers without the lock never see an empty reference
+                ConfigReference created = new ConfigReference(getName());
+                mergeInto(created);
+                reference = created;
+            }
+            return reference;
+        }
+    }
+    
+    /**
+     * Returns the merged snapshot without checking the layers for changes, see {@link #refresh()}.
+     * @return the merged configuration
+     */
+    public ConfigSnapshot getSnapshot() {
+        return getReference().getSnapshot();
+    }
+    
+    /**
+     * Reads every location layer that has changed and the system properties again, and replaces the merged 
+     * snapshot if any of them changed.
+     */
+    public void refresh() {
+        ConfigReference merged = getReference();
+        for (Layer layer : layerSnapshot()) {
+            if (layer instanceof LocationLayer) {
+                // Notifies the layer listener if the location was read again and differs
+                ConfigSnapshotCache.getInstance().getReference(((LocationLayer) layer).reference.getLocation(), 
+                        configHelper);
+            }
+        }
+        for (Layer layer : layerSnapshot()) {
+            if (layer instanceof SystemPropertyLayer && ((SystemPropertyLayer) layer).hasChanged(merged.getSnapshot())) {
+                merge();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Stops following the location layers, the merged snapshot is not updated any more.
+     */
+    public synchronized void close() {
+        for (Layer layer : layers) {
+            if (layer instanceof LocationLayer) {
+                ((LocationLayer) layer).reference.removeChangeListener(layerListener);
+            }
+        }
+    }
+    
+    private synchronized List<Layer> layerSnapshot() {
+        return new ArrayList<Layer>(layers);
+    }
+    
+    /**
+     * Merges the current snapshots of all layers and publishes the result
+     */
+    private synchronized void merge() {
+        if (reference != null) {
+            mergeInto(reference);
+        }
+    }
+    
+    private void mergeInto(ConfigReference target) {
+        Map<String, String> entries = new HashMap<String, String>();
+        long sourceBytes = 0;
+        for (Layer layer : layers) {
+            if (layer instanceof LocationLayer) {
+                ConfigSnapshot snapshot = ((LocationLayer) layer).reference.getSnapshot();
+                if (snapshot != null) {
+                    sourceBytes += snapshot.getSourceBytes();
+                    for (int slot = 0; slot < snapshot.capacity(); slot++) {
+                        if (snapshot.getKey(slot) != null) {
+                            // References are resolved in the merged snapshot, so they see the overriding values
+                            entries.put(snapshot.getKey(slot), snapshot.getRawValue(slot));
+                        }
+                    }
+                }
+            } else {
+                entries.putAll(((OverrideLayer) layer).overrides(entries));
+            }
+        }
+        String[] keys = new String[entries.size()];
+        String[] values = new String[entries.size()];
+        int count = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            keys[count] = entry.getKey();
+            values[count] = entry.getValue();
+            count++;
+        }
+        target.update(ConfigSnapshot.create(target.getLocation(), keys, values, count, sourceBytes, 
+                target.getSnapshot()));
+    }
+    
+    /**
+     * @return a name made up of the layers, e.g. layered:classpath:defaults.properties,file:/etc/app.properties,env,sys
+     */
+    private String getName() {
+        StringBuilder name = new StringBuilder("layered:");
+        for (int i = 0; i < layers.size(); i++) {
+            if (i > 0) {
+                name.append(',');
+            }
+            name.append(layers.get(i).getName());
+        }
+        return name.toString();
+    }
+    
+    /**
+     * Converts a configuration key to the name of the environment variable that overrides it
+     */
+    static String environmentName(String key) {
+        StringBuilder name = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            name.append(Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : '_');
+        }
+        return name.toString();
+    }
+    
+    private interface Layer {
+        String getName();
+    }
+    
+    private static final class LocationLayer implements Layer {
+        
+        final ConfigReference reference;
+        
+        LocationLayer(ConfigReference reference) {
+            this.reference = reference;
+        }
+        
+        public String getName() {
+            return reference.getLocation();
+        }
+    }
+    
+    private interface OverrideLayer extends Layer {
+        
+        /**
+         * @param entries the merged entries of the earlier layers
+         * @return the entries this layer overrides
+         */
+        Map<String, String> overrides(Map<String, String> entries);
+    }
+    
+    private static final class EnvironmentLayer implements OverrideLayer {
+        
+        private final Map<String, String> environment;
+        
+        EnvironmentLayer(Map<String, String> environment) {
+            this.environment = environment;
+        }
+        
+        public String getName() {
+            return "env";
+        }
+        
+        public Map<String, String> overrides(Map<String, String> entries) {
+            if (environment.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> overrides = new HashMap<String, String>();
+            for (String key : entries.keySet()) {
+                String value = environment.get(environmentName(key));
+                if (value != null) {
+                    overrides.put(key, value);
+                }
+            }
+            return overrides;
+        }
+    }
+    
+    private static final class SystemPropertyLayer implements OverrideLayer {
+        
+        /**
+         * The overrides of the last merge, read without the lock of the configuration by {@link #hasChanged}
+         */
+        private volatile Map<String, String> applied = Collections.emptyMap();
+        
+        public String getName() {
+            return "sys";
+        }
+        
+        public Map<String, String> overrides(Map<String, String> entries) {
+            // There are usually far fewer system properties than configuration entries
+            Properties systemProperties = System.getProperties();
+            Map<String, String> overrides = new HashMap<String, String>();
+            for (String name : systemProperties.stringPropertyNames()) {
+                if (entries.containsKey(name)) {
+                    overrides.put(name, systemProperties.getProperty(name));
+                }
+            }
+            applied = overrides;
+            return overrides;
+        }
+        
+        /**
+         * @param merged the merged snapshot, which has the same keys as the location layers
+         * @return true if a system property for one of the keys was set, changed or cleared since the last merge
+         */
+        boolean hasChanged(ConfigSnapshot merged) {
+            if (merged == null) {
+                return false;
+            }
+            Map<String, String> applied = this.applied;
+            Properties systemProperties = System.getProperties();
+            int count = 0;
+            for (String name : systemProperties.stringPropertyNames()) {
+                if (merged.containsKey(name)) {
+                    if (!systemProperties.getProperty(name).equals(applied.get(name))) {
+                        return true;
+                    }
+                    count++;
+                }
+            }
+            return count != applied.size();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.apache.log4j.spi.LoggerRepository;
+import org.apache.log4j.xml.DOMConfigurator;
+import org.apache.log4j.xml.Log4jEntityResolver;
+import org.w3c.dom.Element;
+
+/**
+ * A log4j configuration that has been read and parsed but not yet applied.<br/>
+ * Parsing (the slow part, especially for XML) can be done on any thread and before the current 
+ * configuration is reset, applying it only hands the parsed document to log4j's configurators.
+ */
+final class Log4jConfiguration {
+
+    private final String location;
+    
+    private final File file;
+    
+    private final Element xmlConfiguration;
+    
+    private final Properties propertiesConfiguration;
+    
+    private Log4jConfiguration(String location, File file, Element xmlConfiguration, Properties propertiesConfiguration) {
+        this.location = location;
+        this.file = file;
+        this.xmlConfiguration = xmlConfiguration;
+        this.propertiesConfiguration = propertiesConfiguration;
+    }
+    
+    /**
+     * Reads and parses a log4j configuration.
+     * @param location a .xml or .properties location, either a location supported by a {@link ConfigSource} or a plain file path
+     * @return the parsed configuration
+     * @throws IllegalArgumentException if the location neither ends with .xml nor .properties
+     * @throws Exception if the configuration can't be read or parsed
+     */
+    static Log4jConfiguration parse(String location) throws Exception {
+        String path = location;
+        File file = null;
+        InputStream is;
+        if (isFile(location)) {
+            file = FileConfigSource.toFile(location);
+            path = file.getPath();
+            is = new FileInputStream(file);
+        } else {
+            is = ConfigSources.open(location, ConfigSources.find(location), new ConfigHelper("config-bootstrapper"));
+        }
+        try {
+            if (path.endsWith(".xml")) {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setValidating(false);
+                DocumentBuilder builder = factory.newDocumentBuilder();
+                builder.setEntityResolver(new Log4jEntityResolver());
+                return new Log4jConfiguration(location, file, builder.parse(is).getDocumentElement(), null);
+            } else if (path.endsWith(".properties")) {
+                Properties properties = new Properties();
+                properties.load(is);
+                return new Log4jConfiguration(location, file, null, properties);
+            }
+            throw new IllegalArgumentException("The log4j configuration file location must end with .xml or .properties");
+        } finally {
+            is.close();
+        }
+    }
+    
+    /**
+     * Resets the given repository and configures it with this configuration.
+     * @param repository the logger repository to configure
+     */
+    void apply(LoggerRepository repository) {
+        repository.resetConfiguration();
+        if (xmlConfiguration != null) {
+            new DOMConfigurator().doConfigure(xmlConfiguration, repository);
+        } else {
+            new PropertyConfigurator().doConfigure(propertiesConfiguration, repository);
+        }
+    }
+    
+    String getLocation() {
+        return location;
+    }
+    
+    /**
+     * @return true if the given location is a file on the file system, i.e. a file: location or a plain path
+     */
+    static boolean isFile(String location) {
+        ConfigSource source = ConfigSources.find(location);
+        return source == null || source instanceof FileConfigSource;
+    }
+    
+    /**
+     * @return the file the configuration was read from, or null if it was not read from the file system
+     */
+    File getFile() {
+        return file;
+    }
+}
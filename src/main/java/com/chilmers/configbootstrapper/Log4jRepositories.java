@@ -0,0 +1,162 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Hierarchy;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.LoggerRepository;
+import org.apache.log4j.spi.RepositorySelector;
+import org.apache.log4j.spi.RootLogger;
+
+/**
+ * Gives every application its own log4j logger repository, so that configuring or shutting down logging 
+ * in one application does not affect the other applications in the same JVM.<br/>
+ * <br/>
+ * A repository selector is installed in log4j that picks the repository of the application whose class loader 
+ * (or one of its parents) is the context class loader of the calling thread. Threads of other class loaders
+ * get the repository that log4j used before the selector was installed.<br/>
+ * Only one selector can be installed per log4j, if another one is already installed (e.g. by the container 
+ * or by another copy of this library) the global repository is used.<br/>
+ * <br/>
+ * A new repository gets log4j's default configuration, i.e. log4j.xml or log4j.properties found by the class loader 
+ * of the application, honoring the log4j.configuration, log4j.configuratorClass and log4j.defaultInitOverride 
+ * system properties the same way log4j does for its global repository.
+ */
+final class Log4jRepositories {
+
+    private static final String DEFAULT_CONFIGURATION_KEY = "log4j.configuration";
+    
+    private static final String CONFIGURATOR_CLASS_KEY = "log4j.configuratorClass";
+    
+    private static final String DEFAULT_INIT_OVERRIDE_KEY = "log4j.defaultInitOverride";
+    
+    private static final String DEFAULT_XML_CONFIGURATION_FILE = "log4j.xml";
+    
+    private static final String DEFAULT_CONFIGURATION_FILE = "log4j.properties";
+    
+    private static final Object GUARD = new Object();
+    
+    private static final Map<ClassLoader, LoggerRepository> repositories = new ConcurrentHashMap<ClassLoader, LoggerRepository>();
+    
+    private static volatile LoggerRepository defaultRepository;
+    
+    private static boolean installed;
+    
+    private Log4jRepositories() {
+    }
+    
+    /**
+     * Creates a logger repository for the application that is initialized by the calling thread.
+     * @param helper used for logging
+     * @return the repository of the application, or null if the global repository must be used
+     */
+    static synchronized LoggerRepository acquire(ConfigHelper helper) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null || !install(helper)) {
+            return null;
+        }
+        LoggerRepository repository = repositories.get(loader);
+        if (repository == null) {
+            repository = new Hierarchy(new RootLogger(Level.DEBUG));
+            configureDefault(repository, loader, helper);
+            repositories.put(loader, repository);
+        }
+        helper.logToSystemOut("Using a logger repository of its own for this application");
+        return repository;
+    }
+    
+    /**
+     * Shuts down the given repository and stops selecting it.
+     * @param repository a repository returned by {@link #acquire(ConfigHelper)}
+     */
+    static synchronized void release(LoggerRepository repository) {
+        repositories.values().remove(repository);
+        repository.shutdown();
+    }
+    
+    /**
+     * Applies log4j's default initialization to the given repository, 
+     * which the global repository gets when log4j is loaded.
+     */
+    private static void configureDefault(LoggerRepository repository, ClassLoader loader, ConfigHelper helper) {
+        if (Boolean.parseBoolean(System.getProperty(DEFAULT_INIT_OVERRIDE_KEY))) {
+            return;
+        }
+        String configuration = System.getProperty(DEFAULT_CONFIGURATION_KEY);
+        URL url;
+        if (configuration == null) {
+            url = loader.getResource(DEFAULT_XML_CONFIGURATION_FILE);
+            if (url == null) {
+                url = loader.getResource(DEFAULT_CONFIGURATION_FILE);
+            }
+        } else {
+            try {
+                url = new URL(configuration);
+            } catch (MalformedURLException e) {
+                url = loader.getResource(configuration);
+            }
+        }
+        if (url == null) {
+            helper.logToSystemOut("No default log4j configuration was found for the logger repository of this application");
+            return;
+        }
+        helper.logToSystemOut("Configuring the logger repository of this application using the default log4j configuration " + url);
+        OptionConverter.selectAndConfigure(url, System.getProperty(CONFIGURATOR_CLASS_KEY), repository);
+    }
+    
+    private static boolean install(ConfigHelper helper) {
+        if (installed) {
+            return true;
+        }
+        LoggerRepository current = LogManager.getLoggerRepository();
+        try {
+            LogManager.setRepositorySelector(new Selector(), GUARD);
+        } catch (IllegalArgumentException e) {
+            helper.logToSystemOut("WARNING! Could not install a log4j repository selector, " 
+                    + "the application will use the global logger repository.\n"
+                    + "Exception:" + e.getClass().toString() + "\n"
+                    + "Message:" + e.getMessage());
+            return false;
+        }
+        defaultRepository = current;
+        installed = true;
+        return true;
+    }
+    
+    private static final class Selector implements RepositorySelector {
+        
+        public LoggerRepository getLoggerRepository() {
+            for (ClassLoader loader = Thread.currentThread().getContextClassLoader(); loader != null; loader = loader.getParent()) {
+                LoggerRepository repository = repositories.get(loader);
+                if (repository != null) {
+                    return repository;
+                }
+            }
+            return defaultRepository;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.MalformedInputException;
+import java.util.Arrays;
+
+/**
+ * Single-pass parser for the .properties format that builds a {@link ConfigSnapshot} directly from the bytes,
+ * without going through Properties, its synchronized Hashtable or a Reader.<br/>
+ * The syntax is the one of java.util.Properties#load: comment lines starting with # or !, 
+ * keys separated from values by =, : or white space, line continuations with a trailing backslash 
+ * and the escapes \t, \n, \r, \f and \\uxxxx.<br/>
+ * Like PropertyResourceBundle the input is read as UTF-8 and re-read as ISO-8859-1 if it is not valid UTF-8, 
+ * so plain ASCII files with \\uxxxx escapes and Latin-1 files keep working.<br/>
+ * <br/>
+ * Files are read through their FileChannel, into a heap buffer or, from {@link #MAP_THRESHOLD} bytes, 
+ * through a read-only memory mapping. Other streams are read fully into memory first.
+ */
+final class PropertiesParser {
+
+    /**
+     * Files of at least this many bytes are memory mapped instead of copied to the heap
+     */
+    static final int MAP_THRESHOLD = 1 << 20;
+    
+    private static final int END = -1;
+    
+    private final ByteBuffer buffer;
+    
+    private final int limit;
+    
+    private final boolean utf8;
+    
+    private int position;
+    
+    /**
+     * Whether the last character returned by {@link #next()} was written with a backslash escape
+     */
+    private boolean escaped;
+    
+    private char[] chars = new char[128];
+    
+    private int length;
+    
+    private String[] keys = new String[64];
+    
+    private String[] values = new String[64];
+    
+    private int count;
+    
+    private PropertiesParser(ByteBuffer buffer, boolean utf8) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.utf8 = utf8;
+    }
+    
+    /**
+     * Reads and parses the given stream, which is not closed.
+     * @param location the location the stream was opened from
+     * @param is the stream to read
+     * @return a snapshot of the parsed entries
+     * @throws IOException if the stream could not be read
+     * @throws IllegalArgumentException if the input contains a malformed \\uxxxx escape
+     */
+    static ConfigSnapshot parse(String location, InputStream is) throws IOException {
+        return parse(location, is, null);
+    }
+    
+    /**
+     * Reads and parses the given stream, which is not closed.
+     * @param previous the previous snapshot of the location, see {@link ConfigSnapshot#create}, or null
+     */
+    static ConfigSnapshot parse(String location, InputStream is, ConfigSnapshot previous) throws IOException {
+        return parse(location, read(is), previous);
+    }
+    
+    static ConfigSnapshot parse(String location, ByteBuffer buffer, ConfigSnapshot previous) {
+        PropertiesParser parser = readEntries(buffer);
+        return ConfigSnapshot.create(location, parser.keys, parser.values, parser.count, buffer.limit(), previous);
+    }
+    
+    /**
+     * Parses the entries of the given content without creating a snapshot, e.g. to merge them with other entries.
+     * @return the parser holding the entries in the order they were read
+     * @throws IllegalArgumentException if the input contains a malformed \\uxxxx escape
+     */
+    static PropertiesParser readEntries(ByteBuffer buffer) {
+        PropertiesParser parser = new PropertiesParser(buffer, true);
+        try {
+            parser.parseEntries();
+        } catch (MalformedInputException e) {
+            parser = new PropertiesParser(buffer, false);
+            try {
+                parser.parseEntries();
+            } catch (MalformedInputException cannotHappen) {
+                throw new IllegalStateException(cannotHappen);
+            }
+        }
+        return parser;
+    }
+    
+    String[] getKeys() {
+        return keys;
+    }
+    
+    String[] getValues() {
+        return values;
+    }
+    
+    int getCount() {
+        return count;
+    }
+    
+    /**
+     * Reads the whole stream, see the class comment
+     */
+    static ByteBuffer read(InputStream is) throws IOException {
+        if (is instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) is).getChannel();
+            long size = channel.size() - channel.position();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The configuration is too large: " + size + " bytes");
+            }
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Read until the buffer is full or the file was truncated while reading
+            }
+            buffer.flip();
+            return buffer;
+        }
+        byte[] bytes = new byte[8192];
+        int size = 0;
+        int read;
+        while ((read = is.read(bytes, size, bytes.length - size)) >= 0) {
+            size += read;
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+        }
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+    
+    private void parseEntries() throws MalformedInputException {
+        while (true) {
+            skipBlankLines();
+            if (position >= limit) {
+                return;
+            }
+            byte first = buffer.get(position);
+            if (first == '#' || first == '!') {
+                skipLine();
+                continue;
+            }
+            length = 0;
+            boolean separated = false;
+            int c;
+            while ((c = next()) != END) {
+                if (!escaped) {
+                    if (c == '=' || c == ':') {
+                        separated = true;
+                        break;
+                    }
+                    if (isWhitespace(c)) {
+                        break;
+                    }
+                }
+                append(c);
+            }
+            String key = new String(chars, 0, length);
+            if (c != END) {
+                skipSeparator(separated);
+            }
+            length = 0;
+            while ((c = next()) != END) {
+                append(c);
+            }
+            add(key, new String(chars, 0, length));
+        }
+    }
+    
+    /**
+     * Skips the white space between key and value, including a single = or : if the key 
+     * was terminated by white space
+     */
+    private void skipSeparator(boolean separated) throws MalformedInputException {
+        while (true) {
+            int mark = position;
+            int c = next();
+            if (c == END) {
+                return;
+            }
+            if (!escaped && isWhitespace(c)) {
+                continue;
+            }
+            if (!escaped && !separated && (c == '=' || c == ':')) {
+                separated = true;
+                continue;
+            }
+            position = mark;
+            return;
+        }
+    }
+    
+    /**
+     * Returns the next character of the current logical line, resolving escapes and line continuations.
+     * The line terminator itself is never consumed.
+     * @return the next code point or END at the end of the line
+     */
+    private int next() throws MalformedInputException {
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (b == '\n' || b == '\r') {
+                return END;
+            }
+            if (b != '\\') {
+                escaped = false;
+                return decode();
+            }
+            position++;
+            if (position >= limit) {
+                // A trailing backslash at the end of the input is dropped
+                return END;
+            }
+            b = buffer.get(position);
+            if (b == '\n' || b == '\r') {
+                skipLineTerminator();
+                while (position < limit && isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+                continue;
+            }
+            escaped = true;
+            switch (b) {
+                case 't':
+                    position++;
+                    return '\t';
+                case 'n':
+                    position++;
+                    return '\n';
+                case 'r':
+                    position++;
+                    return '\r';
+                case 'f':
+                    position++;
+                    return '\f';
+                case 'u':
+                    position++;
+                    return unicodeEscape();
+                default:
+                    return decode();
+            }
+        }
+        return END;
+    }
+    
+    private int unicodeEscape() {
+        if (position + 4 > limit) {
+            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(buffer.get(position++), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+    
+    /**
+     * Decodes the character starting at the current position
+     */
+    private int decode() throws MalformedInputException {
+        int b = buffer.get(position++);
+        if (b >= 0) {
+            return b;
+        }
+        b &= 0xFF;
+        if (!utf8) {
+            return b;
+        }
+        int continuation;
+        int codePoint;
+        int minimum;
+        if ((b & 0xE0) == 0xC0) {
+            continuation = 1;
+            codePoint = b & 0x1F;
+            minimum = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            continuation = 2;
+            codePoint = b & 0x0F;
+            minimum = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            continuation = 3;
+            codePoint = b & 0x07;
+            minimum = 0x10000;
+        } else {
+            throw new MalformedInputException(1);
+        }
+        if (position + continuation > limit) {
+            throw new MalformedInputException(1);
+        }
+        for (int i = 0; i < continuation; i++) {
+            int next = buffer.get(position++) & 0xFF;
+            if ((next & 0xC0) != 0x80) {
+                throw new MalformedInputException(i + 1);
+            }
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+        if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT 
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            throw new MalformedInputException(continuation + 1);
+        }
+        return codePoint;
+    }
+    
+    private void append(int codePoint) {
+        if (length + 2 > chars.length) {
+            chars = Arrays.copyOf(chars, chars.length * 2);
+        }
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            chars[length++] = (char) codePoint;
+        } else {
+            chars[length++] = Character.highSurrogate(codePoint);
+            chars[length++] = Character.lowSurrogate(codePoint);
+        }
+    }
+    
+    private void add(String key, String value) {
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        keys[count] = key;
+        values[count] = value;
+        count++;
+    }
+    
+    private void skipBlankLines() {
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (!isWhitespace(b) && b != '\n' && b != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+    
+    private void skipLine() {
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (b == '\n' || b == '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+    
+    private void skipLineTerminator() {
+        if (buffer.get(position) == '\r' && position + 1 < limit && buffer.get(position + 1) == '\n') {
+            position++;
+        }
+        position++;
+    }
+    
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Exports the entries with a given prefix, e.g. <tt>system.property.</tt>, to the system properties,
+ * only writing what has changed since the last export.<br/>
+ * <br/>
+ * An export compares the entries with the values of the last export and skips entries whose value is 
+ * unchanged or already set. The remaining changes are written in one batch while holding the lock of 
+ * the system properties once, instead of once per property. Optionally, properties that were exported 
+ * before but are no longer configured are removed, or restored to the value they had before they were exported, 
+ * unless someone else has changed them in the meantime. Properties that already had the configured value, 
+ * e.g. set with -D when the JVM was started, are never written and therefore never removed.<br/>
+ * <br/>
+ * Encrypted entries (<tt>ENC(...)</tt>, see {@link ConfigSecrets}) are skipped, unless exporting them has been 
+ * allowed, in which case they are exported decrypted.
+ */
+final class SystemPropertyExporter {
+
+    /**
+     * Sets a single system property, for callers that need to see every property that is set
+     */
+    interface Setter {
+        void setSystemProperty(String key, String value);
+    }
+    
+    /**
+     * What an export changed
+     */
+    static final class Result {
+        
+        final Map<String, String> changed;
+        
+        /**
+         * Properties that were removed or restored to the value they had before they were exported
+         */
+        final List<String> removed;
+        
+        /**
+         * Encrypted entries that were not exported, since exporting them is not allowed or they could not be decrypted
+         */
+        final List<String> skipped;
+        
+        Result(Map<String, String> changed, List<String> removed, List<String> skipped) {
+            this.changed = changed;
+            this.removed = removed;
+            this.skipped = skipped;
+        }
+        
+        boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+    
+    private final String prefix;
+    
+    private volatile boolean exportSecrets;
+    
+    /**
+     * The properties this exporter has set and that are still configured, with the values it set
+     */
+    private Map<String, String> exported = Collections.emptyMap();
+    
+    /**
+     * The values the exported properties had before this exporter set them, null if they were not set
+     */
+    private final Map<String, String> replaced = new HashMap<String, String>();
+    
+    SystemPropertyExporter(String prefix) {
+        this.prefix = prefix;
+    }
+    
+    /**
+     * @param exportSecrets true to export encrypted entries decrypted, by default they are not exported
+     */
+    void setExportSecrets(boolean exportSecrets) {
+        this.exportSecrets = exportSecrets;
+    }
+    
+    /**
+     * Exports the entries of the given snapshot that start with the prefix, with the prefix removed.
+     * @param snapshot the configuration to export
+     * @param removeStale whether to remove properties that were exported before but are no longer configured
+     * @param setter sets the changed properties one by one, or null to write them in one batch
+     * @return the changes that were made
+     */
+    synchronized Result export(ConfigSnapshot snapshot, boolean removeStale, Setter setter) {
+        ConfigSubset entries = snapshot.subset(prefix);
+        Properties systemProperties = System.getProperties();
+        Map<String, String> current = new HashMap<String, String>(entries.size() * 2);
+        Map<String, String> changed = new LinkedHashMap<String, String>();
+        List<String> skipped = new ArrayList<String>();
+        for (int i = 0; i < entries.size(); i++) {
+            String key = entries.getKey(i);
+            if (key.length() == 0) {
+                continue;
+            }
+            String value = entries.getValue(i);
+            if (ConfigSecrets.isEncrypted(value)) {
+                if (!exportSecrets) {
+                    skipped.add(key);
+                    continue;
+                }
+                try {
+                    value = new String(entries.getSecret(key));
+                } catch (IllegalStateException e) {
+                    skipped.add(key);
+                    continue;
+                }
+            }
+            String exportedValue = exported.get(key);
+            if (exportedValue != null) {
+                current.put(key, value);
+                if (!value.equals(exportedValue)) {
+                    changed.put(key, value);
+                }
+            } else {
+                String existing = systemProperties.getProperty(key);
+                if (!value.equals(existing)) {
+                    current.put(key, value);
+                    changed.put(key, value);
+                    replaced.put(key, existing);
+                }
+            }
+        }
+        Map<String, String> restored = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : exported.entrySet()) {
+            String key = entry.getKey();
+            if (current.containsKey(key)) {
+                continue;
+            }
+            String previous = replaced.remove(key);
+            if (removeStale && entry.getValue().equals(systemProperties.getProperty(key))) {
+                restored.put(key, previous);
+            }
+        }
+        List<String> removed = new ArrayList<String>(restored.keySet());
+        if (setter == null) {
+            synchronized (systemProperties) {
+                systemProperties.putAll(changed);
+                restore(systemProperties, restored);
+            }
+        } else {
+            for (Map.Entry<String, String> entry : changed.entrySet()) {
+                setter.setSystemProperty(entry.getKey(), entry.getValue());
+            }
+            restore(systemProperties, restored);
+        }
+        exported = current;
+        return new Result(changed, removed, skipped);
+    }
+    
+    private static void restore(Properties systemProperties, Map<String, String> restored) {
+        for (Map.Entry<String, String> entry : restored.entrySet()) {
+            if (entry.getValue() == null) {
+                systemProperties.remove(entry.getKey());
+            } else {
+                systemProperties.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
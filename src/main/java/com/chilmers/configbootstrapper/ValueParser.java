@@ -0,0 +1,115 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Parses configuration values into the types supported by {@link ConfigView}.
+ * The methods return null instead of throwing when a value can't be parsed, 
+ * since most values in a configuration are not of any particular type.
+ */
+final class ValueParser {
+
+    private ValueParser() {
+    }
+    
+    static Long parseLong(String value) {
+        String trimmed = value.trim();
+        int length = trimmed.length();
+        if (length == 0 || length > 20) {
+            return null;
+        }
+        char first = trimmed.charAt(0);
+        if (first != '-' && first != '+' && (first < '0' || first > '9')) {
+            return null;
+        }
+        try {
+            return Long.valueOf(trimmed);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    static Boolean parseBoolean(String value) {
+        String trimmed = value.trim();
+        if ("true".equalsIgnoreCase(trimmed) || "yes".equalsIgnoreCase(trimmed) || "on".equalsIgnoreCase(trimmed)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(trimmed) || "no".equalsIgnoreCase(trimmed) || "off".equalsIgnoreCase(trimmed)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+    
+    static Duration parseDuration(String value) {
+        String trimmed = value.trim();
+        if (trimmed.length() == 0) {
+            return null;
+        }
+        char first = trimmed.charAt(0);
+        if (first == 'P' || first == 'p' || ((first == '-' || first == '+') && trimmed.length() > 1 
+                && (trimmed.charAt(1) == 'P' || trimmed.charAt(1) == 'p'))) {
+            try {
+                return Duration.parse(trimmed);
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        int unitStart = trimmed.length();
+        while (unitStart > 0 && Character.isLetter(trimmed.charAt(unitStart - 1))) {
+            unitStart--;
+        }
+        Long amount = parseLong(trimmed.substring(0, unitStart));
+        if (amount == null) {
+            return null;
+        }
+        ChronoUnit unit = parseUnit(trimmed.substring(unitStart).toLowerCase());
+        if (unit == null) {
+            return null;
+        }
+        try {
+            return Duration.of(amount.longValue(), unit);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+    
+    private static ChronoUnit parseUnit(String unit) {
+        if (unit.length() == 0 || unit.equals("ms")) {
+            return ChronoUnit.MILLIS;
+        } else if (unit.equals("ns")) {
+            return ChronoUnit.NANOS;
+        } else if (unit.equals("us")) {
+            return ChronoUnit.MICROS;
+        } else if (unit.equals("s")) {
+            return ChronoUnit.SECONDS;
+        } else if (unit.equals("m")) {
+            return ChronoUnit.MINUTES;
+        } else if (unit.equals("h")) {
+            return ChronoUnit.HOURS;
+        } else if (unit.equals("d")) {
+            return ChronoUnit.DAYS;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BootstrapLogTest {
+    
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+    
+    private final BootstrapLogSink recordingSink = new BootstrapLogSink() {
+        public void write(List<String> lines) {
+            batches.add(new ArrayList<String>(lines));
+        }
+    };
+    
+    @After
+    public void tearDown() {
+        BootstrapLog.getInstance().setSink(null);
+        BootstrapLog.getInstance().setBatchSize(32);
+    }
+    
+    @Test
+    public void testBatchedWrites() {
+        BootstrapLog log = BootstrapLog.getInstance();
+        log.setSink(recordingSink);
+        log.setBatchSize(3);
+        ConfigHelper helper = new ConfigHelper("batch-test");
+        helper.logToSystemOut("one");
+        helper.logToSystemOut("two");
+        Assert.assertTrue(batches.isEmpty());
+        helper.logToSystemOut("three");
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(3, batches.get(0).size());
+        Assert.assertTrue(batches.get(0).get(0).endsWith(" [batch-test] one"));
+        
+        helper.logToSystemOut("four");
+        helper.flushLog();
+        Assert.assertEquals(2, batches.size());
+        Assert.assertTrue(batches.get(1).get(0).endsWith(" [batch-test] four"));
+    }
+    
+    @Test
+    public void testConcurrentLogging() throws InterruptedException {
+        BootstrapLog.getInstance().setSink(recordingSink);
+        BootstrapLog.getInstance().setBatchSize(8);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final ConfigHelper helper = new ConfigHelper("thread-" + t);
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        helper.logToSystemOut("message " + i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        BootstrapLog.getInstance().flush();
+        int lines = 0;
+        for (List<String> batch : batches) {
+            lines += batch.size();
+        }
+        Assert.assertEquals(400, lines);
+    }
+    
+    @Test
+    public void testShutdownHookIsRemovedWhenTheLastApplicationDetaches() {
+        BootstrapLog log = BootstrapLog.getInstance();
+        boolean registered = log.isShutdownHookRegistered();
+        log.attach();
+        log.attach();
+        Assert.assertTrue(log.isShutdownHookRegistered());
+        log.detach();
+        Assert.assertTrue(log.isShutdownHookRegistered());
+        log.detach();
+        Assert.assertEquals(registered, log.isShutdownHookRegistered());
+    }
+}
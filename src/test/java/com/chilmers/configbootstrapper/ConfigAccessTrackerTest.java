@@ -0,0 +1,95 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigAccessTrackerTest {
+    
+    private File configFile;
+    
+    private String location;
+    
+    @Before
+    public void setUp() throws IOException {
+        configFile = TestConfigs.createFile("config-access");
+        location = TestConfigs.location(configFile);
+    }
+    
+    @After
+    public void tearDown() {
+        TestConfigs.delete(configFile);
+    }
+    
+    @Test
+    public void testReport() throws Exception {
+        TestConfigs.write(configFile, "hot=1\nwarm=2\ncold=3\ndb.url=jdbc\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        ConfigAccessTracker tracker = reference.enableAccessTracking(1);
+        Assert.assertSame(tracker, reference.enableAccessTracking(8));
+        ConfigKey<Integer> hot = reference.intKey("hot", 0);
+        
+        ConfigSnapshot snapshot = reference.getSnapshot();
+        for (int i = 0; i < 10; i++) {
+            hot.intValue();
+            snapshot.getString("hot");
+        }
+        snapshot.getInt("warm", 0);
+        snapshot.getString("missing");
+        snapshot.subset("db.").getString("url");
+        
+        ConfigAccessTracker.Report report = tracker.getReport(2);
+        Assert.assertEquals("{hot=20, db.url=1}", report.getHotKeys().toString());
+        Assert.assertEquals("[cold]", report.getUnusedKeys().toString());
+        Assert.assertTrue(report.getKeysReadAfterStartup().isEmpty());
+        
+        tracker.markStartupComplete();
+        TestConfigs.write(configFile, "hot=4\nwarm=2\ncold=3\ndb.url=jdbc\nnew=5\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        reference.getSnapshot().getBoolean("warm", false);
+        report = tracker.getReport(10);
+        Assert.assertEquals(Long.valueOf(20), report.getHotKeys().get("hot"));
+        Assert.assertEquals(Long.valueOf(2), report.getHotKeys().get("warm"));
+        Assert.assertEquals("[cold, new]", report.getUnusedKeys().toString());
+        Assert.assertEquals("[warm]", report.getKeysReadAfterStartup().toString());
+    }
+    
+    @Test
+    public void testSampling() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        ConfigAccessTracker tracker = reference.enableAccessTracking(16);
+        Assert.assertEquals(16, tracker.getSampleRate());
+        ConfigSnapshot snapshot = reference.getSnapshot();
+        for (int i = 0; i < 160000; i++) {
+            snapshot.getString("a");
+        }
+        long reads = tracker.getReport(1).getHotKeys().get("a").longValue();
+        Assert.assertEquals(0, reads % 16);
+        Assert.assertTrue("Estimated " + reads, reads > 140000 && reads < 180000);
+    }
+}
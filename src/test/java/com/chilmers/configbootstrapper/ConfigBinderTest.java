@@ -0,0 +1,133 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ConfigBinderTest {
+    
+    public static class DatabaseConfig {
+        
+        @ConfigProperty("db.url")
+        String url;
+        
+        @ConfigProperty(value = "db.pool.size", defaultValue = "10")
+        int poolSize;
+        
+        @ConfigProperty(value = "db.timeout", required = false)
+        Duration timeout = Duration.ofSeconds(30);
+        
+        @ConfigProperty(value = "db.password", required = false)
+        char[] password;
+    }
+    
+    public enum Mode {
+        ACTIVE, PASSIVE
+    }
+    
+    public interface ServerConfig {
+        
+        @ConfigProperty("port")
+        int getPort();
+        
+        @ConfigProperty(value = "mode", defaultValue = "active")
+        Mode getMode();
+        
+        @ConfigProperty(value = "debug", required = false)
+        boolean isDebug();
+        
+        default String getAddress() {
+            return "localhost:" + getPort();
+        }
+    }
+    
+    @Test
+    public void testBindClass() throws Exception {
+        DatabaseConfig config = ConfigBinder.bind(TestConfigs.parse("db.url=jdbc:h2:mem\ndb.password=secret\n"), 
+                DatabaseConfig.class);
+        Assert.assertEquals("jdbc:h2:mem", config.url);
+        Assert.assertEquals(10, config.poolSize);
+        Assert.assertEquals(Duration.ofSeconds(30), config.timeout);
+        Assert.assertTrue(Arrays.equals("secret".toCharArray(), config.password));
+        
+        config = ConfigBinder.bind(TestConfigs.parse("db.url=x\ndb.pool.size=5\ndb.timeout=2m\n"), 
+                DatabaseConfig.class);
+        Assert.assertEquals(5, config.poolSize);
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(2), config.timeout.toMillis());
+        Assert.assertNull(config.password);
+    }
+    
+    @Test
+    public void testBindInterface() throws Exception {
+        ServerConfig config = ConfigBinder.bind(TestConfigs.parse("port=8080\n"), ServerConfig.class);
+        Assert.assertEquals(8080, config.getPort());
+        Assert.assertEquals(Mode.ACTIVE, config.getMode());
+        Assert.assertFalse(config.isDebug());
+        Assert.assertEquals("localhost:8080", config.getAddress());
+        Assert.assertEquals(config, config);
+        
+        config = ConfigBinder.bind(TestConfigs.parse("port=1\nmode=PASSIVE\ndebug=true\n"), ServerConfig.class);
+        Assert.assertEquals(Mode.PASSIVE, config.getMode());
+        Assert.assertTrue(config.isDebug());
+    }
+    
+    @Test
+    public void testBindSubset() throws Exception {
+        ServerConfig config = ConfigBinder.bind(TestConfigs.parse("server.port=9090\n").subset("server."), 
+                ServerConfig.class);
+        Assert.assertEquals(9090, config.getPort());
+    }
+    
+    @Test
+    public void testAllProblemsAreReported() throws Exception {
+        try {
+            ConfigBinder.bind(TestConfigs.parse("db.pool.size=many\ndb.timeout=soon\n"), DatabaseConfig.class);
+            Assert.fail("Expected the binding to fail");
+        } catch (ConfigBindingException e) {
+            Assert.assertEquals(DatabaseConfig.class, e.getType());
+            Assert.assertEquals(3, e.getProblems().size());
+            Assert.assertTrue(e.getProblems().contains("db.url: missing"));
+            Assert.assertTrue(e.getMessage().contains("db.pool.size"));
+            Assert.assertTrue(e.getMessage().contains("db.timeout"));
+        }
+    }
+    
+    @Test
+    public void testInvalidDeclaration() throws Exception {
+        try {
+            ConfigBinder.bind(TestConfigs.parse(""), Unsupported.class);
+            Assert.fail("Expected the declaration to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("not supported"));
+        }
+    }
+    
+    public static class Unsupported {
+        
+        @ConfigProperty("values")
+        Object values;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigFileWatcherTest {
+    
+    private File configFile;
+    
+    private String location;
+    
+    @Before
+    public void setUp() throws IOException {
+        configFile = TestConfigs.createFile("config-file-watcher");
+        location = TestConfigs.location(configFile);
+    }
+    
+    @After
+    public void tearDown() {
+        ConfigFileWatcher.getInstance().setDebounce(ConfigFileWatcher.DEFAULT_DEBOUNCE_MILLIS);
+        ConfigFileWatcher.getInstance().setPollInterval(ConfigFileWatcher.DEFAULT_POLL_INTERVAL_MILLIS);
+        TestConfigs.delete(configFile);
+    }
+    
+    @Test
+    public void testPollReload() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        final ConfigHelper helper = new ConfigHelper("test");
+        Assert.assertEquals("1", ConfigSnapshotCache.getInstance().getSnapshot(location).getString("a"));
+        ConfigFileWatcher watcher = ConfigFileWatcher.getInstance();
+        watcher.setPollInterval(20);
+        long reloadCount = watcher.getReloadCount();
+        int threadCount = watcher.getActiveThreadCount();
+        ConfigFileWatcher.Registration registration = watcher.watch(configFile, new Runnable() {
+            public void run() {
+                ConfigSnapshotCache.getInstance().reload(location, helper);
+            }
+        }, ConfigFileWatcher.Strategy.POLL);
+        try {
+            TestConfigs.write(configFile, "a=2\n");
+            configFile.setLastModified(configFile.lastModified() + 2000);
+            awaitReloadCount(reloadCount + 1);
+            Assert.assertEquals("2", ConfigSnapshotCache.getInstance().getSnapshot(location).getString("a"));
+            Assert.assertTrue(watcher.getLastReloadLatencyNanos() > 0);
+            Assert.assertTrue(watcher.getMaxReloadLatencyNanos() >= watcher.getLastReloadLatencyNanos());
+            Assert.assertEquals(threadCount + 1, watcher.getActiveThreadCount());
+        } finally {
+            registration.cancel();
+        }
+        awaitThreadCount(threadCount);
+    }
+    
+    @Test
+    public void testEventDebounce() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigFileWatcher watcher = ConfigFileWatcher.getInstance();
+        watcher.setDebounce(300);
+        long reloadCount = watcher.getReloadCount();
+        int threadCount = watcher.getActiveThreadCount();
+        final AtomicInteger changes = new AtomicInteger();
+        ConfigFileWatcher.Registration registration = watcher.watch(configFile, new Runnable() {
+            public void run() {
+                changes.incrementAndGet();
+            }
+        });
+        try {
+            awaitThreadCount(threadCount + 1);
+            for (int i = 2; i < 5; i++) {
+                TestConfigs.write(configFile, "a=" + i + "\n");
+            }
+            awaitReloadCount(reloadCount + 1);
+            // A burst of writes runs the callback once
+            Thread.sleep(600);
+            Assert.assertEquals(1, changes.get());
+            Assert.assertEquals(reloadCount + 1, watcher.getReloadCount());
+            Assert.assertTrue(watcher.getLastReloadLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(300));
+        } finally {
+            registration.cancel();
+        }
+        awaitThreadCount(threadCount);
+    }
+    
+    private void awaitReloadCount(long reloadCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ConfigFileWatcher.getInstance().getReloadCount() < reloadCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(reloadCount, ConfigFileWatcher.getInstance().getReloadCount());
+    }
+    
+    private void awaitThreadCount(int threadCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ConfigFileWatcher.getInstance().getActiveThreadCount() != threadCount 
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(threadCount, ConfigFileWatcher.getInstance().getActiveThreadCount());
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ConfigInterpolatorTest {
+    
+    @Test
+    public void testReferences() throws IOException {
+        System.setProperty("interpolator.test.user", "tester");
+        try {
+            ConfigSnapshot snapshot = TestConfigs.parse(
+                    "app.home=/opt/${app.name}\n"
+                    + "app.name=shop\n"
+                    + "log.dir=${app.home}/logs\n"
+                    + "log.file=${log.dir}/${sys:interpolator.test.user}.log\n"
+                    + "missing=${no.such.key} and ${env:NO_SUCH_VARIABLE_FOR_SURE}\n"
+                    + "escaped=$${app.name}\n"
+                    + "unclosed=${app.name\n"
+                    + "port.base=8000\n"
+                    + "port=${port.base}\n", null);
+            Assert.assertEquals("/opt/shop/logs", snapshot.getString("log.dir"));
+            Assert.assertEquals("/opt/shop/logs/tester.log", snapshot.getString("log.file"));
+            Assert.assertEquals("${log.dir}/${sys:interpolator.test.user}.log", snapshot.getRawString("log.file"));
+            Assert.assertEquals("${no.such.key} and ${env:NO_SUCH_VARIABLE_FOR_SURE}", snapshot.getString("missing"));
+            Assert.assertEquals("${app.name}", snapshot.getString("escaped"));
+            Assert.assertEquals("${app.name", snapshot.getString("unclosed"));
+            Assert.assertEquals(8000, snapshot.getInt("port", -1));
+            Assert.assertEquals("/opt/shop/logs", snapshot.getResourceBundle().getString("log.dir"));
+        } finally {
+            System.clearProperty("interpolator.test.user");
+        }
+    }
+    
+    @Test
+    public void testCircularReferencesAreKeptUnresolved() throws IOException {
+        ConfigSnapshot snapshot = TestConfigs.parse("a=${b}\nb=x${a}\nc=${a}\nd=${e}\ne=ok\n");
+        Assert.assertEquals("${b}", snapshot.getString("a"));
+        Assert.assertEquals("x${a}", snapshot.getString("b"));
+        Assert.assertEquals("${a}", snapshot.getString("c"));
+        Assert.assertEquals("ok", snapshot.getString("d"));
+    }
+    
+    @Test
+    public void testOnlyAffectedEntriesAreResolvedAgain() throws IOException {
+        ConfigSnapshot first = TestConfigs.parse(
+                "host=a\nport=1\nurl=http://${host}:${port}\nname=${service}-x\nservice=s\n");
+        ConfigSnapshot second = TestConfigs.parse(
+                "host=b\nport=1\nurl=http://${host}:${port}\nname=${service}-x\nservice=s\n", first);
+        Assert.assertEquals("http://b:1", second.getString("url"));
+        Assert.assertSame(first.getString("name"), second.getString("name"));
+    }
+}
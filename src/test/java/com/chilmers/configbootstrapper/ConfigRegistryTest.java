@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigRegistryTest {
+    
+    private File first;
+    
+    private File second;
+    
+    private final ConfigHelper configHelper = new ConfigHelper("test");
+    
+    private final ConfigRegistry registry = ConfigRegistry.getInstance();
+    
+    @Before
+    public void setUp() throws IOException {
+        first = TestConfigs.createFile("config-registry");
+        second = TestConfigs.createFile("config-registry");
+    }
+    
+    @After
+    public void tearDown() {
+        while (registry.getLeaseCount(TestConfigs.location(first)) > 0) {
+            registry.release(TestConfigs.location(first));
+        }
+        while (registry.getLeaseCount(TestConfigs.location(second)) > 0) {
+            registry.release(TestConfigs.location(second));
+        }
+        TestConfigs.delete(first);
+        TestConfigs.delete(second);
+    }
+    
+    @Test
+    public void testIdenticalContentIsShared() throws IOException {
+        int sharedBefore = registry.getSharedContentCount();
+        TestConfigs.write(first, "a=1\nb=${a}2\n");
+        TestConfigs.write(second, "a=1\nb=${a}2\n");
+        ConfigSnapshot firstSnapshot = registry.acquire(TestConfigs.location(first), configHelper).getSnapshot();
+        ConfigSnapshot secondSnapshot = registry.acquire(TestConfigs.location(second), configHelper).getSnapshot();
+        
+        Assert.assertEquals(sharedBefore + 1, registry.getSharedContentCount());
+        Assert.assertEquals(TestConfigs.location(second), secondSnapshot.getLocation());
+        Assert.assertEquals("12", secondSnapshot.getString("b"));
+        Assert.assertSame(firstSnapshot.getString("b"), secondSnapshot.getString("b"));
+    }
+    
+    @Test
+    public void testDifferentContentIsNotShared() throws IOException {
+        int sharedBefore = registry.getSharedContentCount();
+        TestConfigs.write(first, "a=1\n");
+        TestConfigs.write(second, "a=2\n");
+        registry.acquire(TestConfigs.location(first), configHelper);
+        registry.acquire(TestConfigs.location(second), configHelper);
+        
+        Assert.assertEquals(sharedBefore + 2, registry.getSharedContentCount());
+    }
+    
+    @Test
+    public void testLeasesAreCounted() throws IOException {
+        TestConfigs.write(first, "a=1\n");
+        int sharedBefore = registry.getSharedContentCount();
+        registry.acquire(TestConfigs.location(first), configHelper);
+        registry.acquire(TestConfigs.location(first), configHelper);
+        Assert.assertEquals(2, registry.getLeaseCount(TestConfigs.location(first)));
+        Assert.assertEquals(sharedBefore + 1, registry.getSharedContentCount());
+        
+        registry.release(TestConfigs.location(first));
+        Assert.assertEquals(1, registry.getLeaseCount(TestConfigs.location(first)));
+        Assert.assertEquals(sharedBefore + 1, registry.getSharedContentCount());
+        
+        registry.release(TestConfigs.location(first));
+        Assert.assertEquals(0, registry.getLeaseCount(TestConfigs.location(first)));
+        Assert.assertEquals(sharedBefore, registry.getSharedContentCount());
+    }
+    
+    @Test
+    public void testReleaseKeepsReferencesInUse() throws IOException {
+        TestConfigs.write(first, "a=1\n");
+        int sharedBefore = registry.getSharedContentCount();
+        ConfigReference reference = registry.acquire(TestConfigs.location(first), configHelper);
+        ConfigKey<String> key = reference.stringKey("a", null);
+        registry.release(TestConfigs.location(first));
+        Assert.assertEquals(sharedBefore, registry.getSharedContentCount());
+        Assert.assertSame(reference, ConfigSnapshotCache.getInstance().getReference(TestConfigs.location(first), 
+                configHelper));
+        
+        TestConfigs.write(first, "a=2\n");
+        ConfigSnapshotCache.getInstance().reload(TestConfigs.location(first), configHelper);
+        Assert.assertEquals("2", key.stringValue());
+    }
+    
+    @Test
+    public void testReleaseEvictsUnusedReferences() throws IOException {
+        TestConfigs.write(first, "a=1\n");
+        ConfigReference reference = registry.acquire(TestConfigs.location(first), configHelper);
+        registry.release(TestConfigs.location(first));
+        Assert.assertNotSame(reference, ConfigSnapshotCache.getInstance().getReference(TestConfigs.location(first), 
+                configHelper));
+    }
+    
+}
@@ -0,0 +1,136 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigReloadTest {
+    
+    private File configFile;
+    
+    private String location;
+    
+    @Before
+    public void setUp() throws IOException {
+        configFile = TestConfigs.createFile("config-reload");
+        location = TestConfigs.location(configFile);
+    }
+    
+    @After
+    public void tearDown() {
+        TestConfigs.delete(configFile);
+    }
+    
+    @Test
+    public void testBrokenConfigurationKeepsLastKnownGood() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        ConfigSnapshot good = reference.getSnapshot();
+        Assert.assertEquals("1", good.getString("a"));
+        
+        TestConfigs.write(configFile, "a=\\uZZZZ\n");
+        Assert.assertSame(good, ConfigSnapshotCache.getInstance().reload(location));
+        Assert.assertEquals(1, reference.getLoadFailureCount());
+        Assert.assertSame(good, ConfigSnapshotCache.getInstance().load(location, new ConfigHelper("test")));
+        
+        configFile.delete();
+        Assert.assertSame(good, ConfigSnapshotCache.getInstance().reload(location));
+        Assert.assertEquals(2, reference.getLoadFailureCount());
+        Assert.assertEquals("1", new ConfigHelper("test").getApplicationConfiguration(location).getString("a"));
+        
+        TestConfigs.write(configFile, "a=2\n");
+        Assert.assertEquals("2", ConfigSnapshotCache.getInstance().reload(location).getString("a"));
+    }
+    
+    @Test
+    public void testValidatorsDecideWhetherToCommit() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        final List<String> applied = new ArrayList<String>();
+        reference.addValidator(new ConfigValidator() {
+            public Runnable validate(final ConfigSnapshot snapshot) {
+                if (snapshot.getInt("a", 0) < 0) {
+                    throw new IllegalArgumentException("a must not be negative");
+                }
+                return () -> applied.add(snapshot.getString("a"));
+            }
+        });
+        final List<ConfigSnapshot> changes = new ArrayList<ConfigSnapshot>();
+        reference.addChangeListener(new ConfigChangeListener() {
+            public void configurationChanged(ConfigChangeEvent event) {
+                changes.add(event.getNewSnapshot());
+                Assert.assertEquals(event.getNewSnapshot().getString("a"), applied.get(applied.size() - 1));
+            }
+        });
+        
+        TestConfigs.write(configFile, "a=-1\n");
+        Assert.assertEquals("1", ConfigSnapshotCache.getInstance().reload(location).getString("a"));
+        Assert.assertTrue(applied.isEmpty());
+        Assert.assertTrue(changes.isEmpty());
+        Assert.assertEquals(1, reference.getLoadFailureCount());
+        try {
+            ConfigSnapshotCache.getInstance().load(location, new ConfigHelper("test"));
+        } catch (ConfigLoadException e) {
+            Assert.fail("The last known good configuration should be returned");
+        }
+        
+        TestConfigs.write(configFile, "a=2\n");
+        Assert.assertEquals("2", ConfigSnapshotCache.getInstance().reload(location).getString("a"));
+        Assert.assertEquals("[2]", applied.toString());
+        Assert.assertEquals(1, changes.size());
+    }
+    
+    @Test
+    public void testRollback() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        Assert.assertNull(ConfigSnapshotCache.getInstance().rollback(location));
+        TestConfigs.write(configFile, "a=2\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        TestConfigs.write(configFile, "a=3\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        Assert.assertEquals(2, reference.getHistory().size());
+        Assert.assertEquals("2", reference.getHistory().get(0).getString("a"));
+        
+        Assert.assertEquals("2", ConfigSnapshotCache.getInstance().rollback(location).getString("a"));
+        Assert.assertEquals("2", reference.getSnapshot().getString("a"));
+        Assert.assertEquals("1", ConfigSnapshotCache.getInstance().rollback(location).getString("a"));
+        Assert.assertEquals("1", ConfigSnapshotCache.getInstance().getSnapshot(location).getString("a"));
+        Assert.assertTrue(reference.getHistory().isEmpty());
+        
+        reference.addValidator(new ConfigValidator() {
+            public Runnable validate(ConfigSnapshot snapshot) {
+                throw new IllegalStateException("rejected");
+            }
+        });
+        TestConfigs.write(configFile, "a=4\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        Assert.assertEquals("1", reference.getSnapshot().getString("a"));
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigSecretsTest {
+    
+    private SecretKey key;
+    
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        key = generator.generateKey();
+        ConfigSecrets.setKeyProvider(new KeyProvider() {
+            public SecretKey getKey() {
+                return key;
+            }
+        });
+    }
+    
+    @After
+    public void tearDown() {
+        ConfigSecrets.setKeyProvider(null);
+        System.clearProperty("secrets.test.password");
+    }
+    
+    @Test
+    public void testSecretIsDecryptedOnAccess() throws Exception {
+        String encrypted = ConfigSecrets.encrypt("s\u00e4cret".toCharArray(), key);
+        Assert.assertTrue(ConfigSecrets.isEncrypted(encrypted));
+        ConfigSnapshot snapshot = TestConfigs.parse("db.password=" + encrypted + "\ndb.user=app\n");
+        
+        Assert.assertEquals(encrypted, snapshot.getString("db.password"));
+        Assert.assertTrue(Arrays.equals("s\u00e4cret".toCharArray(), snapshot.getSecret("db.password")));
+        Assert.assertTrue(Arrays.equals("s\u00e4cret".toCharArray(), snapshot.subset("db.").getSecret("password")));
+        Assert.assertTrue(Arrays.equals("app".toCharArray(), snapshot.getSecret("db.user")));
+        Assert.assertNull(snapshot.getSecret("db.missing"));
+    }
+    
+    @Test
+    public void testSecretsAreZeroedWhenReplaced() throws Exception {
+        ConfigSnapshot snapshot = TestConfigs.parse(
+                "db.password=" + ConfigSecrets.encrypt("secret".toCharArray(), key) + "\n");
+        snapshot.getSecret("db.password");
+        Field field = ConfigSnapshot.class.getDeclaredField("secrets");
+        field.setAccessible(true);
+        char[] kept = ((char[][]) field.get(snapshot))[snapshot.indexOf("db.password")];
+        Assert.assertTrue(Arrays.equals("secret".toCharArray(), kept));
+        
+        ConfigReference reference = new ConfigReference("test");
+        reference.update(snapshot);
+        reference.update(TestConfigs.parse("db.password=other\n"));
+        Assert.assertTrue(Arrays.equals("secret".toCharArray(), kept));
+        for (int i = 0; i < ConfigReference.HISTORY_SIZE; i++) {
+            reference.update(TestConfigs.parse("db.password=other" + i + "\n"));
+        }
+        Assert.assertTrue(Arrays.equals(new char[6], kept));
+        Assert.assertTrue(Arrays.equals("secret".toCharArray(), snapshot.getSecret("db.password")));
+        Assert.assertNull(field.get(snapshot));
+    }
+    
+    @Test
+    public void testSecretsAreKeptForRollback() throws Exception {
+        final int[] decryptions = new int[1];
+        ConfigSecrets.setKeyProvider(new KeyProvider() {
+            public SecretKey getKey() {
+                decryptions[0]++;
+                return key;
+            }
+        });
+        ConfigSnapshot snapshot = TestConfigs.parse(
+                "db.password=" + ConfigSecrets.encrypt("secret".toCharArray(), key) + "\n");
+        ConfigReference reference = new ConfigReference("test");
+        reference.update(snapshot);
+        Assert.assertTrue(Arrays.equals("secret".toCharArray(), reference.getSnapshot().getSecret("db.password")));
+        reference.update(TestConfigs.parse("db.password=other\n"));
+        reference.commit(reference.getPrevious(), Collections.<Runnable>emptyList(), true);
+        
+        Assert.assertSame(snapshot, reference.getSnapshot());
+        Assert.assertTrue(Arrays.equals("secret".toCharArray(), reference.getSnapshot().getSecret("db.password")));
+        Assert.assertTrue(Arrays.equals("secret".toCharArray(), reference.getSnapshot().getSecret("db.password")));
+        Assert.assertEquals(1, decryptions[0]);
+        
+        reference.update(TestConfigs.parse("db.password=other\n"));
+        reference.clearHistory();
+        decryptions[0] = 0;
+        snapshot.getSecret("db.password");
+        snapshot.getSecret("db.password");
+        Assert.assertEquals(2, decryptions[0]);
+    }
+    
+    @Test
+    public void testWrongKey() throws Exception {
+        ConfigSnapshot snapshot = TestConfigs.parse(
+                "db.password=" + ConfigSecrets.encrypt("secret".toCharArray(), key) + "\n");
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        key = generator.generateKey();
+        try {
+            snapshot.getSecret("db.password");
+            Assert.fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("db.password"));
+        }
+    }
+    
+    @Test
+    public void testKeyStoreKeyProvider() throws Exception {
+        File keyStoreFile = File.createTempFile("config-secrets", ".p12");
+        try {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(null, null);
+            keyStore.setEntry("config", new KeyStore.SecretKeyEntry(key), 
+                    new KeyStore.PasswordProtection("changeit".toCharArray()));
+            OutputStream os = new FileOutputStream(keyStoreFile);
+            try {
+                keyStore.store(os, "changeit".toCharArray());
+            } finally {
+                os.close();
+            }
+            KeyProvider provider = new KeyStoreKeyProvider(keyStoreFile, "changeit".toCharArray(), "config", "PKCS12");
+            Assert.assertTrue(Arrays.equals(key.getEncoded(), provider.getKey().getEncoded()));
+        } finally {
+            keyStoreFile.delete();
+        }
+    }
+    
+    @Test
+    public void testSecretsAreOnlyExportedWhenAllowed() throws Exception {
+        ConfigSnapshot snapshot = TestConfigs.parse("system.property.secrets.test.password=" 
+                + ConfigSecrets.encrypt("secret".toCharArray(), key) + "\n");
+        SystemPropertyExporter exporter = new SystemPropertyExporter("system.property.");
+        SystemPropertyExporter.Result result = exporter.export(snapshot, false, null);
+        Assert.assertEquals(Arrays.asList("secrets.test.password"), result.skipped);
+        Assert.assertNull(System.getProperty("secrets.test.password"));
+        
+        exporter.setExportSecrets(true);
+        exporter.export(snapshot, false, null);
+        Assert.assertEquals("secret", System.getProperty("secrets.test.password"));
+    }
+}
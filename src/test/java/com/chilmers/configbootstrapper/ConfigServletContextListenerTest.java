@@ -19,12 +19,26 @@
  */
 package com.chilmers.configbootstrapper;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 
 import junit.framework.Assert;
 
 import org.apache.log4j.LogManager;
+import org.apache.log4j.spi.LoggerRepository;
 import org.junit.Test;
 import org.springframework.mock.web.MockServletContext;
 
@@ -39,4 +53,184 @@ public class ConfigServletContextListenerTest {
         Assert.assertNotNull(LogManager.exists("com.chilmers.configbootstrapper.test"));
     }
     
+    @Test
+    public void testFileConfiguration() throws Exception {
+        File configFile = TestConfigs.createFile("config-bootstrapper-test");
+        try {
+            TestConfigs.write(configFile, "system.property.config.bootstrapper.test.foo=bar\n" 
+                    + "application.log4j.config.location=classpath:log4j.xml\n");
+            System.clearProperty("application.config.location");
+            MockServletContext contextMock = new MockServletContext();
+            contextMock.addInitParameter("application.config.location", configFile.getAbsolutePath());
+            contextMock.addInitParameter("configServletContextListener.applicationName", "file-configuration-test");
+            ConfigServletContextListener testee = new ConfigServletContextListener();
+            testee.contextInitialized(new ServletContextEvent(contextMock));
+            Assert.assertEquals(TestConfigs.location(configFile), System.getProperty("application.config.location"));
+            Assert.assertEquals("bar", System.getProperty("config.bootstrapper.test.foo"));
+            Assert.assertEquals("bar", ConfigHelper.readApplicationConfigurationSnapshot()
+                    .getString("system.property.config.bootstrapper.test.foo"));
+            
+            ObjectName metricsName = new ObjectName(
+                    "com.chilmers.configbootstrapper:type=ConfigBootstrapper,name=\"file-configuration-test\"");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(Integer.valueOf(2), server.getAttribute(metricsName, "ConfigKeyCount"));
+            Assert.assertTrue(((Long) server.getAttribute(metricsName, "BootstrapNanos")).longValue() > 0);
+            testee.contextDestroyed(new ServletContextEvent(contextMock));
+            Assert.assertFalse(server.isRegistered(metricsName));
+        } finally {
+            System.clearProperty("application.config.location");
+            System.clearProperty("config.bootstrapper.test.foo");
+            TestConfigs.delete(configFile);
+        }
+    }
+    
+    @Test
+    public void testReloadCountOnlyCountsReloadsAfterInitialization() throws Exception {
+        File configFile = TestConfigs.createFile("config-bootstrapper-test");
+        String location = TestConfigs.location(configFile);
+        try {
+            TestConfigs.write(configFile, "reload.count.test=1\n");
+            ConfigHelper helper = new ConfigHelper("another-application");
+            // Another application that reads the same location before this one is initialized
+            ConfigRegistry.getInstance().acquire(location, helper);
+            ConfigSnapshotCache.getInstance().reload(location, helper);
+            System.clearProperty("application.config.location");
+            MockServletContext contextMock = new MockServletContext();
+            contextMock.addInitParameter("application.config.location", configFile.getAbsolutePath());
+            contextMock.addInitParameter("configServletContextListener.applicationName", "reload-count-test");
+            // Polled at the default interval, so the watch does not reload while the counts are checked
+            contextMock.addInitParameter("configServletContextListener.watchStrategy", "poll");
+            ConfigServletContextListener testee = new ConfigServletContextListener();
+            testee.contextInitialized(new ServletContextEvent(contextMock));
+            
+            ObjectName metricsName = new ObjectName(
+                    "com.chilmers.configbootstrapper:type=ConfigBootstrapper,name=\"reload-count-test\"");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(Long.valueOf(0), server.getAttribute(metricsName, "ReloadCount"));
+            TestConfigs.write(configFile, "reload.count.test=2\n");
+            ConfigSnapshotCache.getInstance().reload(location, helper);
+            Assert.assertEquals(Long.valueOf(1), server.getAttribute(metricsName, "ReloadCount"));
+            Assert.assertEquals(Long.valueOf(0), server.getAttribute(metricsName, "ReloadFailureCount"));
+            testee.contextDestroyed(new ServletContextEvent(contextMock));
+        } finally {
+            ConfigRegistry.getInstance().release(location);
+            System.clearProperty("application.config.location");
+            TestConfigs.delete(configFile);
+        }
+    }
+    
+    @Test
+    public void testDestroyCompletesWhenTheWatchFailed() throws Exception {
+        File configFile = TestConfigs.createFile("config-bootstrapper-test");
+        try {
+            TestConfigs.write(configFile, "watch.failure.test=true\n");
+            System.clearProperty("application.config.location");
+            MockServletContext contextMock = new MockServletContext();
+            contextMock.addInitParameter("application.config.location", configFile.getAbsolutePath());
+            contextMock.addInitParameter("configServletContextListener.applicationName", "watch-failure-test");
+            ConfigServletContextListener testee = new ConfigServletContextListener();
+            testee.contextInitialized(new ServletContextEvent(contextMock));
+            CompletableFuture<Void> failedWatch = new CompletableFuture<Void>();
+            failedWatch.completeExceptionally(new IllegalStateException("watch failed"));
+            Field pendingWatch = ConfigServletContextListener.class.getDeclaredField("pendingWatch");
+            pendingWatch.setAccessible(true);
+            pendingWatch.set(testee, failedWatch);
+            
+            ObjectName metricsName = new ObjectName(
+                    "com.chilmers.configbootstrapper:type=ConfigBootstrapper,name=\"watch-failure-test\"");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertTrue(server.isRegistered(metricsName));
+            testee.contextDestroyed(new ServletContextEvent(contextMock));
+            Assert.assertFalse(server.isRegistered(metricsName));
+        } finally {
+            System.clearProperty("application.config.location");
+            TestConfigs.delete(configFile);
+        }
+    }
+    
+    @Test
+    public void testConfigTypes() throws Exception {
+        File configFile = TestConfigs.createFile("config-bootstrapper-test");
+        try {
+            TestConfigs.write(configFile, "port=8080\n");
+            System.clearProperty("application.config.location");
+            MockServletContext contextMock = new MockServletContext();
+            contextMock.addInitParameter("application.config.location", configFile.getAbsolutePath());
+            contextMock.addInitParameter("configServletContextListener.applicationName", "config-types-test");
+            contextMock.addInitParameter("configServletContextListener.configTypes",
+                    ConfigBinderTest.ServerConfig.class.getName());
+            ConfigServletContextListener testee = new ConfigServletContextListener();
+            testee.contextInitialized(new ServletContextEvent(contextMock));
+            ConfigBinderTest.ServerConfig config = (ConfigBinderTest.ServerConfig) contextMock.getAttribute(
+                    ConfigBinderTest.ServerConfig.class.getName());
+            Assert.assertEquals(8080, config.getPort());
+            testee.contextDestroyed(new ServletContextEvent(contextMock));
+
+            TestConfigs.write(configFile, "port=http\n");
+            contextMock.addInitParameter("configServletContextListener.applicationName", "config-types-failure-test");
+            testee = new ConfigServletContextListener();
+            try {
+                testee.contextInitialized(new ServletContextEvent(contextMock));
+                Assert.fail("Expected the initialization to fail");
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getMessage().contains("port"));
+            }
+        } finally {
+            System.clearProperty("application.config.location");
+            TestConfigs.delete(configFile);
+        }
+    }
+
+    @Test
+    public void testBootstrapLogIsFlushedWhenInitializationFails() throws Exception {
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+        BootstrapLog.getInstance().setSink(new BootstrapLogSink() {
+            public void write(List<String> lines) {
+                written.addAll(lines);
+            }
+        });
+        BootstrapLog.getInstance().setBatchSize(Integer.MAX_VALUE);
+        try {
+            MockServletContext contextMock = new MockServletContext();
+            contextMock.addInitParameter("configServletContextListener.applicationName", "flush-on-failure-test");
+            contextMock.addInitParameter("configServletContextListener.configAccessSampleRate", "often");
+            contextMock.addInitParameter("configServletContextListener.configTypes", "com.example.MissingConfig");
+            try {
+                new ConfigServletContextListener().contextInitialized(new ServletContextEvent(contextMock));
+                Assert.fail("Expected the initialization to fail");
+            } catch (IllegalStateException e) {
+                Assert.assertFalse(written.isEmpty());
+                Assert.assertTrue(written.get(written.size() - 1).contains("Invalid config access sample rate often"));
+            }
+        } finally {
+            BootstrapLog.getInstance().setSink(null);
+            BootstrapLog.getInstance().setBatchSize(32);
+        }
+    }
+    
+    @Test
+    public void testIsolatedLoggingUsesDefaultLog4jConfiguration() throws Exception {
+        File configFile = TestConfigs.createFile("config-bootstrapper-test");
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        // A class loader of its own, as a web application has, so the isolated repository is not shared with other tests
+        thread.setContextClassLoader(new URLClassLoader(new URL[0], original));
+        try {
+            TestConfigs.write(configFile, "isolated.logging.test=true\n");
+            System.clearProperty("application.config.location");
+            MockServletContext contextMock = new MockServletContext();
+            contextMock.addInitParameter("application.config.location", configFile.getAbsolutePath());
+            contextMock.addInitParameter("configServletContextListener.applicationName", "isolated-logging-test");
+            contextMock.addInitParameter("configServletContextListener.isolatedLogging", "true");
+            ConfigServletContextListener testee = new ConfigServletContextListener();
+            testee.contextInitialized(new ServletContextEvent(contextMock));
+            LoggerRepository repository = LogManager.getLoggerRepository();
+            Assert.assertTrue(repository.getRootLogger().getAllAppenders().hasMoreElements());
+            testee.contextDestroyed(new ServletContextEvent(contextMock));
+        } finally {
+            thread.setContextClassLoader(original);
+            System.clearProperty("application.config.location");
+            TestConfigs.delete(configFile);
+        }
+    }
 }
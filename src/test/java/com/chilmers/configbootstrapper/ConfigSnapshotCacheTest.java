@@ -0,0 +1,216 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigSnapshotCacheTest {
+    
+    private File configFile;
+    
+    private String location;
+    
+    @Before
+    public void setUp() throws IOException {
+        configFile = TestConfigs.createFile("config-snapshot-cache");
+        location = TestConfigs.location(configFile);
+    }
+    
+    @After
+    public void tearDown() {
+        ConfigSnapshotCache.getInstance().setCheckInterval(1000);
+        TestConfigs.delete(configFile);
+    }
+    
+    @Test
+    public void testSnapshotLookup() throws IOException {
+        TestConfigs.write(configFile, "a=1\nb=two\nc=\n");
+        ConfigSnapshot snapshot = ConfigSnapshotCache.getInstance().getSnapshot(location);
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals("1", snapshot.getString("a"));
+        Assert.assertEquals("two", snapshot.getString("b"));
+        Assert.assertEquals("", snapshot.getString("c"));
+        Assert.assertNull(snapshot.getString("d"));
+        Assert.assertEquals("default", snapshot.getString("d", "default"));
+        Assert.assertEquals("two", snapshot.getResourceBundle().getString("b"));
+    }
+    
+    @Test
+    public void testTypedValues() throws IOException {
+        TestConfigs.write(configFile, "int=42\nlong=10000000000\nbool=yes\nduration=5m\niso=PT1.5S\ntext=hello\n");
+        ConfigView config = new ConfigHelper("test").getApplicationConfigView(location);
+        Assert.assertEquals(42, config.getInt("int", -1));
+        Assert.assertEquals(-1, config.getInt("long", -1));
+        Assert.assertEquals(10000000000L, config.getLong("long", -1));
+        Assert.assertTrue(config.getBoolean("bool", false));
+        Assert.assertEquals(Duration.ofMinutes(5), config.getDuration("duration", null));
+        Assert.assertEquals(Duration.ofMillis(1500), config.getDuration("iso", null));
+        Assert.assertEquals(Duration.ofMillis(42), config.getDuration("int", null));
+        Assert.assertEquals(-1, config.getInt("text", -1));
+        Assert.assertFalse(config.getBoolean("text", false));
+        Assert.assertEquals(7, config.getInt("missing", 7));
+    }
+    
+    @Test
+    public void testSubset() throws IOException {
+        TestConfigs.write(configFile, "db.url=jdbc:h2:mem\ndb.pool.size=5\ndb=root\ndbx.a=1\ncache.ttl=5m\nd.b=2\n");
+        ConfigSnapshot snapshot = ConfigSnapshotCache.getInstance().getSnapshot(location);
+        ConfigSubset db = snapshot.subset("db.");
+        Assert.assertEquals(2, db.size());
+        Assert.assertEquals("pool.size", db.getKey(0));
+        Assert.assertEquals("url", db.getKey(1));
+        Assert.assertEquals("jdbc:h2:mem", db.getString("url"));
+        Assert.assertEquals(5, db.getInt("pool.size", -1));
+        Assert.assertNull(db.getString("db.url"));
+        Assert.assertFalse(db.containsKey("a"));
+        Assert.assertEquals(5, db.subset("pool.").getInt("size", -1));
+        Assert.assertEquals(Duration.ofMinutes(5), snapshot.subset("cache.").getDuration("ttl", null));
+        Assert.assertEquals(0, snapshot.subset("missing.").size());
+        Assert.assertEquals(snapshot.size(), snapshot.subset("").size());
+    }
+    
+    @Test
+    public void testCachedUntilChanged() throws IOException {
+        ConfigSnapshotCache.getInstance().setCheckInterval(0);
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigSnapshot first = ConfigSnapshotCache.getInstance().getSnapshot(location);
+        Assert.assertSame(first, ConfigSnapshotCache.getInstance().getSnapshot(location));
+        
+        TestConfigs.write(configFile, "a=22\n");
+        configFile.setLastModified(configFile.lastModified() + 2000);
+        ConfigSnapshot second = ConfigSnapshotCache.getInstance().getSnapshot(location);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals("22", second.getString("a"));
+    }
+    
+    @Test
+    public void testCheckInterval() throws IOException {
+        ConfigSnapshotCache.getInstance().setCheckInterval(60000);
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigSnapshot first = ConfigSnapshotCache.getInstance().getSnapshot(location);
+        TestConfigs.write(configFile, "a=22\n");
+        configFile.setLastModified(configFile.lastModified() + 2000);
+        Assert.assertSame(first, ConfigSnapshotCache.getInstance().getSnapshot(location));
+        
+        ConfigHelper.invalidateApplicationConfiguration(location);
+        Assert.assertEquals("22", ConfigSnapshotCache.getInstance().getSnapshot(location).getString("a"));
+    }
+    
+    @Test
+    public void testKeyHandlesFollowReload() throws IOException {
+        TestConfigs.write(configFile, "flag=on\nlimit=10\n");
+        ConfigReference reference = new ConfigHelper("test").getApplicationConfigReference(location);
+        ConfigKey<Boolean> flag = reference.booleanKey("flag", false);
+        ConfigKey<Integer> limit = reference.intKey("limit", -1);
+        ConfigKey<String> added = reference.stringKey("added", "none");
+        Assert.assertTrue(flag.booleanValue());
+        Assert.assertEquals(10, limit.intValue());
+        Assert.assertEquals(Integer.valueOf(10), limit.get());
+        Assert.assertEquals("none", added.stringValue());
+        
+        TestConfigs.write(configFile, "flag=off\nadded=yes\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        Assert.assertFalse(flag.booleanValue());
+        Assert.assertEquals(-1, limit.intValue());
+        Assert.assertEquals("yes", added.stringValue());
+    }
+    
+    @Test
+    public void testChangeListener() throws IOException {
+        TestConfigs.write(configFile, "same=1\nchanged=a\nremoved=x\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        final List<ConfigChangeEvent> events = new ArrayList<ConfigChangeEvent>();
+        reference.addChangeListener(new ConfigChangeListener() {
+            public void configurationChanged(ConfigChangeEvent event) {
+                events.add(event);
+            }
+        });
+        ConfigSnapshotCache.getInstance().reload(location);
+        Assert.assertTrue(events.isEmpty());
+        
+        TestConfigs.write(configFile, "same=1\nchanged=b\nadded=y\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        Assert.assertEquals(1, events.size());
+        ConfigChangeEvent event = events.get(0);
+        Assert.assertEquals(Collections.singleton("added"), event.getAddedKeys());
+        Assert.assertEquals(Collections.singleton("removed"), event.getRemovedKeys());
+        Assert.assertEquals(Collections.singleton("changed"), event.getChangedKeys());
+        Assert.assertEquals("b", event.getNewSnapshot().getString("changed"));
+        Assert.assertEquals("a", event.getOldSnapshot().getString("changed"));
+    }
+    
+    @Test
+    public void testLoadAsync() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigHelper helper = new ConfigHelper("test");
+        Assert.assertEquals("1", helper.loadAsync(location).get(5, TimeUnit.SECONDS).getString("a"));
+        
+        String missing = location + ".missing";
+        try {
+            helper.loadAsync(missing).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            ConfigLoadException cause = (ConfigLoadException) e.getCause();
+            Assert.assertEquals(ConfigLoadException.Reason.NOT_FOUND, cause.getReason());
+            Assert.assertEquals(missing, cause.getLocation());
+        } finally {
+            ConfigSnapshotCache.getInstance().invalidate(missing);
+        }
+    }
+    
+    @Test
+    public void testUpdatesPublisher() throws Exception {
+        TestConfigs.write(configFile, "a=1\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        final LinkedBlockingQueue<ConfigSnapshot> updates = new LinkedBlockingQueue<ConfigSnapshot>();
+        reference.getUpdates().subscribe(new Flow.Subscriber<ConfigSnapshot>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+            public void onNext(ConfigSnapshot item) {
+                updates.add(item);
+            }
+            public void onError(Throwable throwable) {
+            }
+            public void onComplete() {
+            }
+        });
+        TestConfigs.write(configFile, "a=2\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        ConfigSnapshot update = updates.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(update);
+        Assert.assertEquals("2", update.getString("a"));
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigSnapshotStoreTest {
+    
+    private File configFile;
+    
+    private File storeDirectory;
+    
+    private String location;
+    
+    private final ConfigHelper configHelper = new ConfigHelper("test");
+    
+    @Before
+    public void setUp() throws IOException {
+        configFile = TestConfigs.createFile("config-snapshot-store");
+        location = TestConfigs.location(configFile);
+        storeDirectory = new File(configFile.getPath() + "-store");
+        System.setProperty(ConfigSnapshotCache.SNAPSHOT_STORE_PROPERTY_KEY, storeDirectory.getPath());
+    }
+    
+    @After
+    public void tearDown() {
+        System.clearProperty(ConfigSnapshotCache.SNAPSHOT_STORE_PROPERTY_KEY);
+        File[] files = storeDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        storeDirectory.delete();
+        TestConfigs.delete(configFile);
+    }
+    
+    @Test
+    public void testSnapshotIsWrittenAndRead() throws IOException {
+        TestConfigs.write(configFile, "a=1\nb=${a}2\nc=\u00e5\u00e4\u00f6\n");
+        ConfigSnapshot parsed = configHelper.readSnapshot(location);
+        File snapshotFile = ConfigSnapshotStore.forFile(configFile, configHelper).getSnapshotFile();
+        Assert.assertTrue(snapshotFile.isFile());
+        
+        ConfigSnapshot stored = configHelper.readSnapshot(location);
+        Assert.assertNotSame(parsed, stored);
+        Assert.assertEquals(3, stored.size());
+        Assert.assertEquals("12", stored.getString("b"));
+        Assert.assertEquals("${a}2", stored.getRawString("b"));
+        Assert.assertEquals("\u00e5\u00e4\u00f6", stored.getString("c"));
+        Assert.assertEquals(configFile.length(), stored.getSourceBytes());
+    }
+    
+    @Test
+    public void testChangedConfigurationIsParsed() throws IOException {
+        TestConfigs.write(configFile, "a=1\n");
+        configHelper.readSnapshot(location);
+        File snapshotFile = ConfigSnapshotStore.forFile(configFile, configHelper).getSnapshotFile();
+        long length = snapshotFile.length();
+        
+        TestConfigs.write(configFile, "a=2\n");
+        Assert.assertEquals("2", configHelper.readSnapshot(location).getString("a"));
+        Assert.assertEquals(length, snapshotFile.length());
+        Assert.assertEquals("2", configHelper.readSnapshot(location).getString("a"));
+    }
+    
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws IOException {
+        TestConfigs.write(configFile, "a=1\nb=2\n");
+        configHelper.readSnapshot(location);
+        File snapshotFile = ConfigSnapshotStore.forFile(configFile, configHelper).getSnapshotFile();
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+        Assert.assertEquals("2", configHelper.readSnapshot(location).getString("b"));
+        Assert.assertEquals("2", configHelper.readSnapshot(location).getString("b"));
+    }
+    
+    @Test
+    public void testFlippedValueIsIgnored() throws IOException {
+        TestConfigs.write(configFile, "a=1\nb=2\n");
+        configHelper.readSnapshot(location);
+        File snapshotFile = ConfigSnapshotStore.forFile(configFile, configHelper).getSnapshotFile();
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            // The value of the last entry
+            file.seek(file.length() - 1);
+            file.write('7');
+        } finally {
+            file.close();
+        }
+        ConfigSnapshot snapshot = configHelper.readSnapshot(location);
+        Assert.assertEquals("1", snapshot.getString("a"));
+        Assert.assertEquals("2", snapshot.getString("b"));
+    }
+    
+}
@@ -0,0 +1,239 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletContextEvent;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockServletContext;
+
+public class ConfigSourcesTest {
+    
+    private final ConfigHelper configHelper = new ConfigHelper("test");
+    
+    private TestSource registered;
+    
+    private File temporary;
+    
+    @After
+    public void tearDown() {
+        if (registered != null) {
+            ConfigSources.unregister(registered);
+        }
+        if (temporary != null) {
+            delete(temporary);
+        }
+    }
+    
+    @Test
+    public void testCompressedConfiguration() throws IOException, ConfigLoadException {
+        temporary = File.createTempFile("config-sources", ".properties.gz");
+        OutputStream os = new GZIPOutputStream(new FileOutputStream(temporary));
+        try {
+            os.write("a=1\nb=${a}2\n".getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        ConfigSnapshot snapshot = configHelper.loadSnapshot("file:" + temporary.getPath(), null);
+        Assert.assertEquals("12", snapshot.getString("b"));
+    }
+    
+    @Test
+    public void testPriority() {
+        TestSource low = new TestSource(-1, 0);
+        ConfigSources.register(low);
+        try {
+            Assert.assertTrue(ConfigSources.find("test:a") == low);
+            registered = new TestSource(0, 0);
+            ConfigSources.register(registered);
+            Assert.assertTrue(ConfigSources.find("test:a") == registered);
+            Assert.assertTrue(ConfigSources.find("file:/a.properties") instanceof FileConfigSource);
+            Assert.assertTrue(ConfigSources.find("file:/a.properties.gz") instanceof GzipConfigSource);
+            Assert.assertNull(ConfigSources.find("unknown:a"));
+        } finally {
+            ConfigSources.unregister(low);
+        }
+    }
+    
+    @Test
+    public void testLatencyBudget() throws ConfigLoadException {
+        registered = new TestSource(0, 100);
+        ConfigSources.register(registered);
+        try {
+            registered.delayMillis = 5000;
+            configHelper.loadSnapshot("test:slow", null);
+            Assert.fail("Expected a ConfigLoadException");
+        } catch (ConfigLoadException e) {
+            Assert.assertEquals(ConfigLoadException.Reason.READ_FAILED, e.getReason());
+        }
+        
+        registered.delayMillis = 0;
+        Assert.assertEquals("test:slow", configHelper.loadSnapshot("test:slow", null).getString("location"));
+        
+        registered.delayMillis = 5000;
+        long start = System.nanoTime();
+        Assert.assertEquals("test:slow", configHelper.loadSnapshot("test:slow", null).getString("location"));
+        Assert.assertTrue(System.nanoTime() - start < 4000000000L);
+        
+        // The content read by an unregistered source is forgotten
+        ConfigSources.unregister(registered);
+        registered = new TestSource(0, 100);
+        registered.delayMillis = 5000;
+        ConfigSources.register(registered);
+        try {
+            configHelper.loadSnapshot("test:slow", null);
+            Assert.fail("Expected a ConfigLoadException");
+        } catch (ConfigLoadException e) {
+            Assert.assertEquals(ConfigLoadException.Reason.READ_FAILED, e.getReason());
+        }
+    }
+    
+    @Test
+    public void testDiscovery() throws IOException {
+        Assert.assertNull(ConfigSources.find("discovered:a"));
+        URLClassLoader classLoader = createDiscoveringClassLoader();
+        try {
+            Assert.assertEquals(1, ConfigSources.discover(classLoader).size());
+            ConfigSource source = ConfigSources.find("discovered:a");
+            Assert.assertTrue(source instanceof DiscoveredSource);
+            Assert.assertTrue(ConfigSources.discover(classLoader).isEmpty());
+            ConfigSources.unregister(source);
+            Assert.assertNull(ConfigSources.find("discovered:a"));
+        } finally {
+            classLoader.close();
+        }
+    }
+    
+    @Test
+    public void testDiscoveredSourcesAreUnregisteredWithTheContext() throws IOException {
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        URLClassLoader classLoader = createDiscoveringClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            MockServletContext contextMock = new MockServletContext();
+            contextMock.addInitParameter("configServletContextListener.applicationName", "discovery-test");
+            ConfigServletContextListener testee = new ConfigServletContextListener();
+            testee.contextInitialized(new ServletContextEvent(contextMock));
+            Assert.assertTrue(ConfigSources.find("discovered:a") instanceof DiscoveredSource);
+            testee.contextDestroyed(new ServletContextEvent(contextMock));
+            Assert.assertNull(ConfigSources.find("discovered:a"));
+        } finally {
+            thread.setContextClassLoader(original);
+            System.clearProperty("application.config.location");
+            classLoader.close();
+        }
+    }
+    
+    /**
+     * @return a class loader that lists {@link DiscoveredSource} as a configuration source
+     */
+    private URLClassLoader createDiscoveringClassLoader() throws IOException {
+        temporary = File.createTempFile("config-sources", "");
+        temporary.delete();
+        File services = new File(temporary, "META-INF/services");
+        services.mkdirs();
+        OutputStream os = new FileOutputStream(new File(services, ConfigSource.class.getName()));
+        try {
+            os.write((DiscoveredSource.class.getName() + "\n").getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        return new URLClassLoader(new URL[] {temporary.toURI().toURL()}, getClass().getClassLoader());
+    }
+    
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+    
+    /**
+     * Returns location=&lt;location&gt; for test: locations
+     */
+    private static class TestSource implements ConfigSource {
+        
+        private final int priority;
+        
+        private final long timeoutMillis;
+        
+        volatile long delayMillis;
+        
+        TestSource(int priority, long timeoutMillis) {
+            this.priority = priority;
+            this.timeoutMillis = timeoutMillis;
+        }
+        
+        public boolean supports(String location) {
+            return location.startsWith("test:");
+        }
+        
+        public InputStream open(String location) throws IOException {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new ByteArrayInputStream(("location=" + location).getBytes("UTF-8"));
+        }
+        
+        public long getVersion(String location) {
+            return 0;
+        }
+        
+        public int getPriority() {
+            return priority;
+        }
+        
+        public long getTimeoutMillis(String location) {
+            return timeoutMillis;
+        }
+    }
+    
+    public static class DiscoveredSource extends TestSource {
+        
+        public DiscoveredSource() {
+            super(0, 0);
+        }
+        
+        public boolean supports(String location) {
+            return location.startsWith("discovered:");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryConfigSourceTest {
+    
+    private File directory;
+    
+    private String location;
+    
+    private final ConfigHelper configHelper = new ConfigHelper("test");
+    
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("conf", ".d");
+        directory.delete();
+        directory.mkdirs();
+        location = "dir:" + directory.getPath();
+    }
+    
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    @Test
+    public void testFragmentsAreMergedInNameOrder() throws IOException, ConfigLoadException {
+        write("20-team-b.properties", "b=${a}2\nc=b\n");
+        write("10-team-a.properties", "a=1\nb=a\nc=a\n");
+        write("30-team-c.properties", "c=c\n");
+        write("notes.txt", "c=ignored\n");
+        ConfigSnapshot snapshot = configHelper.loadSnapshot(location, null);
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals("1", snapshot.getString("a"));
+        Assert.assertEquals("12", snapshot.getString("b"));
+        Assert.assertEquals("c", snapshot.getString("c"));
+    }
+    
+    @Test
+    public void testOnlyChangedFragmentsAreParsed() throws IOException, ConfigLoadException {
+        DirectoryConfigSource source = new DirectoryConfigSource();
+        write("10-team-a.properties", "a=unchanged\n");
+        write("20-team-b.properties", "b=1\n");
+        ConfigSnapshot first = source.load(location, null, configHelper);
+        long version = source.getVersion(location);
+        
+        write("20-team-b.properties", "b=22\n");
+        Assert.assertTrue(source.getVersion(location) != version);
+        ConfigSnapshot second = source.load(location, first, configHelper);
+        Assert.assertEquals("22", second.getString("b"));
+        Assert.assertSame(first.getRawString("a"), second.getRawString("a"));
+        
+        new File(directory, "20-team-b.properties").delete();
+        ConfigSnapshot third = source.load(location, second, configHelper);
+        Assert.assertNull(third.getString("b"));
+        Assert.assertSame(first.getRawString("a"), third.getRawString("a"));
+    }
+    
+    @Test
+    public void testReleasedFragmentsAreParsedAgain() throws IOException, ConfigLoadException {
+        DirectoryConfigSource source = new DirectoryConfigSource();
+        write("10-team-a.properties", "a=1\n");
+        ConfigSnapshot first = source.load(location, null, configHelper);
+        source.release(location);
+        ConfigSnapshot second = source.load(location, first, configHelper);
+        Assert.assertEquals("1", second.getString("a"));
+        Assert.assertNotSame(first.getRawString("a"), second.getRawString("a"));
+    }
+    
+    @Test
+    public void testMissingDirectory() {
+        try {
+            configHelper.loadSnapshot(location + "-missing", null);
+            Assert.fail("Expected a ConfigLoadException");
+        } catch (ConfigLoadException e) {
+            Assert.assertEquals(ConfigLoadException.Reason.NOT_FOUND, e.getReason());
+        }
+    }
+    
+    private void write(String name, String content) throws IOException {
+        OutputStream os = new FileOutputStream(new File(directory, name));
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FeatureFlagsTest {
+    
+    private File configFile;
+    
+    private String location;
+    
+    @Before
+    public void setUp() throws IOException {
+        configFile = TestConfigs.createFile("feature-flags");
+        location = TestConfigs.location(configFile);
+    }
+    
+    @After
+    public void tearDown() {
+        TestConfigs.delete(configFile);
+    }
+    
+    @Test
+    public void testOnOffAndAllowList() throws Exception {
+        TestConfigs.write(configFile, "feature.on=on\nfeature.off=false\nfeature.beta=off\n" 
+                + "feature.beta.allow=alice, bob,42\nfeature.invalid=sometimes\n");
+        FeatureFlags flags = ConfigSnapshotCache.getInstance().getReference(location).getFeatureFlags();
+        Assert.assertEquals("[beta, invalid, off, on]", flags.getFlagNames().toString());
+        Assert.assertTrue(flags.flag("on").isEnabled());
+        Assert.assertTrue(flags.isEnabled("on", "anyone"));
+        Assert.assertTrue(flags.isEnabled("on", 7));
+        Assert.assertFalse(flags.isEnabled("off", "anyone"));
+        Assert.assertFalse(flags.isEnabled("invalid", "anyone"));
+        Assert.assertFalse(flags.isEnabled("missing", "anyone"));
+        
+        FeatureFlags.Flag beta = flags.flag("beta");
+        Assert.assertSame(beta, flags.flag("beta"));
+        Assert.assertFalse(beta.isEnabled());
+        Assert.assertTrue(beta.isEnabled("alice"));
+        Assert.assertTrue(beta.isEnabled("bob"));
+        Assert.assertFalse(beta.isEnabled("carol"));
+        Assert.assertFalse(beta.isEnabled(null));
+        Assert.assertTrue(beta.isEnabled(42));
+        Assert.assertTrue(beta.isEnabled("42"));
+        Assert.assertFalse(beta.isEnabled(43));
+        Assert.assertEquals(8, beta.getEvaluationCount());
+        Assert.assertEquals(4, beta.getEnabledCount());
+    }
+    
+    @Test
+    public void testPercentageRollout() throws Exception {
+        TestConfigs.write(configFile, "feature.rollout=25%\n");
+        ConfigReference reference = ConfigSnapshotCache.getInstance().getReference(location);
+        FeatureFlags.Flag rollout = reference.getFeatureFlags().flag("rollout");
+        int enabled = 0;
+        boolean[] enabledAt25 = new boolean[10000];
+        for (int id = 0; id < enabledAt25.length; id++) {
+            enabledAt25[id] = rollout.isEnabled(id);
+            Assert.assertEquals(enabledAt25[id], rollout.isEnabled(Integer.toString(id)));
+            if (enabledAt25[id]) {
+                enabled++;
+            }
+        }
+        Assert.assertTrue("Enabled for " + enabled, enabled > 2250 && enabled < 2750);
+        Assert.assertFalse(rollout.isEnabled());
+        
+        TestConfigs.write(configFile, "feature.rollout=50.5%\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        for (int id = 0; id < enabledAt25.length; id++) {
+            if (enabledAt25[id]) {
+                Assert.assertTrue(rollout.isEnabled(id));
+            }
+        }
+        
+        TestConfigs.write(configFile, "feature.rollout=0%\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        Assert.assertFalse(rollout.isEnabled(1));
+        TestConfigs.write(configFile, "feature.rollout=100%\n");
+        ConfigSnapshotCache.getInstance().reload(location);
+        Assert.assertTrue(rollout.isEnabled(1));
+    }
+    
+    @Test
+    public void testDecimalHashCode() {
+        long[] values = {0, 1, -1, 9, 10, 42, -42, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            Assert.assertEquals(Long.toString(value).hashCode(), FeatureFlagTable.decimalHashCode(value));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpConfigSourceTest {
+    
+    private HttpServer server;
+    
+    private volatile String content;
+    
+    private final AtomicInteger requests = new AtomicInteger();
+    
+    private final AtomicInteger notModified = new AtomicInteger();
+    
+    private File cacheDirectory;
+    
+    private HttpConfigSource source;
+    
+    private final ConfigHelper configHelper = new ConfigHelper("test");
+    
+    @Before
+    public void setUp() throws IOException {
+        content = "a=1\n";
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/app.properties", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String etag = "\"" + Integer.toHexString(content.hashCode()) + "\"";
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] body = content.getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(body);
+                    os.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        cacheDirectory = File.createTempFile("http-config-source", "");
+        cacheDirectory.delete();
+        source = new HttpConfigSource(cacheDirectory, 0, 10000);
+        ConfigSources.register(source);
+    }
+    
+    @After
+    public void tearDown() {
+        ConfigSources.unregister(source);
+        source.close();
+        server.stop(0);
+        File[] files = cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDirectory.delete();
+    }
+    
+    @Test
+    public void testConditionalRefresh() throws ConfigLoadException {
+        ConfigSnapshot snapshot = configHelper.loadSnapshot(location(), null);
+        Assert.assertEquals("1", snapshot.getString("a"));
+        Assert.assertEquals(1, requests.get());
+        
+        Assert.assertFalse(source.refresh(location()));
+        Assert.assertEquals(1, notModified.get());
+        
+        content = "a=2\n";
+        long version = source.getVersion(location());
+        Assert.assertTrue(source.refresh(location()));
+        Assert.assertTrue(source.getVersion(location()) != version);
+        Assert.assertEquals("2", configHelper.loadSnapshot(location(), null).getString("a"));
+        Assert.assertEquals(3, requests.get());
+    }
+    
+    @Test
+    public void testLastKnownGoodIsUsedWithoutTheServer() throws ConfigLoadException {
+        configHelper.loadSnapshot(location(), null);
+        String location = location();
+        server.stop(0);
+        
+        HttpConfigSource restarted = new HttpConfigSource(cacheDirectory, 0, 10000);
+        ConfigSources.register(restarted);
+        try {
+            Assert.assertEquals("1", configHelper.loadSnapshot(location, null).getString("a"));
+            Assert.assertFalse(restarted.refresh(location));
+        } finally {
+            ConfigSources.unregister(restarted);
+            restarted.close();
+        }
+    }
+    
+    @Test
+    public void testRefreshStopsWhenReleased() throws Exception {
+        HttpConfigSource refreshing = new HttpConfigSource(cacheDirectory, 20, 10000);
+        ConfigSources.register(refreshing);
+        String location = location();
+        try {
+            ConfigRegistry.getInstance().acquire(location, configHelper);
+            Assert.assertTrue(refreshing.isRefreshing());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (notModified.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(notModified.get() > 0);
+            
+            ConfigRegistry.getInstance().release(location);
+            Assert.assertFalse(refreshing.isRefreshing());
+            Assert.assertEquals(0, refreshing.getVersion(location));
+            int requestCount = requests.get();
+            content = "a=2\n";
+            Thread.sleep(200);
+            Assert.assertEquals(requestCount, requests.get());
+        } finally {
+            ConfigRegistry.getInstance().release(location);
+            ConfigSources.unregister(refreshing);
+            refreshing.close();
+        }
+    }
+    
+    @Test
+    public void testCacheIsOnlyAccessibleByTheOwner() throws Exception {
+        Assert.assertTrue(cacheDirectory.mkdirs());
+        Files.setPosixFilePermissions(cacheDirectory.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+        configHelper.loadSnapshot(location(), null);
+        
+        Assert.assertEquals("rwx------", 
+                PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDirectory.toPath())));
+        File[] files = cacheDirectory.listFiles();
+        Assert.assertEquals(2, files.length);
+        for (File file : files) {
+            Assert.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+        }
+    }
+    
+    @Test
+    public void testMissingConfiguration() {
+        try {
+            configHelper.loadSnapshot("http://127.0.0.1:" + server.getAddress().getPort() + "/missing.properties", null);
+            Assert.fail("Expected a ConfigLoadException");
+        } catch (ConfigLoadException e) {
+            Assert.assertEquals(ConfigLoadException.Reason.NOT_FOUND, e.getReason());
+        }
+    }
+    
+    private String location() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/app.properties";
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayeredConfigurationTest {
+    
+    private File defaultsFile;
+    
+    private File overlayFile;
+    
+    private LayeredConfiguration configuration;
+    
+    @Before
+    public void setUp() throws IOException {
+        ConfigSnapshotCache.getInstance().setCheckInterval(0);
+        defaultsFile = TestConfigs.createFile("layered-defaults");
+        overlayFile = TestConfigs.createFile("layered-overlay");
+        TestConfigs.write(defaultsFile, "db.url=jdbc:h2:mem\ndb.pool.size=5\nlayered.test.timeout=10s\n");
+        TestConfigs.write(overlayFile, "db.url=jdbc:postgresql://db/app\n");
+        configuration = new ConfigHelper("test").getLayeredConfiguration(TestConfigs.location(defaultsFile), 
+                TestConfigs.location(overlayFile));
+    }
+    
+    @After
+    public void tearDown() {
+        configuration.close();
+        System.clearProperty("layered.test.timeout");
+        ConfigSnapshotCache.getInstance().setCheckInterval(1000);
+        TestConfigs.delete(defaultsFile);
+        TestConfigs.delete(overlayFile);
+    }
+    
+    @Test
+    public void testLaterLayersOverride() {
+        ConfigSnapshot snapshot = configuration.getSnapshot();
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals("jdbc:postgresql://db/app", snapshot.getString("db.url"));
+        Assert.assertEquals(5, snapshot.getInt("db.pool.size", -1));
+    }
+    
+    @Test
+    public void testSystemPropertyOverridesExistingKeysOnly() {
+        Assert.assertEquals("10s", configuration.getSnapshot().getString("layered.test.timeout"));
+        System.setProperty("layered.test.timeout", "30s");
+        System.setProperty("layered.test.unknown", "x");
+        try {
+            // Only read again on refresh
+            Assert.assertEquals("10s", configuration.getSnapshot().getString("layered.test.timeout"));
+            configuration.refresh();
+            ConfigSnapshot snapshot = configuration.getSnapshot();
+            Assert.assertEquals("30s", snapshot.getString("layered.test.timeout"));
+            Assert.assertFalse(snapshot.containsKey("layered.test.unknown"));
+            
+            System.clearProperty("layered.test.timeout");
+            configuration.refresh();
+            Assert.assertEquals("10s", configuration.getSnapshot().getString("layered.test.timeout"));
+        } finally {
+            System.clearProperty("layered.test.unknown");
+        }
+    }
+    
+    @Test
+    public void testChangedLayerIsMerged() throws IOException {
+        ConfigReference reference = configuration.getReference();
+        ConfigKey<String> url = reference.stringKey("db.url", null);
+        ConfigKey<Integer> poolSize = reference.intKey("db.pool.size", -1);
+        final List<ConfigChangeEvent> events = new ArrayList<ConfigChangeEvent>();
+        reference.addChangeListener(new ConfigChangeListener() {
+            public void configurationChanged(ConfigChangeEvent event) {
+                events.add(event);
+            }
+        });
+        ConfigSnapshot defaults = ConfigSnapshotCache.getInstance().getSnapshot(TestConfigs.location(defaultsFile));
+        
+        TestConfigs.write(overlayFile, "db.url=jdbc:postgresql://db/app\ndb.pool.size=20\n");
+        overlayFile.setLastModified(overlayFile.lastModified() + 2000);
+        configuration.refresh();
+        
+        Assert.assertEquals(20, poolSize.intValue());
+        Assert.assertEquals("jdbc:postgresql://db/app", url.stringValue());
+        Assert.assertEquals(1, events.size());
+        Assert.assertTrue(events.get(0).isAffected("db.pool.size"));
+        Assert.assertFalse(events.get(0).isAffected("db.url"));
+        // The unchanged layer was not read again
+        Assert.assertSame(defaults, ConfigSnapshotCache.getInstance().getSnapshot(TestConfigs.location(defaultsFile)));
+    }
+    
+    @Test
+    public void testEnvironmentName() {
+        Assert.assertEquals("DB_POOL_SIZE", LayeredConfiguration.environmentName("db.pool-size"));
+    }
+    
+}
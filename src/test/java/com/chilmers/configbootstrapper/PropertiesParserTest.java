@@ -0,0 +1,134 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.PropertyResourceBundle;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PropertiesParserTest {
+    
+    private static final String SYNTAX = 
+            "# comment\n"
+            + "! another comment \\\n"
+            + "plain=value\n"
+            + "  indented : with colon  \n"
+            + "spaced   value after spaces\n"
+            + "spacedEquals  =  value\n"
+            + "empty\n"
+            + "emptyWithSeparator=\n"
+            + "escaped\\ key\\=x=escaped\\tvalue\\n\n"
+            + "unicode=\\u00e5\\u00e4\\u00f6\n"
+            + "continued=first \\\n"
+            + "       second \\\r\n"
+            + "\tthird\n"
+            + "windows=line\r\n"
+            + "mac=line\r"
+            + "duplicate=first\n"
+            + "duplicate=second\n"
+            + "leading=\\  space\n"
+            + "backslash=c:\\\\temp\\\\\n"
+            + "other\\escape=\\q\n"
+            + "last=no newline\\";
+    
+    @Test
+    public void testSyntaxMatchesProperties() throws IOException {
+        assertSameAsProperties(SYNTAX.getBytes("ISO-8859-1"));
+    }
+    
+    @Test
+    public void testEncodings() throws IOException {
+        ConfigSnapshot utf8 = parse("text=\u00e5\u00e4\u00f6 \u20ac \uD83D\uDE00\n".getBytes("UTF-8"));
+        Assert.assertEquals("\u00e5\u00e4\u00f6 \u20ac \uD83D\uDE00", utf8.getString("text"));
+        // Not valid UTF-8, read as ISO-8859-1 like PropertyResourceBundle does
+        ConfigSnapshot latin1 = parse("text=\u00e5\u00e4\u00f6\n".getBytes("ISO-8859-1"));
+        Assert.assertEquals("\u00e5\u00e4\u00f6", latin1.getString("text"));
+    }
+    
+    @Test
+    public void testMalformedUnicodeEscape() throws IOException {
+        try {
+            parse("a=\\u00zz\n".getBytes("ISO-8859-1"));
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected, same as Properties
+        }
+    }
+    
+    @Test
+    public void testMappedFile() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < PropertiesParser.MAP_THRESHOLD; i++) {
+            text.append("key").append(i).append(" = value ").append(i).append('\n');
+        }
+        File file = TestConfigs.createFile("properties-parser");
+        try {
+            TestConfigs.write(file, text.toString());
+            FileInputStream is = new FileInputStream(file);
+            ConfigSnapshot snapshot;
+            try {
+                snapshot = PropertiesParser.parse(TestConfigs.location(file), is);
+            } finally {
+                is.close();
+            }
+            Assert.assertEquals(file.length(), snapshot.getSourceBytes());
+            Assert.assertEquals("value 0", snapshot.getString("key0"));
+            Assert.assertEquals("value " + (snapshot.size() - 1), snapshot.getString("key" + (snapshot.size() - 1)));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testResourceBundleRoundTrip() throws IOException {
+        ConfigSnapshot snapshot = parse(SYNTAX.getBytes("ISO-8859-1"));
+        PropertyResourceBundle bundle = snapshot.getResourceBundle();
+        Assert.assertSame(bundle, snapshot.getResourceBundle());
+        int count = 0;
+        for (Enumeration<String> keys = bundle.getKeys(); keys.hasMoreElements(); count++) {
+            String key = keys.nextElement();
+            Assert.assertEquals(snapshot.getString(key), bundle.getString(key));
+        }
+        Assert.assertEquals(snapshot.size(), count);
+    }
+    
+    private static ConfigSnapshot parse(byte[] bytes) throws IOException {
+        return PropertiesParser.parse("test", new ByteArrayInputStream(bytes));
+    }
+    
+    private static void assertSameAsProperties(byte[] bytes) throws IOException {
+        Properties expected = new Properties();
+        expected.load(new ByteArrayInputStream(bytes));
+        ConfigSnapshot snapshot = parse(bytes);
+        Assert.assertEquals(expected.size(), snapshot.size());
+        for (String key : expected.stringPropertyNames()) {
+            Assert.assertEquals("Value of " + key, expected.getProperty(key), snapshot.getString(key));
+        }
+        Assert.assertEquals(bytes.length, snapshot.getSourceBytes());
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SystemPropertyExporterTest {
+    
+    private final SystemPropertyExporter exporter = new SystemPropertyExporter("system.property.");
+    
+    @After
+    public void tearDown() {
+        System.clearProperty("exporter.test.a");
+        System.clearProperty("exporter.test.b");
+    }
+    
+    @Test
+    public void testOnlyChangesAreExported() throws IOException {
+        SystemPropertyExporter.Result first = exporter.export(
+                TestConfigs.parse("system.property.exporter.test.a=1\n"
+                        + "system.property.exporter.test.b=2\nother=x\n"), false, null);
+        Assert.assertEquals(2, first.changed.size());
+        Assert.assertEquals("1", System.getProperty("exporter.test.a"));
+        Assert.assertEquals("2", System.getProperty("exporter.test.b"));
+        
+        SystemPropertyExporter.Result second = exporter.export(
+                TestConfigs.parse("system.property.exporter.test.a=1\n"
+                        + "system.property.exporter.test.b=3\n"), false, null);
+        Assert.assertEquals(1, second.changed.size());
+        Assert.assertEquals("3", second.changed.get("exporter.test.b"));
+        Assert.assertEquals("3", System.getProperty("exporter.test.b"));
+        
+        Assert.assertTrue(exporter.export(
+                TestConfigs.parse("system.property.exporter.test.a=1\n"
+                        + "system.property.exporter.test.b=3\n"), false, null).isEmpty());
+    }
+    
+    @Test
+    public void testRemoveStale() throws IOException {
+        exporter.export(TestConfigs.parse(
+                "system.property.exporter.test.a=1\nsystem.property.exporter.test.b=2\n"), true, null);
+        System.setProperty("exporter.test.b", "changed elsewhere");
+        SystemPropertyExporter.Result result = exporter.export(TestConfigs.parse("x=y\n"), true, null);
+        Assert.assertEquals(1, result.removed.size());
+        Assert.assertNull(System.getProperty("exporter.test.a"));
+        Assert.assertEquals("changed elsewhere", System.getProperty("exporter.test.b"));
+    }
+    
+    @Test
+    public void testRemoveStaleKeepsPropertiesSetByOthers() throws IOException {
+        System.setProperty("exporter.test.a", "1");
+        System.setProperty("exporter.test.b", "started with");
+        SystemPropertyExporter.Result first = exporter.export(
+                TestConfigs.parse("system.property.exporter.test.a=1\n"
+                        + "system.property.exporter.test.b=2\n"), true, null);
+        Assert.assertEquals(1, first.changed.size());
+        Assert.assertEquals("2", System.getProperty("exporter.test.b"));
+        
+        SystemPropertyExporter.Result second = exporter.export(TestConfigs.parse("x=y\n"), true, null);
+        Assert.assertEquals(1, second.removed.size());
+        Assert.assertEquals("1", System.getProperty("exporter.test.a"));
+        Assert.assertEquals("started with", System.getProperty("exporter.test.b"));
+    }
+    
+    @Test
+    public void testSetter() throws IOException {
+        final List<String> set = new ArrayList<String>();
+        ConfigSnapshot snapshot = TestConfigs.parse("system.property.exporter.test.a=1\n");
+        exporter.export(snapshot, false, new SystemPropertyExporter.Setter() {
+            public void setSystemProperty(String key, String value) {
+                set.add(key + "=" + value);
+            }
+        });
+        Assert.assertEquals(1, set.size());
+        Assert.assertEquals("exporter.test.a=1", set.get(0));
+        Assert.assertNull(System.getProperty("exporter.test.a"));
+    }
+}
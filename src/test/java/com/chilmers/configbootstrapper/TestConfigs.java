@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2013 Christian Hilmersson
+ *    
+ *    This file is part of config-bootstrapper (https://github.com/chilmers/config-bootstrapper)
+ *    
+ *    config-bootstrapper is free software; you can redistribute it and/or modify
+ *    it under the terms of version 2.1 of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation.
+ *    
+ *    config-bootstrapper is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Lesser General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with config-bootstrapper; if not, write to the
+ *    Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *    Boston, MA 02111-1307  USA
+ */
+package com.chilmers.configbootstrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Configuration files and snapshots for tests. Content is encoded in ISO-8859-1, the encoding of .properties files.
+ */
+final class TestConfigs {
+
+    private TestConfigs() {
+    }
+    
+    /**
+     * @param prefix the prefix of the file name, e.g. the name of the test
+     * @return a new empty temporary .properties file
+     */
+    static File createFile(String prefix) throws IOException {
+        return File.createTempFile(prefix, ".properties");
+    }
+    
+    /**
+     * @return the file: location of the given file
+     */
+    static String location(File file) {
+        return "file:" + file.getAbsolutePath();
+    }
+    
+    static void write(File file, String content) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            os.close();
+        }
+    }
+    
+    /**
+     * Evicts the location of the given file from the {@link ConfigSnapshotCache} and deletes the file.
+     */
+    static void delete(File file) {
+        ConfigSnapshotCache.getInstance().evict(location(file));
+        file.delete();
+    }
+    
+    static ConfigSnapshot parse(String content) throws IOException {
+        return parse(content, null);
+    }
+    
+    static ConfigSnapshot parse(String content, ConfigSnapshot previous) throws IOException {
+        return PropertiesParser.parse("test", new ByteArrayInputStream(content.getBytes("ISO-8859-1")), previous);
+    }
+}